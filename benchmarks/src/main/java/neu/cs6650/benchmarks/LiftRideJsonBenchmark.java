@@ -0,0 +1,68 @@
+package neu.cs6650.benchmarks;
+
+import com.google.gson.Gson;
+import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.LiftRideJsonDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lift ride body decoding: the reader, StringBuilder and Gson route SkierServlet used before,
+ * against LiftRideJsonDecoder on the body bytes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LiftRideJsonBenchmark {
+
+  private final Gson gson = new Gson();
+  private byte[] body;
+  private LiftRideJsonDecoder decoder;
+
+  @Setup
+  public void setUp() {
+    body = "{\"time\":217,\"liftID\":21}".getBytes(StandardCharsets.UTF_8);
+    decoder = new LiftRideJsonDecoder();
+  }
+
+  @Benchmark
+  public LiftRide readerAndGson() throws IOException {
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+    StringBuilder sb = new StringBuilder();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      sb.append(line);
+    }
+    return gson.fromJson(sb.toString(), LiftRide.class);
+  }
+
+  @Benchmark
+  public LiftRide decoder() {
+    if (!decoder.decode(body)) {
+      throw new IllegalStateException("Benchmark body not decoded");
+    }
+    LiftRide liftRide = new LiftRide();
+    liftRide.setLiftID(decoder.getLiftID());
+    liftRide.setTime(decoder.getTime());
+    return liftRide;
+  }
+}
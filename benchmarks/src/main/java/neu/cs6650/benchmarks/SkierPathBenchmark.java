@@ -0,0 +1,102 @@
+package neu.cs6650.benchmarks;
+
+import neu.cs6650.common.SkierPath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Skier POST path handling: the split-based validation and extraction SkierServlet used before
+ * SkierPath, against SkierPath. Run with {@code -prof gc} to compare allocation per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SkierPathBenchmark {
+
+  @Param({"/7/seasons/2025/days/1/skiers/48213", "/7/seasons/2025/days/2/skiers/48213"})
+  private String path;
+
+  private SkierPath skierPath;
+
+  @Setup
+  public void setUp() {
+    skierPath = new SkierPath();
+  }
+
+  @Benchmark
+  public void splitAndParse(Blackhole blackhole) {
+    if (!splitValidate(path)) {
+      blackhole.consume(false);
+      return;
+    }
+    String[] urlParts = path.split("/");
+    blackhole.consume(Integer.parseInt(urlParts[1]));
+    blackhole.consume(urlParts[3]);
+    blackhole.consume(urlParts[5]);
+    blackhole.consume(Integer.parseInt(urlParts[7]));
+  }
+
+  @Benchmark
+  public void skierPath(Blackhole blackhole) {
+    if (!skierPath.parse(path)) {
+      blackhole.consume(false);
+      return;
+    }
+    blackhole.consume(skierPath.getResortID());
+    blackhole.consume(skierPath.getSeasonID());
+    blackhole.consume(skierPath.getDayID());
+    blackhole.consume(skierPath.getSkierID());
+  }
+
+  /**
+   * SkierServlet.validateUrlPath as it was
+   */
+  private static boolean splitValidate(String urlPath) {
+    if (urlPath == null || urlPath.isEmpty()) {
+      return false;
+    }
+
+    String[] urlParts = urlPath.split("/");
+    if (urlParts.length != 8) {
+      return false;
+    }
+
+    try {
+      int resortID = Integer.parseInt(urlParts[1]);
+      if (resortID < 1 || resortID > 10) return false;
+
+      if (!urlParts[2].equals("seasons")) return false;
+
+      if (!urlParts[3].equals("2025")) return false;
+
+      if (!urlParts[4].equals("days")) return false;
+
+      int dayID = Integer.parseInt(urlParts[5]);
+      if (dayID != 1) return false;
+
+      if (!urlParts[6].equals("skiers")) return false;
+
+      int skierID = Integer.parseInt(urlParts[7]);
+      if (skierID < 1 || skierID > 100000) return false;
+
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package neu.cs6650.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD controller for the number of concurrent BatchWriteItem calls. The limit is halved when
+ * DynamoDB reports throttling (at most once per cooldown, so one burst of throttled responses
+ * counts once) and grows by one after a full window of successful batches.
+ */
+public class AdaptiveRateController {
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveRateController.class);
+
+  private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private final int maxLimit;
+  private volatile int limit;
+  private int successesSinceChange = 0;
+  private long lastDecreaseNanos = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+
+  public AdaptiveRateController(int maxLimit) {
+    this.maxLimit = Math.max(1, maxLimit);
+    this.limit = this.maxLimit;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public synchronized void onThrottle() {
+    long now = System.nanoTime();
+    if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+      return;
+    }
+    lastDecreaseNanos = now;
+    successesSinceChange = 0;
+    int reduced = Math.max(1, limit / 2);
+    if (reduced != limit) {
+      logger.warn("DynamoDB throttling detected, reducing in-flight batch limit {} -> {}", limit, reduced);
+      limit = reduced;
+    }
+  }
+
+  /**
+   * @return true if the limit was raised and waiting writers may proceed
+   */
+  public synchronized boolean onSuccess() {
+    if (limit >= maxLimit) {
+      return false;
+    }
+    if (++successesSinceChange < limit) {
+      return false;
+    }
+    successesSinceChange = 0;
+    limit++;
+    return true;
+  }
+}
@@ -0,0 +1,404 @@
+package neu.cs6650.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Pipelines BatchWriteItem calls over the async client, keeping at most the controller's limit of
+ * requests outstanding. Submitting threads block while the window is full, which pushes back on
+ * the RabbitMQ consumers feeding the write buffer.
+ *
+ * <p>Items DynamoDB hands back as unprocessed, or that fail with a retryable error, go onto a
+ * delay queue with jittered exponential backoff and are re-batched by a dedicated thread. A batch's
+ * future completes only once every one of its items has been written or given up on.
+ */
+public class BatchWriteFlusher {
+  private static final Logger logger = LoggerFactory.getLogger(BatchWriteFlusher.class);
+
+  private static final int BATCH_SIZE = 25;
+  private static final int MAX_ATTEMPTS = 10;
+  private static final long BASE_BACKOFF_MILLIS = 50;
+  private static final long MAX_BACKOFF_MILLIS = 5000;
+
+  private final DynamoDbAsyncClient asyncClient;
+  private final AdaptiveRateController rateController;
+  private final Consumer<PendingWrite> onResolved;
+
+  private final ReentrantLock windowLock = new ReentrantLock();
+  private final Condition slotFreed = windowLock.newCondition();
+  private int inFlight = 0;
+  private final AtomicInteger queued = new AtomicInteger(0);
+  private final Set<CompletableFuture<Void>> outstanding = ConcurrentHashMap.newKeySet();
+
+  private final DelayQueue<RetryEntry> retryQueue = new DelayQueue<>();
+  private final Thread retryThread;
+  private final AtomicBoolean running = new AtomicBoolean(true);
+
+  private final AtomicLong throttledItems = new AtomicLong(0);
+  private final AtomicLong retriedItems = new AtomicLong(0);
+  private final AtomicLong droppedItems = new AtomicLong(0);
+
+  /**
+   * @param onResolved invoked for each item once it is written or dropped, before its callback
+   */
+  public BatchWriteFlusher(DynamoDbAsyncClient asyncClient, int maxInFlight,
+      Consumer<PendingWrite> onResolved) {
+    this.asyncClient = asyncClient;
+    this.rateController = new AdaptiveRateController(maxInFlight);
+    this.onResolved = onResolved;
+
+    this.retryThread = new Thread(this::resubmitLoop, "dynamodb-retry");
+    this.retryThread.setDaemon(true);
+    this.retryThread.start();
+  }
+
+  /**
+   * Write a batch of items, blocking the caller only while the in-flight window is full
+   */
+  public CompletableFuture<Void> submit(List<PendingWrite> writes) {
+    BatchTracker tracker = new BatchTracker(writes.size());
+    outstanding.add(tracker.result);
+    tracker.result.whenComplete((ignored, error) -> outstanding.remove(tracker.result));
+
+    List<RetryEntry> entries = new ArrayList<>(writes.size());
+    for (PendingWrite write : writes) {
+      entries.add(new RetryEntry(write, tracker));
+    }
+    send(entries);
+    return tracker.result;
+  }
+
+  /**
+   * Wait until every batch submitted so far has completed, including its retries
+   */
+  public void awaitOutstanding() {
+    CompletableFuture<?>[] pending = outstanding.toArray(new CompletableFuture<?>[0]);
+    try {
+      CompletableFuture.allOf(pending).join();
+    } catch (Exception e) {
+      logger.error("Error waiting for batch writes to complete", e);
+    }
+  }
+
+  public int getInFlightCount() {
+    windowLock.lock();
+    try {
+      return inFlight;
+    } finally {
+      windowLock.unlock();
+    }
+  }
+
+  public int getQueuedCount() {
+    return queued.get();
+  }
+
+  public int getRetryQueueSize() {
+    return retryQueue.size();
+  }
+
+  public int getInFlightLimit() {
+    return rateController.getLimit();
+  }
+
+  public long getThrottledItemCount() {
+    return throttledItems.get();
+  }
+
+  public long getRetriedItemCount() {
+    return retriedItems.get();
+  }
+
+  public long getDroppedItemCount() {
+    return droppedItems.get();
+  }
+
+  public void shutdown() {
+    running.set(false);
+    retryThread.interrupt();
+    for (RetryEntry entry : retryQueue) {
+      drop(entry, "consumer shutting down");
+    }
+    retryQueue.clear();
+  }
+
+  private void send(List<RetryEntry> entries) {
+    queued.incrementAndGet();
+    try {
+      acquireSlot();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      for (RetryEntry entry : entries) {
+        drop(entry, "interrupted while waiting for write window");
+      }
+      return;
+    } finally {
+      queued.decrementAndGet();
+    }
+
+    try {
+      asyncClient.batchWriteItem(buildRequest(entries))
+          .whenComplete((response, error) -> onComplete(entries, response, error));
+    } catch (Exception e) {
+      onComplete(entries, null, e);
+    }
+  }
+
+  private void onComplete(List<RetryEntry> entries, BatchWriteItemResponse response, Throwable error) {
+    boolean throttled = false;
+    try {
+      if (error != null) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+            ? error.getCause() : error;
+        throttled = isThrottling(cause);
+        if (throttled) {
+          throttledItems.addAndGet(entries.size());
+        }
+        if (throttled || isRetryable(cause)) {
+          logger.warn("Batch write of {} items failed, scheduling retry: {}", entries.size(), cause.toString());
+          scheduleRetry(entries);
+        } else {
+          logger.error("Batch write of {} items failed permanently", entries.size(), cause);
+          for (RetryEntry entry : entries) {
+            drop(entry, cause.toString());
+          }
+        }
+        return;
+      }
+
+      List<WriteRequest> unprocessed = new ArrayList<>();
+      if (response.hasUnprocessedItems()) {
+        response.unprocessedItems().values().forEach(unprocessed::addAll);
+      }
+
+      if (unprocessed.isEmpty()) {
+        for (RetryEntry entry : entries) {
+          written(entry);
+        }
+        logger.debug("Flushed batch of {} items to DynamoDB", entries.size());
+        return;
+      }
+
+      throttled = true;
+      throttledItems.addAndGet(unprocessed.size());
+      List<RetryEntry> remaining = new ArrayList<>(entries);
+      List<RetryEntry> toRetry = new ArrayList<>(unprocessed.size());
+      for (WriteRequest request : unprocessed) {
+        Map<String, AttributeValue> item = request.putRequest().item();
+        for (int i = 0; i < remaining.size(); i++) {
+          if (remaining.get(i).write.getItem().equals(item)) {
+            toRetry.add(remaining.remove(i));
+            break;
+          }
+        }
+      }
+      for (RetryEntry entry : remaining) {
+        written(entry);
+      }
+      logger.debug("Batch write left {} of {} items unprocessed", toRetry.size(), entries.size());
+      scheduleRetry(toRetry);
+    } finally {
+      releaseSlot(throttled);
+    }
+  }
+
+  private void scheduleRetry(List<RetryEntry> entries) {
+    for (RetryEntry entry : entries) {
+      entry.attempts++;
+      if (entry.attempts >= MAX_ATTEMPTS) {
+        drop(entry, "gave up after " + entry.attempts + " attempts");
+        continue;
+      }
+      long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << entry.attempts);
+      long delayMillis = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+      entry.readyAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+      retryQueue.add(entry);
+    }
+  }
+
+  /**
+   * Collects whatever retries are due into full batches so throttled items from many responses
+   * share one request instead of each going out alone
+   */
+  private void resubmitLoop() {
+    while (running.get()) {
+      try {
+        RetryEntry first = retryQueue.take();
+        List<RetryEntry> batch = new ArrayList<>(BATCH_SIZE);
+        batch.add(first);
+        RetryEntry next;
+        while (batch.size() < BATCH_SIZE && (next = retryQueue.poll()) != null) {
+          batch.add(next);
+        }
+        retriedItems.addAndGet(batch.size());
+        send(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        logger.error("Error resubmitting unprocessed items", e);
+      }
+    }
+  }
+
+  private void written(RetryEntry entry) {
+    onResolved.accept(entry.write);
+    entry.write.getCallback().onWritten();
+    entry.tracker.itemWritten();
+  }
+
+  private void drop(RetryEntry entry, String reason) {
+    droppedItems.incrementAndGet();
+    logger.error("Dropping lift ride item after failed write: {}", reason);
+    onResolved.accept(entry.write);
+    entry.write.getCallback().onFailed(new IllegalStateException(reason));
+    entry.tracker.itemDropped();
+  }
+
+  private void acquireSlot() throws InterruptedException {
+    windowLock.lockInterruptibly();
+    try {
+      while (inFlight >= rateController.getLimit()) {
+        slotFreed.await();
+      }
+      inFlight++;
+    } finally {
+      windowLock.unlock();
+    }
+  }
+
+  private void releaseSlot(boolean throttled) {
+    boolean raised;
+    if (throttled) {
+      rateController.onThrottle();
+      raised = false;
+    } else {
+      raised = rateController.onSuccess();
+    }
+
+    windowLock.lock();
+    try {
+      inFlight--;
+      if (raised) {
+        slotFreed.signalAll();
+      } else {
+        slotFreed.signal();
+      }
+    } finally {
+      windowLock.unlock();
+    }
+  }
+
+  private static boolean isThrottling(Throwable error) {
+    return error instanceof AwsServiceException && ((AwsServiceException) error).isThrottlingException();
+  }
+
+  private static boolean isRetryable(Throwable error) {
+    if (error instanceof SdkClientException) {
+      return true;
+    }
+    return error instanceof AwsServiceException && ((AwsServiceException) error).statusCode() >= 500;
+  }
+
+  /**
+   * Items may target different tables, e.g. while rides move to the compact format
+   */
+  private BatchWriteItemRequest buildRequest(List<RetryEntry> entries) {
+    Map<String, List<WriteRequest>> requestItems = new HashMap<>();
+    for (RetryEntry entry : entries) {
+      PutRequest putRequest = PutRequest.builder().item(entry.write.getItem()).build();
+      requestItems.computeIfAbsent(entry.write.getTableName(), k -> new ArrayList<>())
+          .add(WriteRequest.builder().putRequest(putRequest).build());
+    }
+
+    return BatchWriteItemRequest.builder()
+        .requestItems(requestItems)
+        .build();
+  }
+
+  /**
+   * Completes a submitted batch once all of its items have either been written or dropped
+   */
+  private static final class BatchTracker {
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final AtomicInteger remaining;
+    private final AtomicInteger dropped = new AtomicInteger(0);
+
+    private BatchTracker(int size) {
+      this.remaining = new AtomicInteger(size);
+      if (size == 0) {
+        result.complete(null);
+      }
+    }
+
+    private void itemWritten() {
+      finishOne();
+    }
+
+    private void itemDropped() {
+      dropped.incrementAndGet();
+      finishOne();
+    }
+
+    private void finishOne() {
+      if (remaining.decrementAndGet() == 0) {
+        int lost = dropped.get();
+        if (lost == 0) {
+          result.complete(null);
+        } else {
+          result.completeExceptionally(
+              new IllegalStateException(lost + " items in batch could not be written"));
+        }
+      }
+    }
+  }
+
+  private static final class RetryEntry implements Delayed {
+    private final PendingWrite write;
+    private final BatchTracker tracker;
+    private int attempts = 0;
+    private long readyAtNanos;
+
+    private RetryEntry(PendingWrite write, BatchTracker tracker) {
+      this.write = write;
+      this.tracker = tracker;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(readyAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(readyAtNanos, ((RetryEntry) other).readyAtNanos);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package neu.cs6650.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * In-memory rides held as primitive columns. Every ride gets a slot in shared chunked columns
+ * (lift and time as shorts, plus the slot of the skier's previous ride), and a skierID-indexed
+ * head array points at each skier's latest ride, so a ride costs 8 bytes and no objects. Appends
+ * are lock-free: a slot is claimed with an atomic increment, filled, then published by CASing it
+ * onto the skier's chain. Readers walk the chain from the head they observe, which gives them a
+ * consistent snapshot while appends continue.
+ *
+ * <p>IDs in the valid 1..100000 range index the head array directly; anything outside it (which
+ * the servers reject, but the queue does not guarantee) goes to a small overflow map.
+ */
+public class ColumnarSkierDataStore implements SkierDataStore {
+  private static final Logger logger = LoggerFactory.getLogger(ColumnarSkierDataStore.class);
+
+  private static final int CHUNK_BITS = 16;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int MAX_CHUNKS = 1 << 14;
+
+  /** Slot + 1 of each skier's latest ride; 0 means no rides */
+  private final AtomicIntegerArray heads = new AtomicIntegerArray(SkierIdBitmap.MAX_SKIER_ID + 1);
+  private final Map<Integer, AtomicInteger> overflowHeads = new ConcurrentHashMap<>();
+  private final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+  private final AtomicInteger nextSlot = new AtomicInteger(0);
+
+  private final AtomicInteger totalProcessedMessages = new AtomicInteger(0);
+  private final AtomicInteger uniqueSkiers = new AtomicInteger(0);
+
+  @Override
+  public void addLiftRide(int skierID, int liftID, int time) {
+    SkierDataStore.checkRange(liftID, time);
+    int slot = nextSlot.getAndIncrement();
+    if (slot < 0 || slot >= MAX_CHUNKS * CHUNK_SIZE) {
+      throw new IllegalStateException("Skier data store is full");
+    }
+    Chunk chunk = chunk(slot >>> CHUNK_BITS);
+    int index = slot & CHUNK_MASK;
+    chunk.liftIDs[index] = (short) liftID;
+    chunk.times[index] = (short) time;
+
+    if (skierID > 0 && skierID <= SkierIdBitmap.MAX_SKIER_ID) {
+      while (true) {
+        int head = heads.get(skierID);
+        chunk.previous[index] = head;
+        if (heads.compareAndSet(skierID, head, slot + 1)) {
+          if (head == 0) {
+            uniqueSkiers.incrementAndGet();
+          }
+          break;
+        }
+      }
+    } else {
+      AtomicInteger head = overflowHeads.computeIfAbsent(skierID, k -> {
+        uniqueSkiers.incrementAndGet();
+        return new AtomicInteger(0);
+      });
+      while (true) {
+        int previous = head.get();
+        chunk.previous[index] = previous;
+        if (head.compareAndSet(previous, slot + 1)) {
+          break;
+        }
+      }
+    }
+
+    totalProcessedMessages.incrementAndGet();
+  }
+
+  @Override
+  public void forEachRide(int skierID, RideVisitor visitor) {
+    int[] slots = snapshot(skierID);
+    for (int i = slots.length - 1; i >= 0; i--) {
+      int slot = slots[i];
+      Chunk chunk = chunks.get(slot >>> CHUNK_BITS);
+      int index = slot & CHUNK_MASK;
+      visitor.visit(chunk.liftIDs[index], chunk.times[index]);
+    }
+  }
+
+  @Override
+  public void forEachSkier(IntConsumer action) {
+    for (int skierID = 1; skierID <= SkierIdBitmap.MAX_SKIER_ID; skierID++) {
+      if (heads.get(skierID) != 0) {
+        action.accept(skierID);
+      }
+    }
+    for (Integer skierID : overflowHeads.keySet()) {
+      action.accept(skierID);
+    }
+  }
+
+  @Override
+  public int getRideCount(int skierID) {
+    return snapshot(skierID).length;
+  }
+
+  @Override
+  public int getUniqueSkiersCount() {
+    return uniqueSkiers.get();
+  }
+
+  @Override
+  public int getTotalProcessedMessages() {
+    return totalProcessedMessages.get();
+  }
+
+  /**
+   * Slots of the skier's rides, newest first
+   */
+  private int[] snapshot(int skierID) {
+    int head;
+    if (skierID > 0 && skierID <= SkierIdBitmap.MAX_SKIER_ID) {
+      head = heads.get(skierID);
+    } else {
+      AtomicInteger overflow = overflowHeads.get(skierID);
+      head = overflow == null ? 0 : overflow.get();
+    }
+    int[] slots = new int[16];
+    int count = 0;
+    while (head != 0) {
+      int slot = head - 1;
+      if (count == slots.length) {
+        slots = Arrays.copyOf(slots, count * 2);
+      }
+      slots[count++] = slot;
+      head = chunks.get(slot >>> CHUNK_BITS).previous[slot & CHUNK_MASK];
+    }
+    return Arrays.copyOf(slots, count);
+  }
+
+  private Chunk chunk(int number) {
+    Chunk chunk = chunks.get(number);
+    if (chunk == null) {
+      Chunk created = new Chunk();
+      if (chunks.compareAndSet(number, null, created)) {
+        logger.debug("Allocated skier data chunk {}", number);
+        return created;
+      }
+      chunk = chunks.get(number);
+    }
+    return chunk;
+  }
+
+  private static final class Chunk {
+    private final short[] liftIDs = new short[CHUNK_SIZE];
+    private final short[] times = new short[CHUNK_SIZE];
+    /** Slot + 1 of the same skier's previous ride; 0 ends the chain */
+    private final int[] previous = new int[CHUNK_SIZE];
+  }
+}
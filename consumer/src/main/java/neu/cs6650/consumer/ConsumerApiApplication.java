@@ -1,8 +1,10 @@
 package neu.cs6650.consumer;
 
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.context.annotation.Bean;
 
 
@@ -15,9 +17,13 @@ public class ConsumerApiApplication {
   }
 
 
+  /**
+   * Standalone query-only service; skipped when the consumer hosts the API with its own instance
+   */
   @Bean
-  public DynamoDBService dynamoDBService() {
-    return new DynamoDBService();
+  @ConditionalOnMissingBean
+  public LiftRideStore liftRideStore(@Value("${consumer.compact-items:false}") boolean compactItems) {
+    return new DynamoDBService(compactItems);
   }
 }
 
@@ -2,6 +2,11 @@ package neu.cs6650.consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 
 public class ConsumerApplication {
   private static final Logger logger = LoggerFactory.getLogger(ConsumerApplication.class);
@@ -12,10 +17,10 @@ public class ConsumerApplication {
       ConsumerConfig config = new ConsumerConfig(args);
 
 
-      DynamoDBService dynamoDBService = new DynamoDBService();
+      LiftRideStore liftRideStore = createStore(config);
 
 
-      PerformanceMonitor monitor = new PerformanceMonitor(dynamoDBService);
+      PerformanceMonitor monitor = new PerformanceMonitor(liftRideStore);
       monitor.startMonitoring(10);
 
 
@@ -26,20 +31,33 @@ public class ConsumerApplication {
           config.getPassword(),
           config.getQueueName(),
           config.getThreadCount(),
-          dynamoDBService
+          liftRideStore
       );
       consumerManager.start();
 
 
+      ConfigurableApplicationContext apiContext = null;
+      if (config.isApiEnabled()) {
+        apiContext = new SpringApplicationBuilder(ConsumerApiApplication.class)
+            .initializers(context -> context.getBeanFactory()
+                .registerSingleton("ingestingLiftRideStore", liftRideStore))
+            .run();
+      }
+      final ConfigurableApplicationContext runningApi = apiContext;
+
+
       Runtime.getRuntime().addShutdownHook(new Thread(() -> {
         logger.info("Shutting down consumer application...");
         monitor.stopMonitoring();
+        if (runningApi != null) {
+          runningApi.close();
+        }
         consumerManager.shutdown();
-        dynamoDBService.shutdown();
+        liftRideStore.shutdown();
 
         logger.info("Final statistics:");
-        logger.info("Total processed messages: {}", dynamoDBService.getTotalProcessedMessages());
-        logger.info("Unique skiers: {}", dynamoDBService.getUniqueSkiersCount());
+        logger.info("Total processed messages: {}", liftRideStore.getTotalProcessedMessages());
+        logger.info("Unique skiers: {}", liftRideStore.getUniqueSkiersCount());
         logger.info("Consumer application stopped");
       }));
 
@@ -48,4 +66,29 @@ public class ConsumerApplication {
       System.exit(1);
     }
   }
+
+  private static LiftRideStore createStore(ConsumerConfig config) throws IOException {
+    LiftRideStore store = createBackingStore(config);
+    if (config.getWalDirectory() != null) {
+      return new WriteAheadLiftRideStore(store, Paths.get(config.getWalDirectory()));
+    }
+    return store;
+  }
+
+  private static LiftRideStore createBackingStore(ConsumerConfig config) throws IOException {
+    switch (config.getStore()) {
+      case "local":
+        return new LocalLiftRideStore(Paths.get(config.getDataDirectory()));
+      case "dynamodb":
+        DynamoDBService dynamoDBService = new DynamoDBService(
+            config.getMaxInFlightBatches(), true, config.getInstanceId(),
+            config.isCompactItems());
+        if (config.getSnapshotDirectory() != null) {
+          dynamoDBService.enableSnapshots(Paths.get(config.getSnapshotDirectory()));
+        }
+        return dynamoDBService;
+      default:
+        throw new IllegalArgumentException("Unknown store: " + config.getStore());
+    }
+  }
 }
\ No newline at end of file
@@ -3,6 +3,9 @@ package neu.cs6650.consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetAddress;
+import java.util.UUID;
+
 public class ConsumerConfig {
   private static final Logger logger = LoggerFactory.getLogger(ConsumerConfig.class);
 
@@ -12,6 +15,14 @@ public class ConsumerConfig {
   private String password = "mypassword";
   private String queueName = "ski-rides";
   private int threadCount = 256;
+  private int maxInFlightBatches = DynamoDBService.DEFAULT_MAX_IN_FLIGHT_BATCHES;
+  private boolean apiEnabled = false;
+  private String instanceId = defaultInstanceId();
+  private boolean compactItems = false;
+  private String store = "dynamodb";
+  private String dataDirectory = "data";
+  private String walDirectory = null;
+  private String snapshotDirectory = null;
 
   public ConsumerConfig(String[] args) {
     parseArgs(args);
@@ -50,13 +61,61 @@ public class ConsumerConfig {
             threadCount = Integer.parseInt(args[++i]);
           }
           break;
+        case "--max-inflight":
+          if (i + 1 < args.length) {
+            maxInFlightBatches = Integer.parseInt(args[++i]);
+          }
+          break;
+        case "--api":
+          apiEnabled = true;
+          break;
+        case "--compact-items":
+          compactItems = true;
+          break;
+        case "--store":
+          if (i + 1 < args.length) {
+            store = args[++i];
+          }
+          break;
+        case "--data-dir":
+          if (i + 1 < args.length) {
+            dataDirectory = args[++i];
+          }
+          break;
+        case "--wal-dir":
+          if (i + 1 < args.length) {
+            walDirectory = args[++i];
+          }
+          break;
+        case "--snapshot-dir":
+          if (i + 1 < args.length) {
+            snapshotDirectory = args[++i];
+          }
+          break;
+        case "--instance-id":
+          if (i + 1 < args.length) {
+            instanceId = args[++i];
+          }
+          break;
         default:
           logger.warn("Unknown argument: {}", args[i]);
       }
     }
 
-    logger.info("Configuration: host={}, port={}, username={}, queue={}, threads={}",
-        host, port, username, queueName, threadCount);
+    logger.info("Configuration: host={}, port={}, username={}, queue={}, threads={}, maxInFlight={}, api={}, instanceId={}, compactItems={}, store={}, walDir={}, snapshotDir={}",
+        host, port, username, queueName, threadCount, maxInFlightBatches, apiEnabled, instanceId,
+        compactItems, store, walDirectory, snapshotDirectory);
+  }
+
+  /**
+   * The host name, so each consumer machine keeps its own unique-skier bitmaps
+   */
+  public static String defaultInstanceId() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (Exception e) {
+      return UUID.randomUUID().toString();
+    }
   }
 
 
@@ -66,4 +125,12 @@ public class ConsumerConfig {
   public String getPassword() { return password; }
   public String getQueueName() { return queueName; }
   public int getThreadCount() { return threadCount; }
+  public int getMaxInFlightBatches() { return maxInFlightBatches; }
+  public boolean isApiEnabled() { return apiEnabled; }
+  public String getInstanceId() { return instanceId; }
+  public boolean isCompactItems() { return compactItems; }
+  public String getStore() { return store; }
+  public String getDataDirectory() { return dataDirectory; }
+  public String getWalDirectory() { return walDirectory; }
+  public String getSnapshotDirectory() { return snapshotDirectory; }
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+package neu.cs6650.consumer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Point-in-time copy of a consumer's in-memory state, so a restarted consumer comes back warm
+ * instead of rebuilding it from scratch. Each part is stored in the compact binary form its owner
+ * produces, and the tail position records how much of the owner's log the state already covers.
+ *
+ * <p>Layout: magic, version, creation time, tail position, total processed messages, duplicate
+ * events, then the unique-skier bitmap, recent event window and aggregates as length-prefixed
+ * sections, and a CRC32 of everything before it. Files are replaced atomically.
+ */
+public class ConsumerSnapshot {
+
+  private static final int MAGIC = 0x534B4953;
+  private static final byte FORMAT_VERSION = 1;
+
+  private final long createdMillis;
+  private final long tailPosition;
+  private final int totalProcessedMessages;
+  private final long duplicateEvents;
+  private final byte[] uniqueSkiers;
+  private final byte[] recentEvents;
+  private final byte[] aggregates;
+
+  /**
+   * @param aggregates empty when the owner does not snapshot its aggregates
+   */
+  public ConsumerSnapshot(long tailPosition, int totalProcessedMessages, long duplicateEvents,
+      byte[] uniqueSkiers, byte[] recentEvents, byte[] aggregates) {
+    this(System.currentTimeMillis(), tailPosition, totalProcessedMessages, duplicateEvents,
+        uniqueSkiers, recentEvents, aggregates);
+  }
+
+  private ConsumerSnapshot(long createdMillis, long tailPosition, int totalProcessedMessages,
+      long duplicateEvents, byte[] uniqueSkiers, byte[] recentEvents, byte[] aggregates) {
+    this.createdMillis = createdMillis;
+    this.tailPosition = tailPosition;
+    this.totalProcessedMessages = totalProcessedMessages;
+    this.duplicateEvents = duplicateEvents;
+    this.uniqueSkiers = uniqueSkiers;
+    this.recentEvents = recentEvents;
+    this.aggregates = aggregates;
+  }
+
+  /**
+   * Write to a temporary file, force it and move it over the previous snapshot
+   */
+  public void write(Path file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+        64 + uniqueSkiers.length + recentEvents.length + aggregates.length);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeByte(FORMAT_VERSION);
+    out.writeLong(createdMillis);
+    out.writeLong(tailPosition);
+    out.writeInt(totalProcessedMessages);
+    out.writeLong(duplicateEvents);
+    writeSection(out, uniqueSkiers);
+    writeSection(out, recentEvents);
+    writeSection(out, aggregates);
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    out.writeInt((int) crc.getValue());
+    out.flush();
+
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return null if there is no snapshot
+   * @throws IOException if the snapshot cannot be read or fails its checksum
+   */
+  public static ConsumerSnapshot read(Path file) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(file);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    if (bytes.length < 4) {
+      throw new IOException("Truncated snapshot " + file);
+    }
+    ByteBuffer in = ByteBuffer.wrap(bytes);
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - 4);
+    if (in.getInt(bytes.length - 4) != (int) crc.getValue()) {
+      throw new IOException("Snapshot " + file + " fails its checksum");
+    }
+    if (in.getInt() != MAGIC || in.get() != FORMAT_VERSION) {
+      throw new IOException("Unsupported snapshot format in " + file);
+    }
+    long createdMillis = in.getLong();
+    long tailPosition = in.getLong();
+    int totalProcessedMessages = in.getInt();
+    long duplicateEvents = in.getLong();
+    byte[] uniqueSkiers = readSection(in);
+    byte[] recentEvents = readSection(in);
+    byte[] aggregates = readSection(in);
+    return new ConsumerSnapshot(createdMillis, tailPosition, totalProcessedMessages,
+        duplicateEvents, uniqueSkiers, recentEvents, aggregates);
+  }
+
+  public long getCreatedMillis() { return createdMillis; }
+  public long getTailPosition() { return tailPosition; }
+  public int getTotalProcessedMessages() { return totalProcessedMessages; }
+  public long getDuplicateEvents() { return duplicateEvents; }
+  public byte[] getUniqueSkiers() { return uniqueSkiers; }
+  public byte[] getRecentEvents() { return recentEvents; }
+  public byte[] getAggregates() { return aggregates; }
+
+  private static void writeSection(DataOutputStream out, byte[] section) throws IOException {
+    out.writeInt(section.length);
+    out.write(section);
+  }
+
+  private static byte[] readSection(ByteBuffer in) {
+    byte[] section = new byte[in.getInt()];
+    in.get(section);
+    return section;
+  }
+}
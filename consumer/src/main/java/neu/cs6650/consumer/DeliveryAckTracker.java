@@ -0,0 +1,85 @@
+package neu.cs6650.consumer;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks unacknowledged deliveries on one channel and acks them with multiple=true once every
+ * delivery up to a tag has been written. Deliveries complete out of order because their items
+ * land in different write batches, so only the contiguous completed prefix is acked.
+ */
+public class DeliveryAckTracker {
+  private static final Logger logger = LoggerFactory.getLogger(DeliveryAckTracker.class);
+
+  private final Channel channel;
+  private final TreeMap<Long, Boolean> outstanding = new TreeMap<>();
+
+  public DeliveryAckTracker(Channel channel) {
+    this.channel = channel;
+  }
+
+  public synchronized void track(long deliveryTag) {
+    outstanding.put(deliveryTag, Boolean.FALSE);
+  }
+
+  public synchronized void complete(long deliveryTag) {
+    if (outstanding.replace(deliveryTag, Boolean.TRUE) != null) {
+      ackCompletedPrefix();
+    }
+  }
+
+  /**
+   * Reject a delivery so the broker redelivers it, then ack anything it was holding back
+   */
+  public synchronized void fail(long deliveryTag) {
+    if (outstanding.remove(deliveryTag) == null) {
+      return;
+    }
+    try {
+      channel.basicNack(deliveryTag, false, true);
+    } catch (IOException | RuntimeException e) {
+      logger.error("Failed to nack delivery {}", deliveryTag, e);
+    }
+    ackCompletedPrefix();
+  }
+
+  /**
+   * The broker redelivers whatever was unacknowledged when the channel failed, under new tags, and
+   * acks for the old tags are no longer sent. Forget them so they do not hold back the new ones.
+   */
+  public synchronized void channelRecovered() {
+    if (!outstanding.isEmpty()) {
+      logger.info("Channel recovered, dropping {} deliveries the broker will redeliver", outstanding.size());
+      outstanding.clear();
+    }
+  }
+
+  public synchronized int getOutstandingCount() {
+    return outstanding.size();
+  }
+
+  private void ackCompletedPrefix() {
+    long highest = -1;
+    while (!outstanding.isEmpty()) {
+      Map.Entry<Long, Boolean> first = outstanding.firstEntry();
+      if (!first.getValue()) {
+        break;
+      }
+      highest = first.getKey();
+      outstanding.pollFirstEntry();
+    }
+    if (highest < 0) {
+      return;
+    }
+    try {
+      channel.basicAck(highest, true);
+    } catch (IOException | RuntimeException e) {
+      logger.error("Failed to ack deliveries up to {}", highest, e);
+    }
+  }
+}
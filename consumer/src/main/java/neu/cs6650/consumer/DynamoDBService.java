@@ -1,45 +1,127 @@
 package neu.cs6650.consumer;
 
 import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.EventIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
-import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
-import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
-
-public class DynamoDBService {
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+public class DynamoDBService implements ReplayableLiftRideStore {
   private static final Logger logger = LoggerFactory.getLogger(DynamoDBService.class);
 
   private final DynamoDbClient dynamoDbClient;
+  private final DynamoDbAsyncClient dynamoDbAsyncClient;
   private final DynamoDbEnhancedClient enhancedClient;
   private final String tableName = "SkierLiftRides";
+  private final String summaryTableName = "SkierSeasonSummary";
+  private final String skierSketchTableName = "ResortDaySkiers";
+  private final String compactTableName = "SkierLiftRidesCompact";
+  private final String compactResortDayIndex = "RideResortDayIndex";
   private final AtomicInteger totalProcessedMessages = new AtomicInteger(0);
-  private final AtomicInteger uniqueSkiers = new AtomicInteger(0);
-
-
-  private final Map<Integer, Boolean> skierCache = new ConcurrentHashMap<>();
 
+  private final SkierIdBitmap uniqueSkiers = new SkierIdBitmap();
 
   private static final int BATCH_SIZE = 25;
-  private final List<Map<String, AttributeValue>> itemBatch = new ArrayList<>();
-  private final ReentrantLock batchLock = new ReentrantLock();
+  public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 32;
+  private static final long LINGER_MILLIS = 50;
+  private static final long SUMMARY_FLUSH_MILLIS = 200;
+  private static final long SKETCH_PERSIST_MILLIS = 1000;
+  private static final long SNAPSHOT_MILLIS = 60_000;
+  private static final String SNAPSHOT_FILE = "state.snapshot";
+  private static final int QUERY_SEGMENTS = 4;
+  private static final int RECENT_EVENT_CAPACITY = 1_000_000;
+  private static final int QUERY_SEGMENT_THREADS = 16;
+  private final StripedBatchBuffer<PendingWrite> writeBuffer;
+  private final BatchWriteFlusher flusher;
+  private final SkierSeasonSummaryWriter summaryWriter;
+  private final ScheduledExecutorService lingerScheduler;
+  private final ScheduledExecutorService sketchScheduler;
+  private final UniqueSkierSketchStore skierSketches;
+  private final PartitionQueryReader partitionReader;
+  private final PendingWriteIndex pendingWrites = new PendingWriteIndex();
+  private final LiftRideAggregates aggregates = new LiftRideAggregates();
+  private final boolean serveFromAggregates;
+  private final boolean compactItems;
+  private final RecentEventWindow recentEvents = new RecentEventWindow(RECENT_EVENT_CAPACITY);
+  private final AtomicLong duplicateEvents = new AtomicLong(0);
+  /** Held shared while a ride is applied and exclusively while the state is copied */
+  private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+  private volatile Path snapshotFile;
+  private volatile ScheduledExecutorService snapshotScheduler;
+  private volatile ConsumerSnapshot restoredSnapshot;
+  private volatile LongSupplier logPosition;
+  private volatile LongConsumer snapshotCovered;
 
+  /**
+   * Query-only instance, as used by the standalone query API. It never sees ingest, so it always
+   * reads through to DynamoDB rather than serving from in-memory aggregates, and starts none of
+   * the write-side clients or threads.
+   */
   public DynamoDBService() {
+    this(false);
+  }
+
+  /**
+   * Query-only instance that also reads the compact table
+   */
+  public DynamoDBService(boolean compactItems) {
+    this(DEFAULT_MAX_IN_FLIGHT_BATCHES, false, ConsumerConfig.defaultInstanceId(), compactItems,
+        false);
+  }
+
+  /**
+   * @param serveFromAggregates answer queries from in-memory aggregates; only correct for the
+   *     instance that ingests every ride
+   * @param instanceID identifies this consumer's unique-skier bitmaps in ResortDaySkiers
+   * @param compactItems write rides in the compact format (see {@link RideItemCodec}); queries
+   *     then read both tables, so rides written before the switch are still found
+   */
+  public DynamoDBService(int maxInFlightBatches, boolean serveFromAggregates, String instanceID,
+      boolean compactItems) {
+    this(maxInFlightBatches, serveFromAggregates, instanceID, compactItems, true);
+  }
+
+  /**
+   * @param acceptsWrites build the async client, write buffers and flush threads; without them
+   *     {@link #addLiftRide} fails every ride
+   */
+  private DynamoDBService(int maxInFlightBatches, boolean serveFromAggregates, String instanceID,
+      boolean compactItems, boolean acceptsWrites) {
+    this.serveFromAggregates = serveFromAggregates;
+    this.compactItems = compactItems;
     this.dynamoDbClient = DynamoDbClient.builder()
         .region(Region.US_WEST_2)
         .credentialsProvider(DefaultCredentialsProvider.create())
@@ -49,144 +131,460 @@ public class DynamoDBService {
         .dynamoDbClient(dynamoDbClient)
         .build();
 
-    logger.info("DynamoDB service initialized");
-  }
-
-  /**
-   * Add a single lift ride to the batch queue and flush if batch size is reached
-   */
-  public void addLiftRide(int skierID, LiftRide liftRide, int resortID, String seasonID, String dayID) {
-    try {
+    this.skierSketches = new UniqueSkierSketchStore(dynamoDbClient, skierSketchTableName, instanceID);
+    this.partitionReader = new PartitionQueryReader(dynamoDbClient, QUERY_SEGMENTS, QUERY_SEGMENT_THREADS);
+
+    if (!acceptsWrites) {
+      this.dynamoDbAsyncClient = null;
+      this.flusher = null;
+      this.summaryWriter = null;
+      this.writeBuffer = null;
+      this.lingerScheduler = null;
+      this.sketchScheduler = null;
+      logger.info("DynamoDB service initialized for queries only, {} items",
+          compactItems ? "compact" : "original");
+      return;
+    }
 
-      String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-      String timestampLiftID = timestamp + "#" + liftRide.getLiftID();
-      String resortDay = resortID + "#" + dayID;
+    this.dynamoDbAsyncClient = DynamoDbAsyncClient.builder()
+        .region(Region.US_WEST_2)
+        .credentialsProvider(DefaultCredentialsProvider.create())
+        .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+            .maxConcurrency(Math.max(50, maxInFlightBatches * 2)))
+        .build();
 
+    this.flusher = new BatchWriteFlusher(
+        dynamoDbAsyncClient, maxInFlightBatches, pendingWrites::remove);
+    this.summaryWriter = new SkierSeasonSummaryWriter(
+        dynamoDbAsyncClient, summaryTableName, SUMMARY_FLUSH_MILLIS, maxInFlightBatches);
+    this.writeBuffer = new StripedBatchBuffer<>(
+        Runtime.getRuntime().availableProcessors() * 4, BATCH_SIZE, flusher::submit);
 
-      int vertical = liftRide.getLiftID() * 10;
+    this.lingerScheduler = Executors.newSingleThreadScheduledExecutor();
+    long lingerNanos = TimeUnit.MILLISECONDS.toNanos(LINGER_MILLIS);
+    lingerScheduler.scheduleWithFixedDelay(() -> {
+      try {
+        writeBuffer.drainIdle(lingerNanos);
+      } catch (Exception e) {
+        logger.error("Error flushing idle write buffer stripes", e);
+      }
+    }, LINGER_MILLIS, LINGER_MILLIS, TimeUnit.MILLISECONDS);
 
-      Map<String, AttributeValue> item = new HashMap<>();
-      item.put("skierID", AttributeValue.builder().n(String.valueOf(skierID)).build());
-      item.put("timestamp_liftID", AttributeValue.builder().s(timestampLiftID).build());
-      item.put("resortID", AttributeValue.builder().n(String.valueOf(resortID)).build());
-      item.put("seasonID", AttributeValue.builder().s(seasonID).build());
-      item.put("dayID", AttributeValue.builder().s(dayID).build());
-      item.put("liftID", AttributeValue.builder().n(String.valueOf(liftRide.getLiftID())).build());
-      item.put("time", AttributeValue.builder().n(String.valueOf(liftRide.getTime())).build());
-      item.put("vertical", AttributeValue.builder().n(String.valueOf(vertical)).build());
-      item.put("timestamp", AttributeValue.builder().s(timestamp).build());
-      item.put("resortDay", AttributeValue.builder().s(resortDay).build());
+    // Saving bitmaps makes blocking DynamoDB calls, so it gets its own thread rather than delaying
+    // the linger drain
+    this.sketchScheduler = Executors.newSingleThreadScheduledExecutor();
+    sketchScheduler.scheduleWithFixedDelay(() -> {
+      try {
+        persistSkierSketches();
+      } catch (Exception e) {
+        logger.error("Error persisting unique skier bitmaps", e);
+      }
+    }, SKETCH_PERSIST_MILLIS, SKETCH_PERSIST_MILLIS, TimeUnit.MILLISECONDS);
 
+    logger.info("DynamoDB service initialized with up to {} in-flight batch writes, {} items",
+        maxInFlightBatches, compactItems ? "compact" : "original");
+  }
 
-      if (!skierCache.containsKey(skierID)) {
-        skierCache.put(skierID, true);
-        uniqueSkiers.incrementAndGet();
+  /**
+   * Add a single lift ride to the batch queue; the callback fires once its batch is written and
+   * the ride has been counted in the season summary, which happens only after its write succeeds.
+   * The item key is derived from the event ID, and an event seen recently is not applied again:
+   * a redelivery of a ride still being written or already written is acknowledged straight away,
+   * and one whose write was given up on is written again without being recounted in memory.
+   *
+   * @param eventID assigned by the server; null for events from older producers, which get a
+   *     fresh ID and so are not deduplicated
+   */
+  @Override
+  public void addLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID,
+      String seasonID, String dayID, WriteCallback callback) {
+    if (writeBuffer == null) {
+      callback.onFailed(new IllegalStateException("Query-only DynamoDB service cannot store rides"));
+      return;
+    }
+    UUID event = EventIds.parseOrNew(eventID);
+    WriteCallback tracked = new WriteCallback() {
+      @Override
+      public void onWritten() {
+        recentEvents.written(event);
+        callback.onWritten();
       }
 
+      @Override
+      public void onFailed(Throwable error) {
+        recentEvents.failed(event);
+        callback.onFailed(error);
+      }
+    };
 
-      batchLock.lock();
-      try {
-        itemBatch.add(item);
-        totalProcessedMessages.incrementAndGet();
-
-        if (itemBatch.size() >= BATCH_SIZE) {
-          flushBatch();
+    PendingWrite write;
+    // held from the event check until the ride is applied, so a snapshot has all of it or none
+    stateLock.readLock().lock();
+    try {
+      RecentEventWindow.State previous = recentEvents.begin(event);
+      if (previous == RecentEventWindow.State.PENDING || previous == RecentEventWindow.State.WRITTEN) {
+        duplicateEvents.incrementAndGet();
+        write = null;
+      } else {
+        PendingWrite pending = pendingWrite(event, skierID, liftRide, resortID, seasonID, dayID, tracked);
+        if (previous == null) {
+          uniqueSkiers.add(skierID);
+          aggregates.recordRide(skierID, resortID, seasonID, dayID, liftRide.getLiftID(),
+              RideItemCodec.vertical(liftRide.getLiftID()), () -> pendingWrites.add(pending));
+        } else {
+          pendingWrites.add(pending);
         }
-      } finally {
-        batchLock.unlock();
+        totalProcessedMessages.incrementAndGet();
+        write = pending;
       }
     } catch (Exception e) {
       logger.error("Error adding lift ride to DynamoDB", e);
+      tracked.onFailed(e);
+      return;
+    } finally {
+      stateLock.readLock().unlock();
+    }
+
+    if (write == null) {
+      callback.onWritten();
+      return;
+    }
+    try {
+      writeBuffer.add(write);
+    } catch (Exception e) {
+      logger.error("Error adding lift ride to DynamoDB", e);
+      tracked.onFailed(e);
     }
   }
 
   /**
-   * Add multiple lift rides in a batch
+   * The ride's item, whose callback counts it in the season summary once the item is written and
+   * passes the summary update's outcome on to the ride's own callback
    */
-  public void batchAddLiftRides(List<LiftRideEvent> events) {
-    for (LiftRideEvent event : events) {
-      addLiftRide(
-          event.getSkierID(),
-          event.getLiftRide(),
-          event.getResortID(),
-          event.getSeasonID(),
-          event.getDayID()
-      );
+  private PendingWrite pendingWrite(UUID event, int skierID, LiftRide liftRide, int resortID,
+      String seasonID, String dayID, WriteCallback tracked) {
+    String resortDay = resortID + "#" + dayID;
+    int vertical = RideItemCodec.vertical(liftRide.getLiftID());
+    WriteCallback counted = new WriteCallback() {
+      @Override
+      public void onWritten() {
+        summaryWriter.record(skierID, seasonID, dayID, vertical, tracked);
+      }
+
+      @Override
+      public void onFailed(Throwable error) {
+        tracked.onFailed(error);
+      }
+    };
+
+    String itemTable = compactTableName;
+    Map<String, AttributeValue> item = compactItems
+        ? RideItemCodec.encode(skierID, resortID, seasonID, dayID, liftRide.getLiftID(),
+            liftRide.getTime(), event.getLeastSignificantBits())
+        : null;
+    if (item == null) {
+      itemTable = tableName;
+      item = originalItem(event, skierID, liftRide, resortID, seasonID, dayID, vertical);
     }
+    return new PendingWrite(itemTable, item, skierID, resortDay, counted);
   }
 
   /**
-   * Flush the current batch to DynamoDB
+   * Apply a ride the write-ahead log shipped before a restart to the in-memory state. Rides the
+   * restored snapshot already holds are in its recent event window and are skipped.
    */
-  public void flushBatch() {
-    batchLock.lock();
+  @Override
+  public void replayLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID,
+      String seasonID, String dayID) {
+    UUID event = EventIds.parseOrNew(eventID);
+    stateLock.readLock().lock();
     try {
-      if (itemBatch.isEmpty()) {
-        return;
+      if (recentEvents.begin(event) == null) {
+        uniqueSkiers.add(skierID);
+        aggregates.recordRide(skierID, resortID, seasonID, dayID, liftRide.getLiftID(),
+            RideItemCodec.vertical(liftRide.getLiftID()), () -> { });
+        totalProcessedMessages.incrementAndGet();
+      }
+      recentEvents.written(event);
+    } finally {
+      stateLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Rides in the original format are keyed by the time the server accepted them, the lift and the
+   * event ID, so the key stays time ordered and a redelivery overwrites rather than duplicates
+   */
+  private static Map<String, AttributeValue> originalItem(UUID event, int skierID,
+      LiftRide liftRide, int resortID, String seasonID, String dayID, int vertical) {
+    String timestamp = LocalDateTime.ofInstant(
+            Instant.ofEpochMilli(EventIds.timestampMillis(event)), ZoneId.systemDefault())
+        .format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+    String timestampLiftID = timestamp + "#" + liftRide.getLiftID() + "#" + event;
+
+    Map<String, AttributeValue> item = new HashMap<>();
+    item.put("skierID", AttributeValue.builder().n(String.valueOf(skierID)).build());
+    item.put("timestamp_liftID", AttributeValue.builder().s(timestampLiftID).build());
+    item.put("resortID", AttributeValue.builder().n(String.valueOf(resortID)).build());
+    item.put("seasonID", AttributeValue.builder().s(seasonID).build());
+    item.put("dayID", AttributeValue.builder().s(dayID).build());
+    item.put("liftID", AttributeValue.builder().n(String.valueOf(liftRide.getLiftID())).build());
+    item.put("time", AttributeValue.builder().n(String.valueOf(liftRide.getTime())).build());
+    item.put("vertical", AttributeValue.builder().n(String.valueOf(vertical)).build());
+    item.put("timestamp", AttributeValue.builder().s(timestamp).build());
+    item.put("resortDay", AttributeValue.builder().s(resortID + "#" + dayID).build());
+    return item;
+  }
+
+  /**
+   * Flush everything still buffered and wait for outstanding batch writes, and the summary updates
+   * counting them, to finish
+   */
+  @Override
+  public void flushBatch() {
+    if (writeBuffer == null) {
+      return;
+    }
+    writeBuffer.drain();
+    flusher.awaitOutstanding();
+    summaryWriter.flush();
+  }
+
+  /**
+   * Build a projection over the given attributes, registering a #name for each so reserved words
+   * such as time or timestamp are safe to request
+   */
+  private static String projection(Map<String, String> expressionNames, String... attributes) {
+    StringBuilder projection = new StringBuilder();
+    for (String attribute : attributes) {
+      expressionNames.put("#" + attribute, attribute);
+      if (projection.length() > 0) {
+        projection.append(", ");
       }
+      projection.append('#').append(attribute);
+    }
+    return projection.toString();
+  }
 
-      List<WriteRequest> writeRequests = new ArrayList<>();
-      for (Map<String, AttributeValue> item : itemBatch) {
-        PutRequest putRequest = PutRequest.builder().item(item).build();
-        WriteRequest writeRequest = WriteRequest.builder().putRequest(putRequest).build();
-        writeRequests.add(writeRequest);
+  /**
+   * Stream a skier's rides in a season, optionally restricted to one day, into the sink, followed
+   * by the matching rides this consumer has accepted but not yet written. Rides come from the
+   * original table and, when compact items are enabled, from the compact table too. Pending
+   * writes are snapshotted before querying so a write that lands mid-query is seen exactly once.
+   */
+  private void forEachSkierSeasonRide(int skierID, String seasonID, String dayID,
+      Consumer<RideItemCodec.Ride> sink) {
+    Map<AttributeValue, RideItemCodec.Ride> unseenPending = new HashMap<>();
+    for (PendingWrite write : pendingWrites.forSkier(skierID)) {
+      RideItemCodec.Ride ride = RideItemCodec.decode(write.getItem());
+      if (ride != null && seasonID.equals(ride.getSeasonID())
+          && (dayID == null || dayID.equals(ride.getDayID()))) {
+        unseenPending.put(ride.getKey(), ride);
       }
+    }
+    Consumer<Map<String, AttributeValue>> itemSink = item -> {
+      RideItemCodec.Ride ride = RideItemCodec.decode(item);
+      if (ride != null) {
+        unseenPending.remove(ride.getKey());
+        sink.accept(ride);
+      }
+    };
+
+    Map<String, AttributeValue> expressionValues = new HashMap<>();
+    expressionValues.put(":skierID", AttributeValue.builder().n(String.valueOf(skierID)).build());
+    expressionValues.put(":seasonID", AttributeValue.builder().s(seasonID).build());
 
-      Map<String, List<WriteRequest>> requestItems = new HashMap<>();
-      requestItems.put(tableName, writeRequests);
+    Map<String, String> expressionNames = new HashMap<>();
+    expressionNames.put("#seasonID", "seasonID");
+    String filter = "#seasonID = :seasonID";
+    if (dayID != null) {
+      expressionNames.put("#dayID", "dayID");
+      expressionValues.put(":dayID", AttributeValue.builder().s(dayID).build());
+      filter += " AND #dayID = :dayID";
+    }
 
-      BatchWriteItemRequest batchWriteItemRequest = BatchWriteItemRequest.builder()
-          .requestItems(requestItems)
+    QueryRequest queryRequest = QueryRequest.builder()
+        .tableName(tableName)
+        .keyConditionExpression("skierID = :skierID")
+        .filterExpression(filter)
+        .projectionExpression(projection(expressionNames, "timestamp_liftID", "dayID", "liftID", "vertical"))
+        .expressionAttributeNames(expressionNames)
+        .expressionAttributeValues(expressionValues)
+        .consistentRead(true)
+        .build();
+    partitionReader.forEach(queryRequest, "timestamp_liftID", itemSink);
+
+    int season = RideItemCodec.season(seasonID);
+    int day = dayID == null ? 0 : RideItemCodec.day(dayID);
+    if (compactItems && season >= 0 && day >= 0) {
+      Map<String, AttributeValue> compactValues = new HashMap<>();
+      compactValues.put(":skierID", AttributeValue.builder().n(String.valueOf(skierID)).build());
+
+      QueryRequest compactRequest = QueryRequest.builder()
+          .tableName(compactTableName)
+          .keyConditionExpression(RideItemCodec.SKIER + " = :skierID")
+          .projectionExpression(RideItemCodec.RIDE)
+          .expressionAttributeValues(compactValues)
+          .consistentRead(true)
           .build();
+      if (dayID == null) {
+        partitionReader.forEachInRange(compactRequest, RideItemCodec.RIDE,
+            RideItemCodec.seasonStart(season), RideItemCodec.seasonEnd(season), itemSink);
+      } else {
+        partitionReader.forEachInRange(compactRequest, RideItemCodec.RIDE,
+            RideItemCodec.dayStart(season, day), RideItemCodec.dayEnd(season, day), itemSink);
+      }
+    }
 
+    unseenPending.values().forEach(sink);
+  }
 
-      dynamoDbClient.batchWriteItem(batchWriteItemRequest);
+  /**
+   * Stream the IDs of skiers stored for a resort and day, then those still being written. A skier
+   * may be reported more than once.
+   */
+  private void forEachResortDaySkier(int resortID, String dayID, IntConsumer skierSink) {
+    String resortDay = resortID + "#" + dayID;
+    Map<String, AttributeValue> expressionValues = new HashMap<>();
+    expressionValues.put(":resortDay", AttributeValue.builder().s(resortDay).build());
+    Map<String, String> expressionNames = new HashMap<>();
+
+    QueryRequest queryRequest = QueryRequest.builder()
+        .tableName(tableName)
+        .indexName("ResortDayIndex")
+        .keyConditionExpression("resortDay = :resortDay")
+        .projectionExpression(projection(expressionNames, "skierID"))
+        .expressionAttributeNames(expressionNames)
+        .expressionAttributeValues(expressionValues)
+        .build();
 
-      logger.debug("Flushed batch of {} items to DynamoDB", itemBatch.size());
-      itemBatch.clear();
-    } catch (Exception e) {
-      logger.error("Error flushing batch to DynamoDB", e);
-    } finally {
-      batchLock.unlock();
+    List<PendingWrite> pending = pendingWrites.forResortDay(resortDay);
+    partitionReader.forEach(queryRequest, "timestamp", item -> {
+      AttributeValue skierValue = item.get("skierID");
+      if (skierValue != null) {
+        skierSink.accept(Integer.parseInt(skierValue.n()));
+      }
+    });
+
+    int day = RideItemCodec.day(dayID);
+    if (compactItems && day >= 0 && resortID >= 0) {
+      Map<String, AttributeValue> compactValues = new HashMap<>();
+      compactValues.put(":resortDay", AttributeValue.builder()
+          .n(String.valueOf(RideItemCodec.resortDay(resortID, day))).build());
+
+      QueryRequest compactRequest = QueryRequest.builder()
+          .tableName(compactTableName)
+          .indexName(compactResortDayIndex)
+          .keyConditionExpression(RideItemCodec.RESORT_DAY + " = :resortDay")
+          .projectionExpression(RideItemCodec.SKIER)
+          .expressionAttributeValues(compactValues)
+          .build();
+      // A resort/day partition holds that day of every season; its rides bunch up in one
+      // season's day, so that is the span split into segments
+      partitionReader.forEachInRange(compactRequest, RideItemCodec.RIDE, RideItemCodec.firstKey(),
+          RideItemCodec.lastKey(), RideItemCodec::dayEnd, item -> {
+            AttributeValue skierValue = item.get(RideItemCodec.SKIER);
+            if (skierValue != null) {
+              skierSink.accept(Integer.parseInt(skierValue.n()));
+            }
+          });
+    }
+
+    for (PendingWrite write : pending) {
+      skierSink.accept(write.getSkierID());
     }
   }
 
   /**
-   * Get the number of days a skier has skied this season
+   * Write the bitmap of every resort/day that gained skiers since the last pass
    */
-  public int getSkierDaysCount(int skierID, String seasonID) {
-    try {
-
-      flushBatch();
-
-      Map<String, AttributeValue> expressionValues = new HashMap<>();
-      expressionValues.put(":skierID", AttributeValue.builder().n(String.valueOf(skierID)).build());
-      expressionValues.put(":seasonID", AttributeValue.builder().s(seasonID).build());
+  private void persistSkierSketches() throws Exception {
+    aggregates.forEachDirtyResortDay(
+        (resortID, dayID, skiers) -> skierSketches.save(resortID + "#" + dayID, skiers),
+        (resortID, dayID) -> skierSink -> loadResortDay(resortID, dayID, skierSink));
+  }
 
+  private boolean useAggregates(String seasonID, String dayID) {
+    return serveFromAggregates && aggregates.supports(seasonID, dayID);
+  }
 
-      Map<String, String> expressionNames = new HashMap<>();
-      expressionNames.put("#seasonID", "seasonID");
+  /**
+   * Read a skier's per-day vertical for a season from the summary table: one small query over a
+   * partition holding a single item per day, however many rides the skier logged
+   */
+  private Map<String, Integer> querySeasonSummary(int skierID, String seasonID) {
+    Map<String, AttributeValue> expressionValues = new HashMap<>();
+    expressionValues.put(":skierSeason", AttributeValue.builder()
+        .s(SkierSeasonSummaryWriter.partitionKey(skierID, seasonID)).build());
+
+    Map<String, String> expressionNames = new HashMap<>();
+    expressionNames.put("#dayID", SkierSeasonSummaryWriter.SORT_KEY);
+    expressionNames.put("#vertical", SkierSeasonSummaryWriter.VERTICAL);
+
+    QueryRequest queryRequest = QueryRequest.builder()
+        .tableName(summaryTableName)
+        .keyConditionExpression(SkierSeasonSummaryWriter.PARTITION_KEY + " = :skierSeason")
+        .projectionExpression("#dayID, #vertical")
+        .expressionAttributeNames(expressionNames)
+        .expressionAttributeValues(expressionValues)
+        .build();
 
+    Map<String, Integer> verticalByDay = new HashMap<>();
+    for (Map<String, AttributeValue> item : dynamoDbClient.queryPaginator(queryRequest).items()) {
+      AttributeValue dayValue = item.get(SkierSeasonSummaryWriter.SORT_KEY);
+      AttributeValue verticalValue = item.get(SkierSeasonSummaryWriter.VERTICAL);
+      if (dayValue != null && verticalValue != null) {
+        verticalByDay.put(dayValue.s(), Integer.parseInt(verticalValue.n()));
+      }
+    }
+    return verticalByDay;
+  }
 
-      software.amazon.awssdk.services.dynamodb.model.QueryRequest queryRequest =
-          software.amazon.awssdk.services.dynamodb.model.QueryRequest.builder()
-              .tableName(tableName)
-              .keyConditionExpression("skierID = :skierID")
-              .filterExpression("#seasonID = :seasonID")
-              .expressionAttributeNames(expressionNames)
-              .expressionAttributeValues(expressionValues)
-              .build();
+  /**
+   * Feed a skier's stored season into the in-memory aggregates the first time it is requested
+   */
+  private void loadSkierSeason(int skierID, String seasonID, LiftRideAggregates.RideSink sink) {
+    forEachSkierSeasonRide(skierID, seasonID, null, ride -> {
+      if (ride.getDayID() != null && ride.getLiftID() != null && ride.getVertical() != null
+          && aggregates.supports(null, ride.getDayID())) {
+        sink.ride(Integer.parseInt(ride.getDayID()), ride.getLiftID(), ride.getVertical());
+      }
+    });
+  }
 
-      List<Map<String, AttributeValue>> items = dynamoDbClient.query(queryRequest).items();
+  /**
+   * Seed a resort/day's skiers from the bitmaps every consumer instance persisted, falling back to
+   * the raw rides when none exist yet (e.g. data written before the bitmaps were introduced)
+   */
+  private void loadResortDay(int resortID, String dayID, IntConsumer skierSink) {
+    SkierIdBitmap stored = skierSketches.loadMerged(resortID + "#" + dayID);
+    if (stored != null) {
+      stored.forEach(skierSink);
+      return;
+    }
+    forEachResortDaySkier(resortID, dayID, skierSink);
+  }
 
+  /**
+   * Get the number of days a skier has skied this season
+   */
+  @Override
+  public int getSkierDaysCount(int skierID, String seasonID) {
+    try {
+      if (useAggregates(seasonID, null)) {
+        return aggregates.getDaysCount(skierID, seasonID,
+            sink -> loadSkierSeason(skierID, seasonID, sink));
+      }
+      if (!serveFromAggregates) {
+        return querySeasonSummary(skierID, seasonID).size();
+      }
 
-      Map<String, Boolean> uniqueDays = new HashMap<>();
-      for (Map<String, AttributeValue> item : items) {
-        AttributeValue dayValue = item.get("dayID");
-        if (dayValue != null) {
-          uniqueDays.put(dayValue.s(), true);
+      Set<String> uniqueDays = new HashSet<>();
+      forEachSkierSeasonRide(skierID, seasonID, null, ride -> {
+        if (ride.getDayID() != null) {
+          uniqueDays.add(ride.getDayID());
         }
-      }
+      });
 
       return uniqueDays.size();
     } catch (Exception e) {
@@ -198,42 +596,23 @@ public class DynamoDBService {
   /**
    * Get the vertical totals for each ski day for a skier
    */
+  @Override
   public Map<String, Integer> getSkierVerticalTotals(int skierID, String seasonID) {
     try {
-
-      flushBatch();
-
-      Map<String, AttributeValue> expressionValues = new HashMap<>();
-      expressionValues.put(":skierID", AttributeValue.builder().n(String.valueOf(skierID)).build());
-      expressionValues.put(":seasonID", AttributeValue.builder().s(seasonID).build());
-
-      Map<String, String> expressionNames = new HashMap<>();
-      expressionNames.put("#seasonID", "seasonID");
-
-      software.amazon.awssdk.services.dynamodb.model.QueryRequest queryRequest =
-          software.amazon.awssdk.services.dynamodb.model.QueryRequest.builder()
-              .tableName(tableName)
-              .keyConditionExpression("skierID = :skierID")
-              .filterExpression("#seasonID = :seasonID")
-              .expressionAttributeNames(expressionNames)
-              .expressionAttributeValues(expressionValues)
-              .build();
-
-      List<Map<String, AttributeValue>> items = dynamoDbClient.query(queryRequest).items();
-
+      if (useAggregates(seasonID, null)) {
+        return aggregates.getVerticalTotals(skierID, seasonID,
+            sink -> loadSkierSeason(skierID, seasonID, sink));
+      }
+      if (!serveFromAggregates) {
+        return querySeasonSummary(skierID, seasonID);
+      }
 
       Map<String, Integer> verticalByDay = new HashMap<>();
-      for (Map<String, AttributeValue> item : items) {
-        AttributeValue dayValue = item.get("dayID");
-        AttributeValue verticalValue = item.get("vertical");
-
-        if (dayValue != null && verticalValue != null) {
-          String day = dayValue.s();
-          int vertical = Integer.parseInt(verticalValue.n());
-
-          verticalByDay.put(day, verticalByDay.getOrDefault(day, 0) + vertical);
+      forEachSkierSeasonRide(skierID, seasonID, null, ride -> {
+        if (ride.getDayID() != null && ride.getVertical() != null) {
+          verticalByDay.merge(ride.getDayID(), ride.getVertical(), Integer::sum);
         }
-      }
+      });
 
       return verticalByDay;
     } catch (Exception e) {
@@ -245,39 +624,20 @@ public class DynamoDBService {
   /**
    * Get the lifts a skier rode on a specific day
    */
+  @Override
   public List<Integer> getSkierLifts(int skierID, String seasonID, String dayID) {
     try {
-
-      flushBatch();
-
-      Map<String, AttributeValue> expressionValues = new HashMap<>();
-      expressionValues.put(":skierID", AttributeValue.builder().n(String.valueOf(skierID)).build());
-      expressionValues.put(":seasonID", AttributeValue.builder().s(seasonID).build());
-      expressionValues.put(":dayID", AttributeValue.builder().s(dayID).build());
-
-      Map<String, String> expressionNames = new HashMap<>();
-      expressionNames.put("#seasonID", "seasonID");
-      expressionNames.put("#dayID", "dayID");
-
-      software.amazon.awssdk.services.dynamodb.model.QueryRequest queryRequest =
-          software.amazon.awssdk.services.dynamodb.model.QueryRequest.builder()
-              .tableName(tableName)
-              .keyConditionExpression("skierID = :skierID")
-              .filterExpression("#seasonID = :seasonID AND #dayID = :dayID")
-              .expressionAttributeNames(expressionNames)
-              .expressionAttributeValues(expressionValues)
-              .build();
-
-      List<Map<String, AttributeValue>> items = dynamoDbClient.query(queryRequest).items();
-
+      if (useAggregates(seasonID, dayID)) {
+        return aggregates.getLifts(skierID, seasonID, dayID,
+            sink -> loadSkierSeason(skierID, seasonID, sink));
+      }
 
       List<Integer> lifts = new ArrayList<>();
-      for (Map<String, AttributeValue> item : items) {
-        AttributeValue liftValue = item.get("liftID");
-        if (liftValue != null) {
-          lifts.add(Integer.parseInt(liftValue.n()));
+      forEachSkierSeasonRide(skierID, seasonID, dayID, ride -> {
+        if (ride.getLiftID() != null) {
+          lifts.add(ride.getLiftID());
         }
-      }
+      });
 
       return lifts;
     } catch (Exception e) {
@@ -289,53 +649,219 @@ public class DynamoDBService {
   /**
    * Get the number of unique skiers at a resort on a specific day
    */
+  @Override
   public int getUniqueSkiersCount(int resortID, String dayID) {
     try {
-
-      flushBatch();
-
-      String resortDay = resortID + "#" + dayID;
-      Map<String, AttributeValue> expressionValues = new HashMap<>();
-      expressionValues.put(":resortDay", AttributeValue.builder().s(resortDay).build());
-
-      software.amazon.awssdk.services.dynamodb.model.QueryRequest queryRequest =
-          software.amazon.awssdk.services.dynamodb.model.QueryRequest.builder()
-              .tableName(tableName)
-              .indexName("ResortDayIndex")
-              .keyConditionExpression("resortDay = :resortDay")
-              .expressionAttributeValues(expressionValues)
-              .build();
-
-      List<Map<String, AttributeValue>> items = dynamoDbClient.query(queryRequest).items();
-
-
-      Map<String, Boolean> uniqueSkiers = new HashMap<>();
-      for (Map<String, AttributeValue> item : items) {
-        AttributeValue skierValue = item.get("skierID");
-        if (skierValue != null) {
-          uniqueSkiers.put(skierValue.n(), true);
+      if (useAggregates(null, dayID)) {
+        return aggregates.getUniqueSkiersCount(resortID, dayID,
+            skierSink -> loadResortDay(resortID, dayID, skierSink));
+      }
+      if (!serveFromAggregates) {
+        SkierIdBitmap stored = skierSketches.loadMerged(resortID + "#" + dayID);
+        if (stored != null) {
+          return stored.cardinality();
         }
       }
 
-      return uniqueSkiers.size();
+      SkierIdBitmap uniqueSkiers = new SkierIdBitmap();
+      forEachResortDaySkier(resortID, dayID, uniqueSkiers::add);
+      return uniqueSkiers.cardinality();
     } catch (Exception e) {
       logger.error("Error getting unique skiers count for resort and day", e);
       return 0;
     }
   }
 
+  @Override
   public int getTotalProcessedMessages() {
     return totalProcessedMessages.get();
   }
 
+  @Override
   public int getUniqueSkiersCount() {
-    return uniqueSkiers.get();
+    return uniqueSkiers.cardinality();
+  }
+
+  public long getDuplicateEventCount() {
+    return duplicateEvents.get();
+  }
+
+  public int getBufferedItemCount() {
+    return writeBuffer == null ? 0 : writeBuffer.getBufferedCount();
+  }
+
+  public int getInFlightBatchCount() {
+    return flusher == null ? 0 : flusher.getInFlightCount();
   }
 
+  public int getQueuedBatchCount() {
+    return flusher == null ? 0 : flusher.getQueuedCount();
+  }
+
+  public long getSummaryUpdatesSent() {
+    return summaryWriter == null ? 0 : summaryWriter.getUpdatesSent();
+  }
+
+  public long getSummaryRidesCoalesced() {
+    return summaryWriter == null ? 0 : summaryWriter.getRidesCoalesced();
+  }
+
+  public int getInFlightBatchLimit() {
+    return flusher == null ? 0 : flusher.getInFlightLimit();
+  }
+
+  public int getRetryQueueSize() {
+    return flusher == null ? 0 : flusher.getRetryQueueSize();
+  }
+
+  public long getThrottledItemCount() {
+    return flusher == null ? 0 : flusher.getThrottledItemCount();
+  }
+
+  public long getRetriedItemCount() {
+    return flusher == null ? 0 : flusher.getRetriedItemCount();
+  }
+
+  public long getDroppedItemCount() {
+    return flusher == null ? 0 : flusher.getDroppedItemCount();
+  }
+
+  @Override
+  public void logStatistics(Logger logger) {
+    if (writeBuffer == null) {
+      return;
+    }
+    logger.info("Buffered items awaiting write: {}", getBufferedItemCount());
+    logger.info("Batch writes in flight: {} (limit {}), waiting for window: {}",
+        getInFlightBatchCount(), getInFlightBatchLimit(), getQueuedBatchCount());
+    logger.info("Throttled items: {}, retried: {}, dropped: {}, awaiting retry: {}",
+        getThrottledItemCount(), getRetriedItemCount(), getDroppedItemCount(), getRetryQueueSize());
+    logger.info("Summary updates sent: {} covering {} rides",
+        getSummaryUpdatesSent(), getSummaryRidesCoalesced());
+    logger.info("Redelivered events skipped: {}", getDuplicateEventCount());
+  }
+
+  /**
+   * Restore the statistics and recent event window saved in the directory, if any, and save them
+   * there every minute and on shutdown. Aggregates are only included once a write-ahead log is
+   * attached (see {@link #attachLog}): without one there is nothing to replay the rides written
+   * after a snapshot from, so they load lazily from the tables instead, and rides acked between the
+   * last snapshot and a crash are missing from the restored counters.
+   */
+  public void enableSnapshots(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    Path file = directory.resolve(SNAPSHOT_FILE);
+    try {
+      ConsumerSnapshot snapshot = ConsumerSnapshot.read(file);
+      if (snapshot != null) {
+        uniqueSkiers.merge(SkierIdBitmap.fromBytes(snapshot.getUniqueSkiers()));
+        recentEvents.restore(snapshot.getRecentEvents());
+        totalProcessedMessages.addAndGet(snapshot.getTotalProcessedMessages());
+        duplicateEvents.addAndGet(snapshot.getDuplicateEvents());
+        restoredSnapshot = snapshot;
+        logger.info("Restored state snapshot from {}: {} messages, {} unique skiers",
+            Instant.ofEpochMilli(snapshot.getCreatedMillis()), snapshot.getTotalProcessedMessages(),
+            uniqueSkiers.cardinality());
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Ignoring unreadable state snapshot {}", file, e);
+    }
+    this.snapshotFile = file;
+    // a snapshot serializes megabytes and fsyncs, far too long to hold up the linger drain
+    this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor();
+    snapshotScheduler.scheduleWithFixedDelay(() -> {
+      try {
+        writeSnapshot();
+      } catch (Exception e) {
+        logger.error("Error writing state snapshot", e);
+      }
+    }, SNAPSHOT_MILLIS, SNAPSHOT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * From now on snapshots record the log position and include the aggregates. The restored
+   * snapshot's aggregates are loaded here rather than in {@link #enableSnapshots}, since they are
+   * only complete together with the log's replay of the rides after its position.
+   */
+  @Override
+  public synchronized long attachLog(LongSupplier position, LongConsumer covered) {
+    if (snapshotFile == null) {
+      return -1;
+    }
+    ConsumerSnapshot snapshot = restoredSnapshot;
+    restoredSnapshot = null;
+    long restoredPosition = 0;
+    if (snapshot != null && snapshot.getTailPosition() > 0) {
+      try {
+        aggregates.restore(snapshot.getAggregates());
+        restoredPosition = snapshot.getTailPosition();
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Ignoring unreadable aggregates in the state snapshot", e);
+      }
+    }
+    this.logPosition = position;
+    this.snapshotCovered = covered;
+    return restoredPosition;
+  }
+
+  /**
+   * Copy the state while no ride is being applied, then write it out. The log position is read
+   * first, so every ride before it is covered by the copy; rides after it that the copy also covers
+   * are in its recent event window and skipped on replay.
+   */
+  private synchronized void writeSnapshot() throws IOException {
+    Path file = snapshotFile;
+    if (file == null) {
+      return;
+    }
+    LongSupplier position = logPosition;
+    long tailPosition = position == null ? 0 : position.getAsLong();
+    ConsumerSnapshot snapshot;
+    stateLock.writeLock().lock();
+    try {
+      snapshot = new ConsumerSnapshot(tailPosition, totalProcessedMessages.get(),
+          duplicateEvents.get(), uniqueSkiers.toBytes(), recentEvents.toBytes(),
+          position == null ? new byte[0] : aggregates.toBytes());
+    } finally {
+      stateLock.writeLock().unlock();
+    }
+    snapshot.write(file);
+    LongConsumer covered = snapshotCovered;
+    if (covered != null) {
+      covered.accept(tailPosition);
+    }
+  }
+
+  @Override
   public void shutdown() {
 
-    flushBatch();
+    if (writeBuffer != null) {
+      lingerScheduler.shutdown();
+      flushBatch();
+      flusher.shutdown();
+      summaryWriter.shutdown();
+      sketchScheduler.shutdown();
+      try {
+        // let a pass already under way finish so the final one does not overlap it
+        sketchScheduler.awaitTermination(30, TimeUnit.SECONDS);
+        persistSkierSketches();
+      } catch (Exception e) {
+        logger.error("Error persisting unique skier bitmaps on shutdown", e);
+      }
+    }
+    if (snapshotScheduler != null) {
+      snapshotScheduler.shutdown();
+    }
+    try {
+      writeSnapshot();
+    } catch (IOException e) {
+      logger.error("Error writing state snapshot on shutdown", e);
+    }
+    partitionReader.shutdown();
 
+    if (dynamoDbAsyncClient != null) {
+      dynamoDbAsyncClient.close();
+    }
     if (dynamoDbClient != null) {
       dynamoDbClient.close();
     }
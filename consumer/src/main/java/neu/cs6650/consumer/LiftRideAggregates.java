@@ -0,0 +1,392 @@
+package neu.cs6650.consumer;
+
+import neu.cs6650.common.LiftRideBodies;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Incrementally maintained answers to the four query endpoints, built from every ride the consumer
+ * ingests. Entries that existed before this process started are loaded once from the backing
+ * store the first time they are asked for and kept up to date in memory after that.
+ *
+ * <p>Per skier and season: vertical and lift IDs per day in primitive arrays indexed by day.
+ * Per resort and day: a {@link SkierIdBitmap}, flagged dirty whenever it gains a skier so it can be
+ * persisted and merged with other consumer instances. Season IDs must be numeric, day IDs within
+ * {@value #MIN_DAY_ID}-{@value #MAX_DAY_ID} and lift IDs within the range the API accepts; callers
+ * fall back to querying the table directly for anything else.
+ */
+public class LiftRideAggregates {
+
+  public static final int MIN_DAY_ID = 1;
+  public static final int MAX_DAY_ID = 366;
+
+  private final Map<Long, SkierSeason> skierSeasons = new ConcurrentHashMap<>();
+  private final Map<Long, ResortDay> resortDays = new ConcurrentHashMap<>();
+  private final boolean complete;
+
+  public LiftRideAggregates() {
+    this(false);
+  }
+
+  /**
+   * @param complete every ride ever stored passes through {@link #recordRide}, so entries never
+   *     need loading and loaders are not called
+   */
+  public LiftRideAggregates(boolean complete) {
+    this.complete = complete;
+  }
+
+  /**
+   * Streams the stored rides for one skier and season into the sink
+   */
+  public interface SkierSeasonLoader {
+    void load(RideSink sink) throws Exception;
+  }
+
+  public interface RideSink {
+    void ride(int dayID, int liftID, int vertical);
+  }
+
+  /**
+   * Streams the IDs of skiers stored for one resort and day into the sink
+   */
+  public interface ResortDayLoader {
+    void load(IntConsumer skierSink) throws Exception;
+  }
+
+  public interface ResortDayVisitor {
+    void visit(int resortID, int dayID, SkierIdBitmap skiers) throws Exception;
+  }
+
+  /**
+   * Apply a ride to the aggregates. beforeApply runs under the same lock that guards loading the
+   * skier's season, so a ride is either part of the loaded data or applied afterwards, never both.
+   */
+  public void recordRide(int skierID, int resortID, String seasonID, String dayID, int liftID,
+      int vertical, Runnable beforeApply) {
+    Integer season = parseId(seasonID);
+    Integer day = parseDay(dayID);
+    if (season == null || day == null || !isLift(liftID)) {
+      beforeApply.run();
+      return;
+    }
+
+    SkierSeason skierSeason = skierSeasons.computeIfAbsent(key(skierID, season), k -> new SkierSeason(complete));
+    synchronized (skierSeason) {
+      beforeApply.run();
+      skierSeason.addRide(day, liftID, vertical);
+    }
+
+    ResortDay resortDay = resortDays.computeIfAbsent(key(resortID, day), k -> new ResortDay(complete));
+    resortDay.addSkier(skierID);
+  }
+
+  /**
+   * @return true if the season and day can be served from the aggregates; null means not needed
+   */
+  public boolean supports(String seasonID, String dayID) {
+    return (seasonID == null || parseId(seasonID) != null) && (dayID == null || parseDay(dayID) != null);
+  }
+
+  public int getDaysCount(int skierID, String seasonID, SkierSeasonLoader loader) throws Exception {
+    SkierSeason skierSeason = loadedSkierSeason(skierID, parseId(seasonID), loader);
+    synchronized (skierSeason) {
+      return skierSeason.daysCount;
+    }
+  }
+
+  public Map<String, Integer> getVerticalTotals(int skierID, String seasonID, SkierSeasonLoader loader)
+      throws Exception {
+    SkierSeason skierSeason = loadedSkierSeason(skierID, parseId(seasonID), loader);
+    Map<String, Integer> verticalByDay = new LinkedHashMap<>();
+    synchronized (skierSeason) {
+      for (int day = 0; day < skierSeason.liftCounts.length; day++) {
+        if (skierSeason.liftCounts[day] > 0) {
+          verticalByDay.put(String.valueOf(day), skierSeason.verticals[day]);
+        }
+      }
+    }
+    return verticalByDay;
+  }
+
+  public List<Integer> getLifts(int skierID, String seasonID, String dayID, SkierSeasonLoader loader)
+      throws Exception {
+    SkierSeason skierSeason = loadedSkierSeason(skierID, parseId(seasonID), loader);
+    int day = parseDay(dayID);
+    synchronized (skierSeason) {
+      if (day >= skierSeason.liftCounts.length) {
+        return new ArrayList<>();
+      }
+      short[] lifts = skierSeason.lifts[day];
+      List<Integer> result = new ArrayList<>(skierSeason.liftCounts[day]);
+      for (int i = 0; i < skierSeason.liftCounts[day]; i++) {
+        result.add((int) lifts[i]);
+      }
+      return result;
+    }
+  }
+
+  public int getUniqueSkiersCount(int resortID, String dayID, ResortDayLoader loader) throws Exception {
+    ResortDay resortDay = resortDays.computeIfAbsent(key(resortID, parseDay(dayID)), k -> new ResortDay(complete));
+    ensureLoaded(resortDay, loader);
+    return resortDay.count();
+  }
+
+  private static void ensureLoaded(ResortDay resortDay, ResortDayLoader loader) throws Exception {
+    if (!resortDay.loaded) {
+      synchronized (resortDay.loadLock) {
+        if (!resortDay.loaded) {
+          // Adding to a set is idempotent, so stored skiers can be merged in while ingest continues
+          loader.load(resortDay.skiers::add);
+          resortDay.loaded = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Visit every resort/day that gained skiers since its last visit. Entries not yet loaded are
+   * loaded first, so what the visitor sees always includes what was stored before this process
+   * started. If the visitor fails the entry stays dirty and is offered again next time.
+   */
+  public void forEachDirtyResortDay(ResortDayVisitor visitor, ResortDayLoaderFactory loaders)
+      throws Exception {
+    for (Map.Entry<Long, ResortDay> entry : resortDays.entrySet()) {
+      ResortDay resortDay = entry.getValue();
+      if (!resortDay.dirty) {
+        continue;
+      }
+      int resortID = (int) (entry.getKey() >>> 32);
+      int dayID = entry.getKey().intValue();
+      resortDay.dirty = false;
+      try {
+        ensureLoaded(resortDay, loaders.forResortDay(resortID, String.valueOf(dayID)));
+        visitor.visit(resortID, dayID, resortDay.skiers);
+      } catch (Exception e) {
+        resortDay.dirty = true;
+        throw e;
+      }
+    }
+  }
+
+  public interface ResortDayLoaderFactory {
+    ResortDayLoader forResortDay(int resortID, String dayID);
+  }
+
+  /**
+   * Deflated copy of every loaded entry, for {@link ConsumerSnapshot}. Each entry is copied under
+   * its own lock, so rides recorded concurrently may or may not be included.
+   */
+  public byte[] toBytes() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater, 1 << 16))) {
+      for (Map.Entry<Long, SkierSeason> entry : skierSeasons.entrySet()) {
+        SkierSeason skierSeason = entry.getValue();
+        synchronized (skierSeason) {
+          if (!skierSeason.loaded) {
+            continue;
+          }
+          out.writeBoolean(true);
+          out.writeLong(entry.getKey());
+          out.writeInt(skierSeason.liftCounts.length);
+          for (int day = 0; day < skierSeason.liftCounts.length; day++) {
+            int liftCount = skierSeason.liftCounts[day];
+            out.writeInt(liftCount);
+            if (liftCount > 0) {
+              out.writeInt(skierSeason.verticals[day]);
+              for (int i = 0; i < liftCount; i++) {
+                out.writeShort(skierSeason.lifts[day][i]);
+              }
+            }
+          }
+        }
+      }
+      out.writeBoolean(false);
+
+      for (Map.Entry<Long, ResortDay> entry : resortDays.entrySet()) {
+        ResortDay resortDay = entry.getValue();
+        if (!resortDay.loaded) {
+          continue;
+        }
+        byte[] skiers = resortDay.skiers.toBytes();
+        out.writeBoolean(true);
+        out.writeLong(entry.getKey());
+        out.writeInt(skiers.length);
+        out.write(skiers);
+      }
+      out.writeBoolean(false);
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Load entries saved by {@link #toBytes} into these (empty) aggregates. Restored entries count
+   * as loaded, so rides stored after the snapshot must be replayed through {@link #recordRide}.
+   */
+  public void restore(byte[] saved) throws IOException {
+    try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(saved)))) {
+      while (in.readBoolean()) {
+        long key = in.readLong();
+        SkierSeason skierSeason = new SkierSeason(true);
+        int days = in.readInt();
+        skierSeason.verticals = new int[days];
+        skierSeason.lifts = new short[days][];
+        skierSeason.liftCounts = new int[days];
+        for (int day = 0; day < days; day++) {
+          int liftCount = in.readInt();
+          if (liftCount == 0) {
+            continue;
+          }
+          skierSeason.verticals[day] = in.readInt();
+          short[] lifts = new short[Math.max(8, liftCount)];
+          for (int i = 0; i < liftCount; i++) {
+            lifts[i] = in.readShort();
+          }
+          skierSeason.lifts[day] = lifts;
+          skierSeason.liftCounts[day] = liftCount;
+          skierSeason.daysCount++;
+        }
+        skierSeasons.put(key, skierSeason);
+      }
+
+      while (in.readBoolean()) {
+        long key = in.readLong();
+        byte[] skiers = new byte[in.readInt()];
+        in.readFully(skiers);
+        ResortDay resortDay = new ResortDay(true);
+        resortDay.skiers.merge(SkierIdBitmap.fromBytes(skiers));
+        resortDays.put(key, resortDay);
+      }
+    }
+  }
+
+  /**
+   * Ingest for this skier and season waits while a first-time load is in progress, which keeps
+   * the loaded snapshot and subsequent increments from overlapping
+   */
+  private SkierSeason loadedSkierSeason(int skierID, int season, SkierSeasonLoader loader) throws Exception {
+    SkierSeason skierSeason = skierSeasons.computeIfAbsent(key(skierID, season), k -> new SkierSeason(complete));
+    synchronized (skierSeason) {
+      if (!skierSeason.loaded) {
+        skierSeason.clear();
+        loader.load(skierSeason::addRide);
+        skierSeason.loaded = true;
+      }
+    }
+    return skierSeason;
+  }
+
+  private static long key(int high, int low) {
+    return ((long) high << 32) | (low & 0xFFFFFFFFL);
+  }
+
+  private static Integer parseId(String id) {
+    if (id == null || id.isEmpty() || id.length() > 9) {
+      return null;
+    }
+    int value = 0;
+    for (int i = 0; i < id.length(); i++) {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return null;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Days index the per-skier arrays, so anything outside the API's range is refused rather than
+   * growing them to fit
+   */
+  private static Integer parseDay(String dayID) {
+    Integer day = parseId(dayID);
+    return day != null && day >= MIN_DAY_ID && day <= MAX_DAY_ID ? day : null;
+  }
+
+  private static boolean isLift(int liftID) {
+    return liftID >= LiftRideBodies.MIN_LIFT_ID && liftID <= LiftRideBodies.MAX_LIFT_ID;
+  }
+
+  /**
+   * Guarded by its own monitor
+   */
+  private static final class SkierSeason {
+    private boolean loaded;
+    private int daysCount = 0;
+    private int[] verticals = new int[0];
+    private short[][] lifts = new short[0][];
+    private int[] liftCounts = new int[0];
+
+    private SkierSeason(boolean loaded) {
+      this.loaded = loaded;
+    }
+
+    private void addRide(int day, int liftID, int vertical) {
+      if (day < MIN_DAY_ID || day > MAX_DAY_ID || !isLift(liftID)) {
+        return;
+      }
+      if (day >= liftCounts.length) {
+        int size = Math.max(day + 1, liftCounts.length * 2);
+        verticals = Arrays.copyOf(verticals, size);
+        lifts = Arrays.copyOf(lifts, size);
+        liftCounts = Arrays.copyOf(liftCounts, size);
+      }
+      if (liftCounts[day] == 0) {
+        daysCount++;
+        if (lifts[day] == null) {
+          lifts[day] = new short[8];
+        }
+      } else if (liftCounts[day] == lifts[day].length) {
+        lifts[day] = Arrays.copyOf(lifts[day], lifts[day].length * 2);
+      }
+      lifts[day][liftCounts[day]++] = (short) liftID;
+      verticals[day] += vertical;
+    }
+
+    private void clear() {
+      daysCount = 0;
+      verticals = new int[0];
+      lifts = new short[0][];
+      liftCounts = new int[0];
+    }
+  }
+
+  private static final class ResortDay {
+    private final Object loadLock = new Object();
+    private volatile boolean loaded;
+    private volatile boolean dirty = false;
+    private final SkierIdBitmap skiers = new SkierIdBitmap();
+
+    private ResortDay(boolean loaded) {
+      this.loaded = loaded;
+    }
+
+    private void addSkier(int skierID) {
+      if (skiers.add(skierID)) {
+        dirty = true;
+      }
+    }
+
+    private int count() {
+      return skiers.cardinality();
+    }
+  }
+}
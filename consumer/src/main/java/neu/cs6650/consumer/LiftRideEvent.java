@@ -4,6 +4,7 @@ import io.swagger.client.model.LiftRide;
 
 
 public class LiftRideEvent {
+  private String eventID;
   private LiftRide liftRide;
   private int resortID;
   private String seasonID;
@@ -13,6 +14,14 @@ public class LiftRideEvent {
   public LiftRideEvent() {}
 
   // Getters and Setters
+  public String getEventID() {
+    return eventID;
+  }
+
+  public void setEventID(String eventID) {
+    this.eventID = eventID;
+  }
+
   public LiftRide getLiftRide() {
     return liftRide;
   }
@@ -56,7 +65,8 @@ public class LiftRideEvent {
   @Override
   public String toString() {
     return "LiftRideEvent{" +
-        "liftRide=" + liftRide +
+        "eventID='" + eventID + '\'' +
+        ", liftRide=" + liftRide +
         ", resortID=" + resortID +
         ", seasonID='" + seasonID + '\'' +
         ", dayID='" + dayID + '\'' +
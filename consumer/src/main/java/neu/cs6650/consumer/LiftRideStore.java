@@ -0,0 +1,68 @@
+package neu.cs6650.consumer;
+
+import io.swagger.client.model.LiftRide;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the consumer writes lift rides and answers the four query endpoints from. Writes are
+ * buffered and batched by the implementation; callers learn the outcome through the callback.
+ */
+public interface LiftRideStore {
+
+  /**
+   * Add a single lift ride to the write path; the callback fires once it is durably stored
+   *
+   * @param eventID assigned by the server; null for events from older producers
+   */
+  void addLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID, String seasonID,
+      String dayID, WriteCallback callback);
+
+  default void addLiftRide(int skierID, LiftRide liftRide, int resortID, String seasonID, String dayID) {
+    addLiftRide(null, skierID, liftRide, resortID, seasonID, dayID, WriteCallback.NONE);
+  }
+
+  /**
+   * Add multiple lift rides in a batch
+   */
+  default void batchAddLiftRides(List<LiftRideEvent> events) {
+    for (LiftRideEvent event : events) {
+      addLiftRide(
+          event.getEventID(),
+          event.getSkierID(),
+          event.getLiftRide(),
+          event.getResortID(),
+          event.getSeasonID(),
+          event.getDayID(),
+          WriteCallback.NONE
+      );
+    }
+  }
+
+  /**
+   * Write everything still buffered and wait for it to complete
+   */
+  void flushBatch();
+
+  int getSkierDaysCount(int skierID, String seasonID);
+
+  Map<String, Integer> getSkierVerticalTotals(int skierID, String seasonID);
+
+  List<Integer> getSkierLifts(int skierID, String seasonID, String dayID);
+
+  int getUniqueSkiersCount(int resortID, String dayID);
+
+  int getTotalProcessedMessages();
+
+  int getUniqueSkiersCount();
+
+  /**
+   * Log backend-specific write path statistics for the performance monitor
+   */
+  default void logStatistics(Logger logger) {
+  }
+
+  void shutdown();
+}
@@ -0,0 +1,450 @@
+package neu.cs6650.consumer;
+
+import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.EventIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Embedded store for running the consumer without AWS: rides are appended to a local log file and
+ * all four queries are answered from in-memory indexes rebuilt from the log on startup.
+ *
+ * <p>A single writer thread drains the queue and appends whatever has accumulated as one write
+ * (group commit), then fires the callbacks. Rides count as stored once they are handed to the OS,
+ * so they survive a consumer crash but not necessarily a machine crash. Queries support numeric
+ * season and day IDs only.
+ *
+ * <p>The in-memory state is snapshotted every minute and on shutdown together with the log length
+ * it covers, so a restart restores the snapshot and replays only the log written after it. The
+ * recent event window is part of the snapshot: rides applied but not yet appended when it was
+ * taken are recognised and not applied twice when the tail is replayed.
+ */
+public class LocalLiftRideStore implements LiftRideStore {
+  private static final Logger logger = LoggerFactory.getLogger(LocalLiftRideStore.class);
+
+  private static final String LOG_FILE = "lift-rides.log";
+  private static final String SNAPSHOT_FILE = "state.snapshot";
+  private static final long SNAPSHOT_MILLIS = 60_000;
+  private static final int QUEUE_CAPACITY = 65536;
+  private static final int MAX_GROUP = 4096;
+  private static final int RECENT_EVENT_CAPACITY = 1_000_000;
+
+  private final FileChannel log;
+  private final Path snapshotFile;
+  private final ScheduledExecutorService snapshotScheduler;
+  /** Held shared while a ride is applied and exclusively while the state is copied */
+  private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+  /** Log bytes appended so far; only the writer thread advances it */
+  private volatile long logLength;
+  private final BlockingQueue<LogEntry> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+  private final Thread writerThread;
+  private volatile boolean running = true;
+
+  private final LiftRideAggregates aggregates = new LiftRideAggregates(true);
+  private final SkierIdBitmap uniqueSkiers = new SkierIdBitmap();
+  private final RecentEventWindow recentEvents = new RecentEventWindow(RECENT_EVENT_CAPACITY);
+
+  private final AtomicInteger totalProcessedMessages = new AtomicInteger(0);
+  private final AtomicLong appendedRecords = new AtomicLong(0);
+  private final AtomicLong duplicateEvents = new AtomicLong(0);
+  private long replayedRecords = 0;
+
+  public LocalLiftRideStore(Path dataDirectory) throws IOException {
+    Files.createDirectories(dataDirectory);
+    Path logFile = dataDirectory.resolve(LOG_FILE);
+    this.snapshotFile = dataDirectory.resolve(SNAPSHOT_FILE);
+    this.log = FileChannel.open(logFile,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long validLength = replay(restoreSnapshot());
+    if (validLength < log.size()) {
+      logger.warn("Truncating {} bytes of incomplete records from {}", log.size() - validLength, logFile);
+      log.truncate(validLength);
+    }
+    log.position(validLength);
+    this.logLength = validLength;
+
+    this.writerThread = new Thread(this::writeLoop, "ride-log-writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+
+    this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor();
+    snapshotScheduler.scheduleWithFixedDelay(() -> {
+      try {
+        writeSnapshot();
+      } catch (Exception e) {
+        logger.error("Error writing state snapshot", e);
+      }
+    }, SNAPSHOT_MILLIS, SNAPSHOT_MILLIS, TimeUnit.MILLISECONDS);
+
+    logger.info("Local lift ride store at {} replayed {} rides", logFile, replayedRecords);
+  }
+
+  @Override
+  public void addLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID,
+      String seasonID, String dayID, WriteCallback callback) {
+    UUID event = EventIds.parseOrNew(eventID);
+    byte[] record;
+    stateLock.readLock().lock();
+    try {
+      RecentEventWindow.State previous = recentEvents.begin(event);
+      if (previous == RecentEventWindow.State.PENDING || previous == RecentEventWindow.State.WRITTEN) {
+        duplicateEvents.incrementAndGet();
+        callback.onWritten();
+        return;
+      }
+      record = encode(event, skierID, resortID, seasonID, dayID,
+          liftRide.getLiftID(), liftRide.getTime());
+      if (previous == null) {
+        apply(skierID, resortID, seasonID, dayID, liftRide.getLiftID());
+        totalProcessedMessages.incrementAndGet();
+      }
+    } catch (RuntimeException e) {
+      logger.error("Error adding lift ride to local store", e);
+      recentEvents.failed(event);
+      callback.onFailed(e);
+      return;
+    } finally {
+      stateLock.readLock().unlock();
+    }
+
+    try {
+      queue.put(new LogEntry(event, record, callback));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      recentEvents.failed(event);
+      callback.onFailed(e);
+    }
+  }
+
+  @Override
+  public void flushBatch() {
+    CountDownLatch appended = new CountDownLatch(1);
+    try {
+      queue.put(new LogEntry(null, null, new WriteCallback() {
+        @Override
+        public void onWritten() {
+          appended.countDown();
+        }
+
+        @Override
+        public void onFailed(Throwable error) {
+          appended.countDown();
+        }
+      }));
+      appended.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public int getSkierDaysCount(int skierID, String seasonID) {
+    try {
+      if (!aggregates.supports(seasonID, null)) {
+        return 0;
+      }
+      return aggregates.getDaysCount(skierID, seasonID, sink -> { });
+    } catch (Exception e) {
+      logger.error("Error getting skier days count", e);
+      return 0;
+    }
+  }
+
+  @Override
+  public Map<String, Integer> getSkierVerticalTotals(int skierID, String seasonID) {
+    try {
+      if (!aggregates.supports(seasonID, null)) {
+        return Collections.emptyMap();
+      }
+      return aggregates.getVerticalTotals(skierID, seasonID, sink -> { });
+    } catch (Exception e) {
+      logger.error("Error getting skier vertical totals", e);
+      return Collections.emptyMap();
+    }
+  }
+
+  @Override
+  public List<Integer> getSkierLifts(int skierID, String seasonID, String dayID) {
+    try {
+      if (!aggregates.supports(seasonID, dayID)) {
+        return new ArrayList<>();
+      }
+      return aggregates.getLifts(skierID, seasonID, dayID, sink -> { });
+    } catch (Exception e) {
+      logger.error("Error getting skier lifts", e);
+      return new ArrayList<>();
+    }
+  }
+
+  @Override
+  public int getUniqueSkiersCount(int resortID, String dayID) {
+    try {
+      if (!aggregates.supports(null, dayID)) {
+        return 0;
+      }
+      return aggregates.getUniqueSkiersCount(resortID, dayID, skierSink -> { });
+    } catch (Exception e) {
+      logger.error("Error getting unique skiers count for resort and day", e);
+      return 0;
+    }
+  }
+
+  @Override
+  public int getTotalProcessedMessages() {
+    return totalProcessedMessages.get();
+  }
+
+  @Override
+  public int getUniqueSkiersCount() {
+    return uniqueSkiers.cardinality();
+  }
+
+  @Override
+  public void logStatistics(Logger logger) {
+    logger.info("Rides awaiting append: {}, appended: {}, replayed at startup: {}",
+        queue.size(), appendedRecords.get(), replayedRecords);
+    logger.info("Redelivered events skipped: {}", duplicateEvents.get());
+  }
+
+  @Override
+  public void shutdown() {
+    snapshotScheduler.shutdown();
+    flushBatch();
+    running = false;
+    writerThread.interrupt();
+    try {
+      writerThread.join(5000);
+      log.force(true);
+      writeSnapshot();
+      log.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      logger.error("Error closing lift ride log", e);
+    }
+  }
+
+  /**
+   * Copy the state while no ride is being applied, then write it out. The log length is read
+   * first, so every record before it is covered by the copy; records after it that the copy also
+   * covers are in its recent event window and skipped on replay.
+   */
+  private synchronized void writeSnapshot() throws IOException {
+    ConsumerSnapshot snapshot;
+    stateLock.writeLock().lock();
+    try {
+      snapshot = new ConsumerSnapshot(logLength, totalProcessedMessages.get(),
+          duplicateEvents.get(), uniqueSkiers.toBytes(), recentEvents.toBytes(),
+          aggregates.toBytes());
+    } finally {
+      stateLock.writeLock().unlock();
+    }
+    snapshot.write(snapshotFile);
+    logger.debug("Wrote state snapshot covering {} log bytes", snapshot.getTailPosition());
+  }
+
+  /**
+   * @return the log position to replay from: the end of what the snapshot covers, or 0
+   */
+  private long restoreSnapshot() throws IOException {
+    ConsumerSnapshot snapshot;
+    try {
+      snapshot = ConsumerSnapshot.read(snapshotFile);
+    } catch (IOException e) {
+      logger.warn("Ignoring unreadable state snapshot, replaying the whole log", e);
+      return 0;
+    }
+    if (snapshot == null) {
+      return 0;
+    }
+    if (snapshot.getTailPosition() > log.size()) {
+      logger.warn("State snapshot covers more than the log holds, replaying the whole log");
+      return 0;
+    }
+    uniqueSkiers.merge(SkierIdBitmap.fromBytes(snapshot.getUniqueSkiers()));
+    recentEvents.restore(snapshot.getRecentEvents());
+    aggregates.restore(snapshot.getAggregates());
+    totalProcessedMessages.set(snapshot.getTotalProcessedMessages());
+    duplicateEvents.set(snapshot.getDuplicateEvents());
+    logger.info("Restored state snapshot from {} covering {} log bytes",
+        Instant.ofEpochMilli(snapshot.getCreatedMillis()), snapshot.getTailPosition());
+    return snapshot.getTailPosition();
+  }
+
+  private void apply(int skierID, int resortID, String seasonID, String dayID, int liftID) {
+    uniqueSkiers.add(skierID);
+    aggregates.recordRide(skierID, resortID, seasonID, dayID, liftID,
+        RideItemCodec.vertical(liftID), () -> { });
+  }
+
+  private void writeLoop() {
+    List<LogEntry> group = new ArrayList<>(MAX_GROUP);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    while (running) {
+      try {
+        group.add(queue.take());
+      } catch (InterruptedException e) {
+        if (!running) {
+          return;
+        }
+        continue;
+      }
+      queue.drainTo(group, MAX_GROUP - 1);
+
+      buffer.clear();
+      for (LogEntry entry : group) {
+        if (entry.record == null) {
+          continue;
+        }
+        if (buffer.remaining() < entry.record.length) {
+          ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2,
+              buffer.position() + entry.record.length));
+          buffer.flip();
+          larger.put(buffer);
+          buffer = larger;
+        }
+        buffer.put(entry.record);
+      }
+      buffer.flip();
+
+      Throwable failure = null;
+      try {
+        while (buffer.hasRemaining()) {
+          logLength += log.write(buffer);
+        }
+      } catch (IOException e) {
+        logger.error("Failed to append {} rides to the log", group.size(), e);
+        failure = e;
+      }
+
+      for (LogEntry entry : group) {
+        if (failure == null) {
+          if (entry.record != null) {
+            appendedRecords.incrementAndGet();
+            recentEvents.written(entry.eventID);
+          }
+          entry.callback.onWritten();
+        } else {
+          if (entry.record != null) {
+            recentEvents.failed(entry.eventID);
+          }
+          entry.callback.onFailed(failure);
+        }
+      }
+      group.clear();
+    }
+  }
+
+  /**
+   * Rebuild the in-memory indexes from the log
+   *
+   * @param from where the records not covered by the restored snapshot start
+   * @return the length of the log up to the last complete record
+   */
+  private long replay(long from) throws IOException {
+    long validLength = from;
+    InputStream in = new BufferedInputStream(Channels.newInputStream(log.position(from)), 1 << 16);
+    DataInputStream data = new DataInputStream(in);
+    while (true) {
+      try {
+        int length = data.readInt();
+        if (length <= 0 || length > 1 << 16) {
+          break;
+        }
+        byte[] body = new byte[length];
+        data.readFully(body);
+        ByteBuffer record = ByteBuffer.wrap(body);
+        UUID event = new UUID(record.getLong(), record.getLong());
+        int skierID = record.getInt();
+        int resortID = record.getInt();
+        int liftID = record.getInt();
+        record.getInt();
+        String seasonID = readString(record);
+        String dayID = readString(record);
+
+        if (recentEvents.begin(event) == null) {
+          apply(skierID, resortID, seasonID, dayID, liftID);
+          totalProcessedMessages.incrementAndGet();
+        }
+        recentEvents.written(event);
+        replayedRecords++;
+        validLength += 4 + length;
+      } catch (EOFException e) {
+        break;
+      } catch (RuntimeException e) {
+        logger.warn("Stopping replay at unreadable record at offset {}", validLength, e);
+        break;
+      }
+    }
+    return validLength;
+  }
+
+  /**
+   * [length][event ID][skierID][resortID][liftID][time][seasonID][dayID], strings as a length
+   * prefixed UTF-8 sequence
+   */
+  private static byte[] encode(UUID event, int skierID, int resortID, String seasonID, String dayID,
+      int liftID, int time) {
+    byte[] season = seasonID.getBytes(StandardCharsets.UTF_8);
+    byte[] day = dayID.getBytes(StandardCharsets.UTF_8);
+    int length = 16 + 16 + 2 + season.length + 2 + day.length;
+    ByteBuffer record = ByteBuffer.allocate(4 + length);
+    record.putInt(length);
+    record.putLong(event.getMostSignificantBits());
+    record.putLong(event.getLeastSignificantBits());
+    record.putInt(skierID);
+    record.putInt(resortID);
+    record.putInt(liftID);
+    record.putInt(time);
+    record.putShort((short) season.length).put(season);
+    record.putShort((short) day.length).put(day);
+    return record.array();
+  }
+
+  private static String readString(ByteBuffer record) {
+    byte[] bytes = new byte[record.getShort()];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static final class LogEntry {
+    private final UUID eventID;
+    private final byte[] record;
+    private final WriteCallback callback;
+
+    private LogEntry(UUID eventID, byte[] record, WriteCallback callback) {
+      this.eventID = eventID;
+      this.record = record;
+      this.callback = callback;
+    }
+  }
+}
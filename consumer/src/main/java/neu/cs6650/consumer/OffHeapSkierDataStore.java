@@ -0,0 +1,225 @@
+package neu.cs6650.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Rides kept in direct memory, so the heap holds only a fixed skier index however many rides
+ * arrive. Each skier owns a chain of 64-byte blocks carved out of 64 MB direct arenas: a block
+ * holds the index of the skier's previous block followed by 15 packed rides. The skier index
+ * packs each skier's current block and how many of its entries are claimed into one long, so an
+ * append is a CAS to claim an entry and a release store to fill it. A full block is replaced by
+ * a new one whose first entry is written before the CAS that links it in. If another append links
+ * a block first, the unlinked one goes on a free list for the next append that needs a block.
+ *
+ * <p>An entry is claimed before it is filled, so readers skip entries that are still zero; they
+ * see every ride whose append completed before the read started.
+ */
+public class OffHeapSkierDataStore implements SkierDataStore {
+  private static final Logger logger = LoggerFactory.getLogger(OffHeapSkierDataStore.class);
+
+  private static final int BLOCK_BYTES = 64;
+  private static final int ENTRIES_PER_BLOCK = (BLOCK_BYTES - 4) / 4;
+  private static final int ARENA_BITS = 20;
+  private static final int ARENA_BLOCKS = 1 << ARENA_BITS;
+  private static final int ARENA_MASK = ARENA_BLOCKS - 1;
+  private static final int MAX_ARENAS = 256;
+  private static final int PUBLISHED = 0x80000000;
+
+  private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class,
+      ByteOrder.nativeOrder());
+
+  /** Per skier: (block + 1) << 32 | claimed entries; 0 means no rides */
+  private final AtomicLongArray tails = new AtomicLongArray(SkierIdBitmap.MAX_SKIER_ID + 1);
+  private final Map<Integer, AtomicLongArray> overflowTails = new ConcurrentHashMap<>();
+  private final ByteBuffer[] arenas = new ByteBuffer[MAX_ARENAS];
+  private volatile int arenaCount = 0;
+  private final AtomicInteger nextBlock = new AtomicInteger(0);
+  /** Blocks allocated for an append that lost the race to link them; only ever a handful */
+  private final Queue<Integer> freeBlocks = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger totalProcessedMessages = new AtomicInteger(0);
+  private final AtomicInteger uniqueSkiers = new AtomicInteger(0);
+
+  @Override
+  public void addLiftRide(int skierID, int liftID, int time) {
+    SkierDataStore.checkRange(liftID, time);
+    int entry = PUBLISHED | liftID << 16 | time;
+
+    AtomicLongArray skierTails;
+    int index;
+    if (skierID > 0 && skierID <= SkierIdBitmap.MAX_SKIER_ID) {
+      skierTails = tails;
+      index = skierID;
+    } else {
+      skierTails = overflowTails.computeIfAbsent(skierID, k -> new AtomicLongArray(1));
+      index = 0;
+    }
+
+    int spareBlock = -1;
+    while (true) {
+      long tail = skierTails.get(index);
+      int block = (int) (tail >>> 32) - 1;
+      int claimed = (int) tail;
+      if (block >= 0 && claimed < ENTRIES_PER_BLOCK) {
+        if (skierTails.compareAndSet(index, tail, tail + 1)) {
+          INT.setRelease(arena(block), entryOffset(block, claimed), entry);
+          if (spareBlock >= 0) {
+            freeBlocks.add(spareBlock);
+          }
+          break;
+        }
+        continue;
+      }
+
+      // No block yet or the current one is full: link a fresh block holding this ride
+      if (spareBlock < 0) {
+        spareBlock = allocateBlock();
+      }
+      ByteBuffer arena = arena(spareBlock);
+      int offset = blockOffset(spareBlock);
+      arena.putInt(offset, block + 1);
+      for (int i = 1; i < ENTRIES_PER_BLOCK; i++) {
+        arena.putInt(offset + 4 + i * 4, 0);
+      }
+      arena.putInt(offset + 4, entry);
+      if (skierTails.compareAndSet(index, tail, (long) (spareBlock + 1) << 32 | 1)) {
+        if (block < 0) {
+          uniqueSkiers.incrementAndGet();
+        }
+        break;
+      }
+    }
+
+    totalProcessedMessages.incrementAndGet();
+  }
+
+  @Override
+  public void forEachRide(int skierID, RideVisitor visitor) {
+    long tail;
+    if (skierID > 0 && skierID <= SkierIdBitmap.MAX_SKIER_ID) {
+      tail = tails.get(skierID);
+    } else {
+      AtomicLongArray overflow = overflowTails.get(skierID);
+      tail = overflow == null ? 0 : overflow.get(0);
+    }
+    if (tail == 0) {
+      return;
+    }
+
+    // Blocks are linked newest first; collect them to visit rides oldest first
+    int[] blocks = new int[8];
+    int count = 0;
+    for (int block = (int) (tail >>> 32) - 1; block >= 0; ) {
+      if (count == blocks.length) {
+        blocks = Arrays.copyOf(blocks, count * 2);
+      }
+      blocks[count++] = block;
+      block = arena(block).getInt(blockOffset(block)) - 1;
+    }
+    for (int i = count - 1; i >= 0; i--) {
+      int block = blocks[i];
+      ByteBuffer arena = arena(block);
+      int entries = i == 0 ? (int) tail : ENTRIES_PER_BLOCK;
+      for (int e = 0; e < entries; e++) {
+        int entry = (int) INT.getAcquire(arena, entryOffset(block, e));
+        if (entry != 0) {
+          visitor.visit((entry >>> 16) & 0x7FFF, entry & 0xFFFF);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void forEachSkier(IntConsumer action) {
+    for (int skierID = 1; skierID <= SkierIdBitmap.MAX_SKIER_ID; skierID++) {
+      if (tails.get(skierID) != 0) {
+        action.accept(skierID);
+      }
+    }
+    overflowTails.forEach((skierID, tail) -> {
+      if (tail.get(0) != 0) {
+        action.accept(skierID);
+      }
+    });
+  }
+
+  @Override
+  public int getUniqueSkiersCount() {
+    return uniqueSkiers.get();
+  }
+
+  @Override
+  public int getTotalProcessedMessages() {
+    return totalProcessedMessages.get();
+  }
+
+  /**
+   * Bytes of direct memory reserved so far
+   */
+  public long getOffHeapBytes() {
+    return (long) arenaCount * ARENA_BLOCKS * BLOCK_BYTES;
+  }
+
+  /**
+   * Blocks handed out so far, linked or waiting on the free list
+   */
+  int getAllocatedBlocks() {
+    return nextBlock.get();
+  }
+
+  int getFreeBlocks() {
+    return freeBlocks.size();
+  }
+
+  private int allocateBlock() {
+    Integer free = freeBlocks.poll();
+    if (free != null) {
+      return free;
+    }
+    int block = nextBlock.getAndIncrement();
+    if (block < 0 || block >= MAX_ARENAS * ARENA_BLOCKS) {
+      throw new IllegalStateException("Off-heap skier data store is full");
+    }
+    int arena = block >>> ARENA_BITS;
+    if (arena >= arenaCount) {
+      allocateArenas(arena);
+    }
+    return block;
+  }
+
+  private synchronized void allocateArenas(int upTo) {
+    while (arenaCount <= upTo) {
+      arenas[arenaCount] = ByteBuffer.allocateDirect(ARENA_BLOCKS * BLOCK_BYTES)
+          .order(ByteOrder.nativeOrder());
+      logger.info("Allocated off-heap ride arena {} ({} MB)", arenaCount,
+          ARENA_BLOCKS * BLOCK_BYTES >> 20);
+      arenaCount++;
+    }
+  }
+
+  private ByteBuffer arena(int block) {
+    return arenas[block >>> ARENA_BITS];
+  }
+
+  private static int blockOffset(int block) {
+    return (block & ARENA_MASK) * BLOCK_BYTES;
+  }
+
+  private static int entryOffset(int block, int entry) {
+    return blockOffset(block) + 4 + entry * 4;
+  }
+}
@@ -0,0 +1,241 @@
+package neu.cs6650.consumer;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Streams every page of a query into a sink instead of stopping at the first 1 MB page. Most
+ * partitions fit in one page. When the first page comes back with a LastEvaluatedKey, the rest of
+ * the partition is split into sort key ranges that are read in parallel: by time for string sort
+ * keys that start with an ISO local timestamp, as in the original table and ResortDayIndex, and
+ * numerically for queries over a known range of numeric sort keys.
+ */
+public class PartitionQueryReader {
+
+  private static final DateTimeFormatter BOUNDARY_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+  /**
+   * Sorts below '#' and '.', so a boundary never equals a stored sort key and ranges never overlap
+   */
+  private static final String BOUNDARY_SUFFIX = "!";
+
+  private final DynamoDbClient dynamoDbClient;
+  private final int segments;
+  private final ExecutorService executor;
+
+  public PartitionQueryReader(DynamoDbClient dynamoDbClient, int segments, int threads) {
+    this.dynamoDbClient = dynamoDbClient;
+    this.segments = segments;
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "dynamodb-query-segment-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Feed every item the query matches to the sink. Calls to the sink are serialized, but may come
+   * from different threads.
+   *
+   * @param sortKey the sort key attribute of the table or index being queried
+   */
+  public void forEach(QueryRequest request, String sortKey, Consumer<Map<String, AttributeValue>> sink) {
+    read(request, sink, resumeKey -> splitRemaining(request, sortKey, resumeKey));
+  }
+
+  /**
+   * Feed every item with a numeric sort key between low and high, inclusive, to the sink. The
+   * request's key condition must cover only the partition key.
+   */
+  public void forEachInRange(QueryRequest request, String sortKey, long low, long high,
+      Consumer<Map<String, AttributeValue>> sink) {
+    forEachInRange(request, sortKey, low, high, resume -> high, sink);
+  }
+
+  /**
+   * As {@link #forEachInRange(QueryRequest, String, long, long, Consumer)}, for partitions whose
+   * keys bunch up in a small part of a wide range. Only the keys from the resume key up to
+   * denseEnd of it are split into parallel ranges; anything above is read as one more range.
+   */
+  public void forEachInRange(QueryRequest request, String sortKey, long low, long high,
+      LongUnaryOperator denseEnd, Consumer<Map<String, AttributeValue>> sink) {
+    QueryRequest bounded = range(request, sortKey, number(low), number(high), null);
+    read(bounded, sink, resumeKey -> {
+      AttributeValue resumeValue = resumeKey.get(sortKey);
+      if (resumeValue == null || resumeValue.n() == null) {
+        return new ArrayList<>();
+      }
+      long end = Math.min(high, denseEnd.applyAsLong(Long.parseLong(resumeValue.n())));
+      List<QueryRequest> ranges = splitRemaining(request, sortKey, resumeKey, end);
+      if (!ranges.isEmpty() && end < high) {
+        ranges.add(range(request, sortKey, number(end + 1), number(high), null));
+      }
+      return ranges;
+    });
+  }
+
+  private void read(QueryRequest request, Consumer<Map<String, AttributeValue>> sink,
+      Function<Map<String, AttributeValue>, List<QueryRequest>> splitter) {
+    Iterator<QueryResponse> pages = dynamoDbClient.queryPaginator(request).iterator();
+    QueryResponse first = pages.next();
+    first.items().forEach(sink);
+    if (!first.hasLastEvaluatedKey() || first.lastEvaluatedKey().isEmpty()) {
+      return;
+    }
+
+    List<QueryRequest> ranges = splitter.apply(first.lastEvaluatedKey());
+    if (ranges.isEmpty()) {
+      pages.forEachRemaining(page -> page.items().forEach(sink));
+      return;
+    }
+
+    Object sinkLock = new Object();
+    List<Future<?>> reads = new ArrayList<>(ranges.size());
+    for (QueryRequest range : ranges) {
+      reads.add(executor.submit(() -> {
+        for (QueryResponse page : dynamoDbClient.queryPaginator(range)) {
+          synchronized (sinkLock) {
+            page.items().forEach(sink);
+          }
+        }
+      }));
+    }
+    try {
+      for (Future<?> read : reads) {
+        read.get();
+      }
+    } catch (InterruptedException e) {
+      reads.forEach(read -> read.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading query segments", e);
+    } catch (ExecutionException e) {
+      reads.forEach(read -> read.cancel(true));
+      throw new IllegalStateException("Query segment failed", e.getCause());
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Split everything after the resume key into up to `segments` time ranges ending now, with the
+   * last range left open for keys stamped later. Returns no ranges if the keys are not timestamps
+   * or the remaining span is too short to be worth splitting.
+   */
+  private List<QueryRequest> splitRemaining(QueryRequest request, String sortKey,
+      Map<String, AttributeValue> resumeKey) {
+    List<QueryRequest> ranges = new ArrayList<>();
+    AttributeValue resumeValue = resumeKey.get(sortKey);
+    if (resumeValue == null || resumeValue.s() == null) {
+      return ranges;
+    }
+    String resumeSortKey = resumeValue.s();
+    int separator = resumeSortKey.indexOf('#');
+    LocalDateTime from;
+    try {
+      from = LocalDateTime.parse(separator < 0 ? resumeSortKey : resumeSortKey.substring(0, separator));
+    } catch (DateTimeParseException e) {
+      return ranges;
+    }
+
+    long span = Duration.between(from, LocalDateTime.now()).getSeconds();
+    int count = (int) Math.min(segments, span);
+    if (count < 2) {
+      return ranges;
+    }
+
+    AttributeValue low = resumeValue;
+    for (int i = 1; i <= count; i++) {
+      if (i == count) {
+        ranges.add(range(request, sortKey, low, null, null));
+      } else {
+        AttributeValue high = AttributeValue.builder()
+            .s(from.plusSeconds(span * i / count).format(BOUNDARY_FORMAT) + BOUNDARY_SUFFIX)
+            .build();
+        ranges.add(range(request, sortKey, low, high, i == 1 ? resumeKey : null));
+        low = high;
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Split the numeric keys from the resume key up to high into up to `segments` equal ranges
+   */
+  private List<QueryRequest> splitRemaining(QueryRequest request, String sortKey,
+      Map<String, AttributeValue> resumeKey, long high) {
+    List<QueryRequest> ranges = new ArrayList<>();
+    AttributeValue resumeValue = resumeKey.get(sortKey);
+    if (resumeValue == null || resumeValue.n() == null) {
+      return ranges;
+    }
+    long from = Long.parseLong(resumeValue.n());
+    long span = high - from;
+    int count = (int) Math.min(segments, span);
+    if (count < 2) {
+      return ranges;
+    }
+
+    long low = from;
+    for (int i = 1; i <= count; i++) {
+      long end = i == count ? high : from + span / count * i;
+      ranges.add(range(request, sortKey, number(low), number(i == count ? end : end - 1),
+          i == 1 ? resumeKey : null));
+      low = end;
+    }
+    return ranges;
+  }
+
+  private static AttributeValue number(long value) {
+    return AttributeValue.builder().n(String.valueOf(value)).build();
+  }
+
+  /**
+   * Restrict the request's partition key condition to sort keys between low and high, inclusive;
+   * a null high leaves the range open
+   */
+  private static QueryRequest range(QueryRequest request, String sortKey, AttributeValue low,
+      AttributeValue high, Map<String, AttributeValue> exclusiveStartKey) {
+    Map<String, String> names = new HashMap<>(request.expressionAttributeNames());
+    names.put("#segmentKey", sortKey);
+    Map<String, AttributeValue> values = new HashMap<>(request.expressionAttributeValues());
+    values.put(":segmentLow", low);
+
+    String keyCondition = request.keyConditionExpression();
+    if (high == null) {
+      keyCondition += " AND #segmentKey >= :segmentLow";
+    } else {
+      keyCondition += " AND #segmentKey BETWEEN :segmentLow AND :segmentHigh";
+      values.put(":segmentHigh", high);
+    }
+
+    return request.toBuilder()
+        .keyConditionExpression(keyCondition)
+        .expressionAttributeNames(names)
+        .expressionAttributeValues(values)
+        .exclusiveStartKey(exclusiveStartKey)
+        .build();
+  }
+}
@@ -0,0 +1,45 @@
+package neu.cs6650.consumer;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Map;
+
+/**
+ * A ride item waiting in the write path together with whoever is waiting on its outcome
+ */
+public class PendingWrite {
+  private final String tableName;
+  private final Map<String, AttributeValue> item;
+  private final int skierID;
+  private final String resortDay;
+  private final WriteCallback callback;
+
+  public PendingWrite(String tableName, Map<String, AttributeValue> item, int skierID,
+      String resortDay, WriteCallback callback) {
+    this.tableName = tableName;
+    this.item = item;
+    this.skierID = skierID;
+    this.resortDay = resortDay;
+    this.callback = callback;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public Map<String, AttributeValue> getItem() {
+    return item;
+  }
+
+  public int getSkierID() {
+    return skierID;
+  }
+
+  public String getResortDay() {
+    return resortDay;
+  }
+
+  public WriteCallback getCallback() {
+    return callback;
+  }
+}
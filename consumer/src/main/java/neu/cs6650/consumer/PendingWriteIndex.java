@@ -0,0 +1,58 @@
+package neu.cs6650.consumer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of rides accepted by the consumer but not yet confirmed written to DynamoDB. Queries merge
+ * these into their results so they see the consumer's own writes without forcing a flush.
+ */
+public class PendingWriteIndex {
+
+  private final Map<Integer, Set<PendingWrite>> bySkier = new ConcurrentHashMap<>();
+  private final Map<String, Set<PendingWrite>> byResortDay = new ConcurrentHashMap<>();
+
+  /**
+   * The write goes into its set inside the map's atomic section, so a concurrent remove of the
+   * set's last write cannot drop the set while this write is being added to it
+   */
+  public void add(PendingWrite write) {
+    bySkier.compute(write.getSkierID(), (k, writes) -> addTo(writes, write));
+    byResortDay.compute(write.getResortDay(), (k, writes) -> addTo(writes, write));
+  }
+
+  private static Set<PendingWrite> addTo(Set<PendingWrite> writes, PendingWrite write) {
+    if (writes == null) {
+      writes = ConcurrentHashMap.newKeySet();
+    }
+    writes.add(write);
+    return writes;
+  }
+
+  public void remove(PendingWrite write) {
+    bySkier.computeIfPresent(write.getSkierID(), (k, writes) -> {
+      writes.remove(write);
+      return writes.isEmpty() ? null : writes;
+    });
+    byResortDay.computeIfPresent(write.getResortDay(), (k, writes) -> {
+      writes.remove(write);
+      return writes.isEmpty() ? null : writes;
+    });
+  }
+
+  public List<PendingWrite> forSkier(int skierID) {
+    return snapshot(bySkier.get(skierID));
+  }
+
+  public List<PendingWrite> forResortDay(String resortDay) {
+    return snapshot(byResortDay.get(resortDay));
+  }
+
+  private static List<PendingWrite> snapshot(Set<PendingWrite> writes) {
+    return writes == null ? Collections.emptyList() : new ArrayList<>(writes);
+  }
+}
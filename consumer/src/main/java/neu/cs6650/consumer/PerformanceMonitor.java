@@ -11,22 +11,22 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class PerformanceMonitor {
   private static final Logger logger = LoggerFactory.getLogger(PerformanceMonitor.class);
 
-  private final DynamoDBService dynamoDBService;
+  private final LiftRideStore liftRideStore;
   private final ScheduledExecutorService scheduler;
   private final AtomicInteger lastProcessedCount = new AtomicInteger(0);
 
-  public PerformanceMonitor(DynamoDBService dynamoDBService) {
-    this.dynamoDBService = dynamoDBService;
+  public PerformanceMonitor(LiftRideStore liftRideStore) {
+    this.liftRideStore = liftRideStore;
     this.scheduler = Executors.newScheduledThreadPool(1);
   }
 
   public void startMonitoring(int intervalSeconds) {
 
-    lastProcessedCount.set(dynamoDBService.getTotalProcessedMessages());
+    lastProcessedCount.set(liftRideStore.getTotalProcessedMessages());
 
 
     scheduler.scheduleAtFixedRate(() -> {
-      int currentCount = dynamoDBService.getTotalProcessedMessages();
+      int currentCount = liftRideStore.getTotalProcessedMessages();
       int previousCount = lastProcessedCount.getAndSet(currentCount);
       int messagesInInterval = currentCount - previousCount;
 
@@ -34,8 +34,9 @@ public class PerformanceMonitor {
 
       logger.info("====== Performance Statistics ======");
       logger.info("Total processed messages: {}", currentCount);
-      logger.info("Unique skiers: {}", dynamoDBService.getUniqueSkiersCount());
+      logger.info("Unique skiers: {}", liftRideStore.getUniqueSkiersCount());
       logger.info("Processing rate: {}/sec", String.format("%.2f", ratePerSecond));
+      liftRideStore.logStatistics(logger);
       logger.info("=====================================");
 
     }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
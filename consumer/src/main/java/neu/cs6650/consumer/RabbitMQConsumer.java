@@ -2,11 +2,17 @@ package neu.cs6650.consumer;
 
 import com.google.gson.Gson;
 import com.rabbitmq.client.*;
+import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.LiftRideEventCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RabbitMQConsumer {
 
@@ -14,15 +20,29 @@ public class RabbitMQConsumer {
 
   private final Channel channel;
   private final String queueName;
-  private final DynamoDBService dynamoDBService;
+  private final LiftRideStore liftRideStore;
   private final Gson gson = new Gson();
+  private final DeliveryAckTracker ackTracker;
   private String consumerTag;
 
-  public RabbitMQConsumer(Channel channel, String queueName, DynamoDBService dynamoDBService)
+  public RabbitMQConsumer(Channel channel, String queueName, LiftRideStore liftRideStore)
       throws IOException {
     this.channel = channel;
     this.queueName = queueName;
-    this.dynamoDBService = dynamoDBService;
+    this.liftRideStore = liftRideStore;
+    this.ackTracker = new DeliveryAckTracker(channel);
+    if (channel instanceof Recoverable) {
+      ((Recoverable) channel).addRecoveryListener(new RecoveryListener() {
+        @Override
+        public void handleRecovery(Recoverable recoverable) {
+          ackTracker.channelRecovered();
+        }
+
+        @Override
+        public void handleRecoveryStarted(Recoverable recoverable) {
+        }
+      });
+    }
 
     channel.queueDeclare(queueName, true, false, false, null);
     channel.basicQos(500);
@@ -32,23 +52,22 @@ public class RabbitMQConsumer {
     logger.info("Starting to consume messages from queue: {}", queueName);
 
     DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-      String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
+      long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+      ackTracker.track(deliveryTag);
 
       try {
-        LiftRideEvent event = gson.fromJson(message, LiftRideEvent.class);
+        List<LiftRideEvent> events = decode(delivery);
 
         long startTime = System.currentTimeMillis();
-        processMessage(event);
+        processMessage(events, deliveryTag);
         long endTime = System.currentTimeMillis();
 
         if ((endTime - startTime) > 500) {
           logger.warn("Message processing took {} ms", (endTime - startTime));
         }
-
-        channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
       } catch (Exception e) {
-        logger.error("Error processing message: {}", message, e);
-        channel.basicNack(delivery.getEnvelope().getDeliveryTag(), false, true);
+        logger.error("Error processing message: {}", describe(delivery), e);
+        ackTracker.fail(deliveryTag);
       }
     };
 
@@ -58,14 +77,89 @@ public class RabbitMQConsumer {
     this.consumerTag = channel.basicConsume(queueName, false, deliverCallback, cancelCallback);
   }
 
-  private void processMessage(LiftRideEvent event) {
-    dynamoDBService.addLiftRide(
-        event.getSkierID(),
-        event.getLiftRide(),
-        event.getResortID(),
-        event.getSeasonID(),
-        event.getDayID()
-    );
+  /**
+   * Binary messages and batches are marked by their content type; anything else is JSON from an
+   * older producer. A batch is decoded in full before any of it is processed.
+   */
+  private List<LiftRideEvent> decode(Delivery delivery) {
+    AMQP.BasicProperties properties = delivery.getProperties();
+    String contentType = properties != null ? properties.getContentType() : null;
+    if (LiftRideEventCodec.isBatch(contentType)) {
+      List<LiftRideEvent> events = new ArrayList<>(LiftRideEventCodec.batchSize(delivery.getBody()));
+      LiftRideEventCodec.decodeBatch(delivery.getBody(),
+          (eventID, skierID, resortID, seasonID, dayID, liftID, time) -> events.add(
+              toEvent(eventID, skierID, resortID, seasonID, dayID, liftID, time)));
+      return events;
+    }
+    if (LiftRideEventCodec.isBinary(contentType)) {
+      return Collections.singletonList(
+          LiftRideEventCodec.decode(delivery.getBody(), RabbitMQConsumer::toEvent));
+    }
+    return Collections.singletonList(
+        gson.fromJson(new String(delivery.getBody(), StandardCharsets.UTF_8), LiftRideEvent.class));
+  }
+
+  private static LiftRideEvent toEvent(String eventID, int skierID, int resortID, String seasonID,
+      String dayID, int liftID, int time) {
+    LiftRide liftRide = new LiftRide();
+    liftRide.setLiftID(liftID);
+    liftRide.setTime(time);
+    LiftRideEvent event = new LiftRideEvent();
+    event.setEventID(eventID);
+    event.setSkierID(skierID);
+    event.setResortID(resortID);
+    event.setSeasonID(seasonID);
+    event.setDayID(dayID);
+    event.setLiftRide(liftRide);
+    return event;
+  }
+
+  private static String describe(Delivery delivery) {
+    AMQP.BasicProperties properties = delivery.getProperties();
+    if (properties != null && (LiftRideEventCodec.isBinary(properties.getContentType())
+        || LiftRideEventCodec.isBatch(properties.getContentType()))) {
+      return delivery.getBody().length + " byte binary message";
+    }
+    return new String(delivery.getBody(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Buffer the rides for writing; the delivery is acked only once the store has written all of
+   * them (rides that are redeliveries of ones already handled count straight away), and nacked as
+   * soon as any of them fails. A redelivered batch is harmless: rides are deduplicated by event ID.
+   */
+  private void processMessage(List<LiftRideEvent> events, long deliveryTag) {
+    AtomicInteger remaining = new AtomicInteger(events.size());
+    WriteCallback callback = new WriteCallback() {
+      @Override
+      public void onWritten() {
+        if (remaining.decrementAndGet() == 0) {
+          ackTracker.complete(deliveryTag);
+        }
+      }
+
+      @Override
+      public void onFailed(Throwable error) {
+        if (remaining.getAndSet(-1) > 0) {
+          ackTracker.fail(deliveryTag);
+        }
+      }
+    };
+    if (events.isEmpty()) {
+      ackTracker.complete(deliveryTag);
+      return;
+    }
+    for (LiftRideEvent event : events) {
+      liftRideStore.addLiftRide(
+          event.getEventID(),
+          event.getSkierID(),
+          event.getLiftRide(),
+          event.getResortID(),
+          event.getSeasonID(),
+          event.getDayID(),
+          callback
+      );
+    }
   }
 
   public void close() throws IOException {
@@ -24,7 +24,7 @@ public class RabbitMQConsumerManager {
   private final String password;
   private final String queueName;
   private final int threadCount;
-  private final DynamoDBService dynamoDBService;
+  private final LiftRideStore liftRideStore;
 
   private Connection connection;
   private final List<RabbitMQConsumer> consumers = new ArrayList<>();
@@ -34,14 +34,14 @@ public class RabbitMQConsumerManager {
 
   public RabbitMQConsumerManager(
       String host, int port, String username, String password,
-      String queueName, int threadCount, DynamoDBService dynamoDBService) {
+      String queueName, int threadCount, LiftRideStore liftRideStore) {
     this.host = host;
     this.port = port;
     this.username = username;
     this.password = password;
     this.queueName = queueName;
     this.threadCount = threadCount;
-    this.dynamoDBService = dynamoDBService;
+    this.liftRideStore = liftRideStore;
   }
 
   public void start() throws Exception {
@@ -67,7 +67,7 @@ public class RabbitMQConsumerManager {
 
 
           RabbitMQConsumer consumer = new RabbitMQConsumer(
-              channel, queueName, dynamoDBService);
+              channel, queueName, liftRideStore);
           consumers.add(consumer);
 
           logger.info("Starting consumer thread {}", threadId);
@@ -126,7 +126,7 @@ public class RabbitMQConsumerManager {
         try {
           Channel channel = connection.createChannel();
           RabbitMQConsumer consumer = new RabbitMQConsumer(
-              channel, queueName, dynamoDBService);
+              channel, queueName, liftRideStore);
           consumers.add(consumer);
           activeThreads.incrementAndGet();
           consumer.start();
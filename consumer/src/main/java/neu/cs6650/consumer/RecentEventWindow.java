@@ -0,0 +1,113 @@
+package neu.cs6650.consumer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers what happened to recently seen events so a redelivered message is neither counted
+ * nor written twice. Holds at most `capacity` events; the oldest are forgotten first.
+ */
+public class RecentEventWindow {
+
+  public enum State {
+    /** Applied to the aggregates, write in progress */
+    PENDING,
+    /** Applied and written */
+    WRITTEN,
+    /** Applied, but the write was given up on; a redelivery should write it again */
+    FAILED
+  }
+
+  private final int capacity;
+  private final Map<UUID, State> states = new ConcurrentHashMap<>();
+  private final Queue<UUID> arrivalOrder = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger(0);
+
+  public RecentEventWindow(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Mark the event as being written
+   *
+   * @return its state before this call, or null if it has not been seen
+   */
+  public State begin(UUID eventID) {
+    State[] previous = new State[1];
+    states.compute(eventID, (id, state) -> {
+      previous[0] = state;
+      return state == null || state == State.FAILED ? State.PENDING : state;
+    });
+    if (previous[0] == null) {
+      arrivalOrder.offer(eventID);
+      if (size.incrementAndGet() > capacity) {
+        UUID oldest = arrivalOrder.poll();
+        if (oldest != null) {
+          states.remove(oldest);
+          size.decrementAndGet();
+        }
+      }
+    }
+    return previous[0];
+  }
+
+  public void written(UUID eventID) {
+    states.replace(eventID, State.PENDING, State.WRITTEN);
+  }
+
+  public void failed(UUID eventID) {
+    states.replace(eventID, State.PENDING, State.FAILED);
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * The remembered events oldest first: a count, then each event ID and its state
+   */
+  public byte[] toBytes() {
+    List<UUID> events = new ArrayList<>(size.get());
+    List<State> eventStates = new ArrayList<>(size.get());
+    for (UUID eventID : arrivalOrder) {
+      State state = states.get(eventID);
+      if (state != null) {
+        events.add(eventID);
+        eventStates.add(state);
+      }
+    }
+    ByteBuffer bytes = ByteBuffer.allocate(4 + events.size() * 17);
+    bytes.putInt(events.size());
+    for (int i = 0; i < events.size(); i++) {
+      bytes.putLong(events.get(i).getMostSignificantBits());
+      bytes.putLong(events.get(i).getLeastSignificantBits());
+      bytes.put((byte) eventStates.get(i).ordinal());
+    }
+    return bytes.array();
+  }
+
+  /**
+   * Remember the events from {@link #toBytes}. A write that was still pending when they were
+   * saved may never have finished, so those events come back as failed: a redelivery is written
+   * again but not recounted.
+   */
+  public void restore(byte[] saved) {
+    ByteBuffer bytes = ByteBuffer.wrap(saved);
+    int count = bytes.getInt();
+    State[] values = State.values();
+    for (int i = 0; i < count; i++) {
+      UUID eventID = new UUID(bytes.getLong(), bytes.getLong());
+      State state = values[bytes.get()];
+      if (begin(eventID) == null) {
+        states.put(eventID, state == State.PENDING ? State.FAILED : state);
+      }
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package neu.cs6650.consumer;
+
+import io.swagger.client.model.LiftRide;
+
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A store whose in-memory state is snapshotted against positions in the
+ * {@link WriteAheadLiftRideStore} in front of it. The log keeps its segments until a snapshot
+ * covers them, and after a restart replays the rides it had already shipped past the restored
+ * snapshot's position, so the state comes back complete without reading the tables.
+ */
+public interface ReplayableLiftRideStore extends LiftRideStore {
+
+  /**
+   * Called once by the log, before it ships or replays anything
+   *
+   * @param position every ride the log has handed over lies before the position this returns
+   * @param covered told the position each snapshot covers once it is on disk
+   * @return the position the restored snapshot covers, 0 without one, or -1 if this store takes
+   *     no snapshots and the log need not be kept for it
+   */
+  long attachLog(LongSupplier position, LongConsumer covered);
+
+  /**
+   * Apply a ride the tables already hold to the in-memory state only
+   */
+  void replayLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID,
+      String seasonID, String dayID);
+}
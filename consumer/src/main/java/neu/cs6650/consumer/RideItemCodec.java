@@ -0,0 +1,224 @@
+package neu.cs6650.consumer;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Versioned encoding for ride items in the compact table, and a reader that understands both that
+ * format and the original SkierLiftRides items so queries work across a migration.
+ *
+ * <p>A compact item has three numeric attributes: s (skierID, partition key), r (ride key, sort
+ * key) and rd (resort and day, partition key of the resort/day index). The ride key packs, from
+ * the most significant bit down: format version (3 bits), season (14), day (9), time (9), lift (8)
+ * and a discriminator (20) that keeps otherwise identical rides apart. Season and day lead, so a
+ * season or a single day is one contiguous sort key range. Vertical is derived from the lift.
+ */
+public final class RideItemCodec {
+
+  public static final String SKIER = "s";
+  public static final String RIDE = "r";
+  public static final String RESORT_DAY = "rd";
+  public static final int VERSION = 1;
+
+  private static final String LEGACY_SORT_KEY = "timestamp_liftID";
+
+  private static final int DISCRIMINATOR_BITS = 20;
+  private static final int LIFT_BITS = 8;
+  private static final int TIME_BITS = 9;
+  private static final int DAY_BITS = 9;
+  private static final int SEASON_BITS = 14;
+  private static final int LIFT_SHIFT = DISCRIMINATOR_BITS;
+  private static final int TIME_SHIFT = LIFT_SHIFT + LIFT_BITS;
+  private static final int DAY_SHIFT = TIME_SHIFT + TIME_BITS;
+  private static final int SEASON_SHIFT = DAY_SHIFT + DAY_BITS;
+  private static final int VERSION_SHIFT = SEASON_SHIFT + SEASON_BITS;
+  public static final long DISCRIMINATOR_MASK = (1L << DISCRIMINATOR_BITS) - 1;
+
+  private RideItemCodec() {
+  }
+
+  public static int vertical(int liftID) {
+    return liftID * 10;
+  }
+
+  /**
+   * @return the compact item, or null if a field is not representable in this version, in which
+   *     case the ride should be written in the original format
+   */
+  public static Map<String, AttributeValue> encode(int skierID, int resortID, String seasonID,
+      String dayID, int liftID, int time, long discriminator) {
+    int season = canonicalId(seasonID, SEASON_BITS);
+    int day = canonicalId(dayID, DAY_BITS);
+    if (season < 0 || day < 0 || resortID < 0 || !fits(liftID, LIFT_BITS) || !fits(time, TIME_BITS)) {
+      return null;
+    }
+    long rideKey = dayStart(season, day)
+        | ((long) time << TIME_SHIFT)
+        | ((long) liftID << LIFT_SHIFT)
+        | (discriminator & DISCRIMINATOR_MASK);
+
+    Map<String, AttributeValue> item = new HashMap<>(4);
+    item.put(SKIER, AttributeValue.builder().n(String.valueOf(skierID)).build());
+    item.put(RIDE, AttributeValue.builder().n(String.valueOf(rideKey)).build());
+    item.put(RESORT_DAY, AttributeValue.builder().n(String.valueOf(resortDay(resortID, day))).build());
+    return item;
+  }
+
+  /**
+   * @return the season as stored in a ride key, or -1 if it cannot be
+   */
+  public static int season(String seasonID) {
+    return canonicalId(seasonID, SEASON_BITS);
+  }
+
+  /**
+   * @return the day as stored in a ride key, or -1 if it cannot be
+   */
+  public static int day(String dayID) {
+    return canonicalId(dayID, DAY_BITS);
+  }
+
+  public static long seasonStart(int season) {
+    return ((long) VERSION << VERSION_SHIFT) | ((long) season << SEASON_SHIFT);
+  }
+
+  public static long seasonEnd(int season) {
+    return seasonStart(season) | ((1L << SEASON_SHIFT) - 1);
+  }
+
+  public static long dayStart(int season, int day) {
+    return seasonStart(season) | ((long) day << DAY_SHIFT);
+  }
+
+  public static long dayEnd(int season, int day) {
+    return dayStart(season, day) | ((1L << DAY_SHIFT) - 1);
+  }
+
+  /**
+   * The last ride key of the season and day the given ride key falls on
+   */
+  public static long dayEnd(long rideKey) {
+    return rideKey | ((1L << DAY_SHIFT) - 1);
+  }
+
+  /**
+   * The ride key range of every season, for partitions such as a resort/day that span seasons
+   */
+  public static long firstKey() {
+    return seasonStart(0);
+  }
+
+  public static long lastKey() {
+    return seasonEnd((1 << SEASON_BITS) - 1);
+  }
+
+  public static long resortDay(int resortID, int day) {
+    return ((long) resortID << DAY_BITS) | day;
+  }
+
+  /**
+   * Read a ride from either format. Attributes the query did not project come back null.
+   *
+   * @return null for items in neither format or written by a newer codec version
+   */
+  public static Ride decode(Map<String, AttributeValue> item) {
+    AttributeValue rideValue = item.get(RIDE);
+    if (rideValue != null && rideValue.n() != null) {
+      long rideKey = Long.parseLong(rideValue.n());
+      if ((rideKey >>> VERSION_SHIFT) != VERSION) {
+        return null;
+      }
+      int liftID = field(rideKey, LIFT_SHIFT, LIFT_BITS);
+      return new Ride(rideValue,
+          String.valueOf(field(rideKey, SEASON_SHIFT, SEASON_BITS)),
+          String.valueOf(field(rideKey, DAY_SHIFT, DAY_BITS)),
+          liftID, vertical(liftID));
+    }
+
+    AttributeValue legacyKey = item.get(LEGACY_SORT_KEY);
+    if (legacyKey == null) {
+      return null;
+    }
+    AttributeValue seasonValue = item.get("seasonID");
+    AttributeValue dayValue = item.get("dayID");
+    AttributeValue liftValue = item.get("liftID");
+    AttributeValue verticalValue = item.get("vertical");
+    Integer liftID = liftValue == null ? null : Integer.valueOf(liftValue.n());
+    Integer vertical = verticalValue != null ? Integer.valueOf(verticalValue.n())
+        : liftID != null ? Integer.valueOf(vertical(liftID)) : null;
+    return new Ride(legacyKey,
+        seasonValue == null ? null : seasonValue.s(),
+        dayValue == null ? null : dayValue.s(),
+        liftID, vertical);
+  }
+
+  private static int field(long rideKey, int shift, int bits) {
+    return (int) ((rideKey >>> shift) & ((1L << bits) - 1));
+  }
+
+  private static boolean fits(int value, int bits) {
+    return value >= 0 && value < (1 << bits);
+  }
+
+  /**
+   * Only IDs that print back exactly as given are packed, so decoding returns the same string
+   */
+  private static int canonicalId(String id, int bits) {
+    if (id == null || id.isEmpty() || id.length() > 5 || (id.length() > 1 && id.charAt(0) == '0')) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = 0; i < id.length(); i++) {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return fits(value, bits) ? value : -1;
+  }
+
+  /**
+   * One ride as read back from either item format
+   */
+  public static final class Ride {
+    private final AttributeValue key;
+    private final String seasonID;
+    private final String dayID;
+    private final Integer liftID;
+    private final Integer vertical;
+
+    private Ride(AttributeValue key, String seasonID, String dayID, Integer liftID, Integer vertical) {
+      this.key = key;
+      this.seasonID = seasonID;
+      this.dayID = dayID;
+      this.liftID = liftID;
+      this.vertical = vertical;
+    }
+
+    /**
+     * The item's sort key, unique per ride within a skier's partition
+     */
+    public AttributeValue getKey() {
+      return key;
+    }
+
+    public String getSeasonID() {
+      return seasonID;
+    }
+
+    public String getDayID() {
+      return dayID;
+    }
+
+    public Integer getLiftID() {
+      return liftID;
+    }
+
+    public Integer getVertical() {
+      return vertical;
+    }
+  }
+}
@@ -1,46 +1,91 @@
 package neu.cs6650.consumer;
 
 import io.swagger.client.model.LiftRide;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
-public class SkierDataStore {
-  private static final Logger logger = LoggerFactory.getLogger(SkierDataStore.class);
+/**
+ * In-memory rides per skier. {@link ColumnarSkierDataStore} keeps them in on-heap primitive
+ * columns and {@link OffHeapSkierDataStore} in direct memory outside the GC's reach.
+ * {@link #forEachRide} is the allocation-free read path; the List-returning methods copy.
+ *
+ * <p>Neither store is used by the consumer yet: rides here carry no resort, season or day, so
+ * they cannot answer the {@link LiftRideStore} queries.
+ */
+public interface SkierDataStore {
 
+  /**
+   * Receives a skier's rides oldest first
+   */
+  interface RideVisitor {
+    void visit(int liftID, int time);
+  }
+
+  default void addLiftRide(int skierID, LiftRide liftRide) {
+    addLiftRide(skierID, liftRide.getLiftID(), liftRide.getTime());
+  }
+
+  /**
+   * @throws IllegalArgumentException if the lift or time does not fit in 15 bits
+   */
+  void addLiftRide(int skierID, int liftID, int time);
+
+  /**
+   * Visit the skier's rides as of now, oldest first, without materializing LiftRide objects
+   */
+  void forEachRide(int skierID, RideVisitor visitor);
 
-  private final Map<Integer, List<LiftRide>> skierRecords = new ConcurrentHashMap<>();
-  private final AtomicInteger totalProcessedMessages = new AtomicInteger(0);
-  private final AtomicInteger uniqueSkiers = new AtomicInteger(0);
+  /**
+   * Visit every skier with at least one ride
+   */
+  void forEachSkier(IntConsumer action);
 
-  public void addLiftRide(int skierID, LiftRide liftRide) {
+  int getUniqueSkiersCount();
 
-    skierRecords.computeIfAbsent(skierID, k -> {
-      uniqueSkiers.incrementAndGet();
-      return new CopyOnWriteArrayList<>();
-    }).add(liftRide);
+  int getTotalProcessedMessages();
 
-    int total = totalProcessedMessages.incrementAndGet();
+  default int getRideCount(int skierID) {
+    int[] count = {0};
+    forEachRide(skierID, (liftID, time) -> count[0]++);
+    return count[0];
   }
 
-  public List<LiftRide> getSkierRecords(int skierID) {
-    return skierRecords.getOrDefault(skierID, new CopyOnWriteArrayList<>());
+  default int getTotalVertical(int skierID) {
+    int[] vertical = {0};
+    forEachRide(skierID, (liftID, time) -> vertical[0] += RideItemCodec.vertical(liftID));
+    return vertical[0];
   }
 
-  public int getUniqueSkiersCount() {
-    return uniqueSkiers.get();
+  /**
+   * A copy of the skier's rides; prefer {@link #forEachRide} on hot paths
+   */
+  default List<LiftRide> getSkierRecords(int skierID) {
+    List<LiftRide> rides = new ArrayList<>();
+    forEachRide(skierID, (liftID, time) -> {
+      LiftRide liftRide = new LiftRide();
+      liftRide.setLiftID(liftID);
+      liftRide.setTime(time);
+      rides.add(liftRide);
+    });
+    return rides;
   }
 
-  public int getTotalProcessedMessages() {
-    return totalProcessedMessages.get();
+  /**
+   * A copy of every skier's rides; allocates a LiftRide per ride, so only for small stores
+   */
+  default Map<Integer, List<LiftRide>> getAllSkierRecords() {
+    Map<Integer, List<LiftRide>> records = new HashMap<>();
+    forEachSkier(skierID -> records.put(skierID, getSkierRecords(skierID)));
+    return records;
   }
 
-  public Map<Integer, List<LiftRide>> getAllSkierRecords() {
-    return skierRecords;
+  static void checkRange(int liftID, int time) {
+    if (liftID < 0 || liftID > Short.MAX_VALUE || time < 0 || time > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Lift " + liftID + " or time " + time + " out of range");
+    }
   }
 }
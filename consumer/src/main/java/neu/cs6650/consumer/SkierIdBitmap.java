@@ -0,0 +1,169 @@
+package neu.cs6650.consumer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Exact, lock-free set of skier IDs with an O(1) count. IDs in the valid 1..100000 range live in a
+ * fixed 12.5 KB bitmap; anything outside it (which the servers reject, but the queue does not
+ * guarantee) goes to a small overflow set so counts stay exact. Bitmaps from different consumer
+ * instances merge with a bitwise OR.
+ */
+public class SkierIdBitmap {
+
+  public static final int MAX_SKIER_ID = 100000;
+  private static final int WORDS = (MAX_SKIER_ID >>> 6) + 1;
+  private static final byte FORMAT_VERSION = 1;
+
+  private final AtomicLongArray words = new AtomicLongArray(WORDS);
+  private final Set<Integer> overflow = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger cardinality = new AtomicInteger(0);
+
+  /**
+   * @return true if the skier was not already present
+   */
+  public boolean add(int skierID) {
+    if (skierID < 0 || skierID > MAX_SKIER_ID) {
+      boolean added = overflow.add(skierID);
+      if (added) {
+        cardinality.incrementAndGet();
+      }
+      return added;
+    }
+    int index = skierID >>> 6;
+    long bit = 1L << skierID;
+    while (true) {
+      long word = words.get(index);
+      if ((word & bit) != 0) {
+        return false;
+      }
+      if (words.compareAndSet(index, word, word | bit)) {
+        cardinality.incrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  public boolean contains(int skierID) {
+    if (skierID < 0 || skierID > MAX_SKIER_ID) {
+      return overflow.contains(skierID);
+    }
+    return (words.get(skierID >>> 6) & (1L << skierID)) != 0;
+  }
+
+  public int cardinality() {
+    return cardinality.get();
+  }
+
+  public void forEach(IntConsumer action) {
+    for (int i = 0; i < WORDS; i++) {
+      long word = words.get(i);
+      while (word != 0) {
+        action.accept((i << 6) + Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+    for (Integer skierID : overflow) {
+      action.accept(skierID);
+    }
+  }
+
+  public void merge(SkierIdBitmap other) {
+    for (int i = 0; i < WORDS; i++) {
+      long incoming = other.words.get(i);
+      if (incoming == 0) {
+        continue;
+      }
+      while (true) {
+        long word = words.get(i);
+        long added = incoming & ~word;
+        if (added == 0) {
+          break;
+        }
+        if (words.compareAndSet(i, word, word | added)) {
+          cardinality.addAndGet(Long.bitCount(added));
+          break;
+        }
+      }
+    }
+    for (Integer skierID : other.overflow) {
+      add(skierID);
+    }
+  }
+
+  /**
+   * Compressed form for persistence: a version byte followed by the deflated words and overflow IDs
+   */
+  public byte[] toBytes() {
+    ByteBuffer raw = ByteBuffer.allocate(WORDS * 8 + 4 + overflow.size() * 4 + 64);
+    for (int i = 0; i < WORDS; i++) {
+      raw.putLong(words.get(i));
+    }
+    Integer[] extra = overflow.toArray(new Integer[0]);
+    raw.putInt(extra.length);
+    for (Integer skierID : extra) {
+      raw.putInt(skierID);
+    }
+
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    deflater.setInput(raw.array(), 0, raw.position());
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    out.write(FORMAT_VERSION);
+    byte[] chunk = new byte[4096];
+    while (!deflater.finished()) {
+      int length = deflater.deflate(chunk);
+      out.write(chunk, 0, length);
+    }
+    deflater.end();
+    return out.toByteArray();
+  }
+
+  public static SkierIdBitmap fromBytes(byte[] bytes) {
+    if (bytes.length == 0 || bytes[0] != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Unsupported skier bitmap format");
+    }
+    Inflater inflater = new Inflater();
+    inflater.setInput(bytes, 1, bytes.length - 1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(WORDS * 8 + 64);
+    byte[] chunk = new byte[4096];
+    try {
+      while (!inflater.finished()) {
+        int length = inflater.inflate(chunk);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalArgumentException("Truncated skier bitmap");
+        }
+        out.write(chunk, 0, length);
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Corrupt skier bitmap", e);
+    } finally {
+      inflater.end();
+    }
+
+    ByteBuffer raw = ByteBuffer.wrap(out.toByteArray());
+    SkierIdBitmap bitmap = new SkierIdBitmap();
+    int count = 0;
+    for (int i = 0; i < WORDS; i++) {
+      long word = raw.getLong();
+      bitmap.words.set(i, word);
+      count += Long.bitCount(word);
+    }
+    int extra = raw.getInt();
+    for (int i = 0; i < extra; i++) {
+      if (bitmap.overflow.add(raw.getInt())) {
+        count++;
+      }
+    }
+    bitmap.cardinality.set(count);
+    return bitmap;
+  }
+}
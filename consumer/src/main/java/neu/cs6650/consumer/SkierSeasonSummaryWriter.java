@@ -0,0 +1,320 @@
+package neu.cs6650.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maintains one SkierSeasonSummary item per skier, season and day holding the running vertical and
+ * ride count. Rides are coalesced in memory and each flush window sends a single atomic ADD per
+ * touched day, however many rides it covers.
+ *
+ * <p>Rides are recorded once their own write has succeeded, and each ride's callback fires only
+ * when the update counting it has been applied, so a message is not acknowledged while its
+ * increment exists only in memory. Each update is sent as a single-item transaction with its own
+ * client request token, and a failed update is retried unchanged with the same token: if the
+ * earlier attempt had in fact been applied before timing out, DynamoDB recognises the token and
+ * does not apply it twice. The item itself holds nothing but the vertical and ride count.
+ */
+public class SkierSeasonSummaryWriter {
+  private static final Logger logger = LoggerFactory.getLogger(SkierSeasonSummaryWriter.class);
+
+  public static final String PARTITION_KEY = "skierSeason";
+  public static final String SORT_KEY = "dayID";
+  public static final String VERTICAL = "vertical";
+  public static final String RIDES = "rides";
+
+  /** How long DynamoDB remembers a client request token */
+  private static final long IDEMPOTENCY_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  private static final int SHUTDOWN_FLUSH_ATTEMPTS = 5;
+  private static final long SHUTDOWN_RETRY_MILLIS = 200;
+
+  private final DynamoDbAsyncClient asyncClient;
+  private final String tableName;
+  private final Semaphore window;
+  private final Map<SummaryKey, Delta> pending = new ConcurrentHashMap<>();
+  private final Queue<SummaryUpdate> retries = new ConcurrentLinkedQueue<>();
+  private final Set<CompletableFuture<?>> outstanding = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService scheduler;
+
+  private final AtomicLong updatesSent = new AtomicLong(0);
+  private final AtomicLong ridesCoalesced = new AtomicLong(0);
+  private final AtomicLong failedUpdates = new AtomicLong(0);
+
+  public SkierSeasonSummaryWriter(DynamoDbAsyncClient asyncClient, String tableName,
+      long flushIntervalMillis, int maxInFlight) {
+    this.asyncClient = asyncClient;
+    this.tableName = tableName;
+    this.window = new Semaphore(maxInFlight);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        drain();
+      } catch (Exception e) {
+        logger.error("Error flushing skier season summaries", e);
+      }
+    }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public static String partitionKey(int skierID, String seasonID) {
+    return skierID + "#" + seasonID;
+  }
+
+  /**
+   * Count a ride whose write has succeeded
+   *
+   * @param callback notified once the update covering this ride has been applied, or given up on
+   *     at shutdown
+   */
+  public void record(int skierID, String seasonID, String dayID, int vertical, WriteCallback callback) {
+    pending.merge(new SummaryKey(partitionKey(skierID, seasonID), dayID),
+        new Delta(vertical, callback), Delta::plus);
+    ridesCoalesced.incrementAndGet();
+  }
+
+  /**
+   * Send everything pending now and wait for the updates to complete
+   */
+  public void flush() {
+    drain();
+    CompletableFuture<?>[] inFlight = outstanding.toArray(new CompletableFuture<?>[0]);
+    try {
+      CompletableFuture.allOf(inFlight).join();
+    } catch (Exception e) {
+      logger.error("Error waiting for summary updates to complete", e);
+    }
+  }
+
+  public long getUpdatesSent() {
+    return updatesSent.get();
+  }
+
+  public long getRidesCoalesced() {
+    return ridesCoalesced.get();
+  }
+
+  public long getFailedUpdates() {
+    return failedUpdates.get();
+  }
+
+  /**
+   * Stop the flush thread and send what is left, retrying failed updates a few times; the rides
+   * of any update that still cannot be written are failed so their messages are redelivered
+   */
+  public void shutdown() {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (int attempt = 1; attempt <= SHUTDOWN_FLUSH_ATTEMPTS; attempt++) {
+      flush();
+      if (pending.isEmpty() && retries.isEmpty()) {
+        return;
+      }
+      if (attempt < SHUTDOWN_FLUSH_ATTEMPTS) {
+        try {
+          Thread.sleep(SHUTDOWN_RETRY_MILLIS * attempt);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    List<SummaryUpdate> dropped = new ArrayList<>();
+    for (SummaryKey key : pending.keySet()) {
+      Delta delta = pending.remove(key);
+      if (delta != null) {
+        dropped.add(new SummaryUpdate(key, delta));
+      }
+    }
+    for (SummaryUpdate update = retries.poll(); update != null; update = retries.poll()) {
+      dropped.add(update);
+    }
+    for (SummaryUpdate update : dropped) {
+      logger.error("Dropping summary update for {} day {}: {} rides, {} vertical",
+          update.key.skierSeason, update.key.dayID, update.delta.rides(), update.delta.vertical);
+      update.delta.failed(new IllegalStateException("Summary update dropped at shutdown"));
+    }
+  }
+
+  /**
+   * Failed updates go first, each as it was first sent, then one new update per touched day
+   */
+  private void drain() {
+    for (int count = retries.size(); count > 0; count--) {
+      SummaryUpdate update = retries.poll();
+      if (update == null) {
+        break;
+      }
+      send(update);
+    }
+    for (SummaryKey key : pending.keySet()) {
+      Delta delta = pending.remove(key);
+      if (delta != null) {
+        send(new SummaryUpdate(key, delta));
+      }
+    }
+  }
+
+  private void send(SummaryUpdate update) {
+    try {
+      window.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      retries.add(update);
+      return;
+    }
+
+    Map<String, AttributeValue> values = new HashMap<>();
+    values.put(":v", AttributeValue.builder().n(String.valueOf(update.delta.vertical)).build());
+    values.put(":r", AttributeValue.builder().n(String.valueOf(update.delta.rides())).build());
+
+    TransactWriteItemsRequest request = TransactWriteItemsRequest.builder()
+        .clientRequestToken(update.token)
+        .transactItems(TransactWriteItem.builder()
+            .update(Update.builder()
+                .tableName(tableName)
+                .key(itemKey(update.key))
+                .updateExpression("ADD " + VERTICAL + " :v, " + RIDES + " :r")
+                .expressionAttributeValues(values)
+                .build())
+            .build())
+        .build();
+
+    CompletableFuture<?> sent;
+    try {
+      sent = asyncClient.transactWriteItems(request);
+    } catch (Exception e) {
+      CompletableFuture<Object> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      sent = failed;
+    }
+    CompletableFuture<?> tracked = sent.whenComplete((response, error) -> {
+      window.release();
+      if (error == null) {
+        updatesSent.incrementAndGet();
+        update.delta.written();
+        return;
+      }
+      failedUpdates.incrementAndGet();
+      if (System.currentTimeMillis() - update.firstSentMillis > IDEMPOTENCY_WINDOW_MILLIS) {
+        logger.warn("Summary update for {} day {} has been retried past its token's lifetime and "
+            + "may be counted twice if an earlier attempt was applied", update.key.skierSeason,
+            update.key.dayID);
+      }
+      logger.warn("Summary update for {} day {} failed, retrying next window: {}",
+          update.key.skierSeason, update.key.dayID, error.toString());
+      retries.add(update);
+    });
+    outstanding.add(tracked);
+    tracked.whenComplete((ignored, error) -> outstanding.remove(tracked));
+  }
+
+  private static Map<String, AttributeValue> itemKey(SummaryKey key) {
+    Map<String, AttributeValue> itemKey = new HashMap<>();
+    itemKey.put(PARTITION_KEY, AttributeValue.builder().s(key.skierSeason).build());
+    itemKey.put(SORT_KEY, AttributeValue.builder().s(key.dayID).build());
+    return itemKey;
+  }
+
+  private static final class SummaryKey {
+    private final String skierSeason;
+    private final String dayID;
+
+    private SummaryKey(String skierSeason, String dayID) {
+      this.skierSeason = skierSeason;
+      this.dayID = dayID;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SummaryKey)) {
+        return false;
+      }
+      SummaryKey other = (SummaryKey) o;
+      return skierSeason.equals(other.skierSeason) && dayID.equals(other.dayID);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(skierSeason, dayID);
+    }
+  }
+
+  /**
+   * One update as first sent; a retry reuses its token so DynamoDB can tell it is the same update
+   */
+  private static final class SummaryUpdate {
+    private final SummaryKey key;
+    private final Delta delta;
+    private final String token = UUID.randomUUID().toString();
+    private final long firstSentMillis = System.currentTimeMillis();
+
+    private SummaryUpdate(SummaryKey key, Delta delta) {
+      this.key = key;
+      this.delta = delta;
+    }
+  }
+
+  /**
+   * Rides not yet counted for one summary item: their total vertical and each ride's callback.
+   * Only changed by merges while it is the pending value for its key.
+   */
+  private static final class Delta {
+    private long vertical;
+    private final List<WriteCallback> callbacks = new ArrayList<>();
+
+    private Delta(int vertical, WriteCallback callback) {
+      this.vertical = vertical;
+      callbacks.add(callback);
+    }
+
+    private int rides() {
+      return callbacks.size();
+    }
+
+    private Delta plus(Delta other) {
+      vertical += other.vertical;
+      callbacks.addAll(other.callbacks);
+      return this;
+    }
+
+    private void written() {
+      for (WriteCallback callback : callbacks) {
+        callback.onWritten();
+      }
+    }
+
+    private void failed(Throwable error) {
+      for (WriteCallback callback : callbacks) {
+        callback.onFailed(error);
+      }
+    }
+  }
+}
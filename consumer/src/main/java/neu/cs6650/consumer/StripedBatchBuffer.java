@@ -0,0 +1,131 @@
+package neu.cs6650.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free write buffer split into stripes so concurrent producers do not contend on one list.
+ * Whenever a stripe accumulates a full batch, the producer that completed it cuts the batch and
+ * hands it to the sink outside of any lock.
+ */
+public class StripedBatchBuffer<T> {
+
+  private final Stripe<T>[] stripes;
+  private final int mask;
+  private final int batchSize;
+  private final Consumer<List<T>> sink;
+
+  public StripedBatchBuffer(int stripeCount, int batchSize, Consumer<List<T>> sink) {
+    int size = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+    this.stripes = newStripes(size);
+    for (int i = 0; i < size; i++) {
+      stripes[i] = new Stripe<>();
+    }
+    this.mask = size - 1;
+    this.batchSize = batchSize;
+    this.sink = sink;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Stripe<T>[] newStripes(int size) {
+    return (Stripe<T>[]) new Stripe<?>[size];
+  }
+
+  /**
+   * Append an item to the calling thread's stripe, emitting a batch if the stripe is full
+   */
+  public void add(T item) {
+    Stripe<T> stripe = stripeForCurrentThread();
+    stripe.items.offer(item);
+    if (stripe.pending.incrementAndGet() >= batchSize) {
+      cutFullBatches(stripe);
+    }
+  }
+
+  /**
+   * Emit everything currently buffered, in batches of at most batchSize
+   */
+  public void drain() {
+    for (Stripe<T> stripe : stripes) {
+      drainStripe(stripe);
+    }
+  }
+
+  /**
+   * Emit partial batches from stripes that have not produced a batch within maxAgeNanos, so a
+   * quiet stripe does not hold items back indefinitely
+   */
+  public void drainIdle(long maxAgeNanos) {
+    long now = System.nanoTime();
+    for (Stripe<T> stripe : stripes) {
+      if (stripe.pending.get() > 0 && now - stripe.lastEmitNanos >= maxAgeNanos) {
+        drainStripe(stripe);
+      }
+    }
+  }
+
+  public int getBufferedCount() {
+    int total = 0;
+    for (Stripe<T> stripe : stripes) {
+      total += stripe.pending.get();
+    }
+    return total;
+  }
+
+  private void cutFullBatches(Stripe<T> stripe) {
+    while (true) {
+      int pending = stripe.pending.get();
+      if (pending < batchSize) {
+        return;
+      }
+      if (stripe.pending.compareAndSet(pending, pending - batchSize)) {
+        stripe.lastEmitNanos = System.nanoTime();
+        sink.accept(poll(stripe, batchSize));
+      }
+    }
+  }
+
+  private void drainStripe(Stripe<T> stripe) {
+    int reserved = stripe.pending.getAndSet(0);
+    if (reserved > 0) {
+      stripe.lastEmitNanos = System.nanoTime();
+    }
+    while (reserved > 0) {
+      int take = Math.min(reserved, batchSize);
+      sink.accept(poll(stripe, take));
+      reserved -= take;
+    }
+  }
+
+  /**
+   * Items are offered before they are counted, so a reservation made against the counter is
+   * always backed by that many queued items.
+   */
+  private List<T> poll(Stripe<T> stripe, int count) {
+    List<T> batch = new ArrayList<>(count);
+    while (batch.size() < count) {
+      T item = stripe.items.poll();
+      if (item != null) {
+        batch.add(item);
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+    return batch;
+  }
+
+  private Stripe<T> stripeForCurrentThread() {
+    long id = Thread.currentThread().getId();
+    int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return stripes[(hash ^ (hash >>> 16)) & mask];
+  }
+
+  private static final class Stripe<T> {
+    private final ConcurrentLinkedQueue<T> items = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private volatile long lastEmitNanos = System.nanoTime();
+  }
+}
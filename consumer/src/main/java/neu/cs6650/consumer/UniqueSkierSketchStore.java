@@ -0,0 +1,84 @@
+package neu.cs6650.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persists per resort/day skier bitmaps to the ResortDaySkiers table, one item per consumer
+ * instance. Each instance only overwrites its own item and readers OR every instance's bitmap
+ * together, so the count stays exact when several consumers share the queue.
+ */
+public class UniqueSkierSketchStore {
+  private static final Logger logger = LoggerFactory.getLogger(UniqueSkierSketchStore.class);
+
+  private static final String PARTITION_KEY = "resortDay";
+  private static final String SORT_KEY = "instanceID";
+  private static final String BITMAP = "bitmap";
+  private static final String SKIER_COUNT = "skierCount";
+
+  private final DynamoDbClient dynamoDbClient;
+  private final String tableName;
+  private final String instanceID;
+
+  public UniqueSkierSketchStore(DynamoDbClient dynamoDbClient, String tableName, String instanceID) {
+    this.dynamoDbClient = dynamoDbClient;
+    this.tableName = tableName;
+    this.instanceID = instanceID;
+  }
+
+  public void save(String resortDay, SkierIdBitmap skiers) {
+    Map<String, AttributeValue> item = new HashMap<>();
+    item.put(PARTITION_KEY, AttributeValue.builder().s(resortDay).build());
+    item.put(SORT_KEY, AttributeValue.builder().s(instanceID).build());
+    item.put(BITMAP, AttributeValue.builder().b(SdkBytes.fromByteArray(skiers.toBytes())).build());
+    item.put(SKIER_COUNT, AttributeValue.builder().n(String.valueOf(skiers.cardinality())).build());
+
+    dynamoDbClient.putItem(PutItemRequest.builder()
+        .tableName(tableName)
+        .item(item)
+        .build());
+  }
+
+  /**
+   * @return the union of every instance's bitmap for the resort/day, or null if none was stored
+   */
+  public SkierIdBitmap loadMerged(String resortDay) {
+    Map<String, AttributeValue> expressionValues = new HashMap<>();
+    expressionValues.put(":resortDay", AttributeValue.builder().s(resortDay).build());
+
+    QueryRequest queryRequest = QueryRequest.builder()
+        .tableName(tableName)
+        .keyConditionExpression(PARTITION_KEY + " = :resortDay")
+        .projectionExpression(BITMAP)
+        .expressionAttributeValues(expressionValues)
+        .consistentRead(true)
+        .build();
+
+    SkierIdBitmap merged = null;
+    for (Map<String, AttributeValue> item : dynamoDbClient.queryPaginator(queryRequest).items()) {
+      AttributeValue bitmapValue = item.get(BITMAP);
+      if (bitmapValue == null) {
+        continue;
+      }
+      try {
+        SkierIdBitmap instanceSkiers = SkierIdBitmap.fromBytes(bitmapValue.b().asByteArray());
+        if (merged == null) {
+          merged = instanceSkiers;
+        } else {
+          merged.merge(instanceSkiers);
+        }
+      } catch (IllegalArgumentException e) {
+        logger.warn("Skipping unreadable skier bitmap for {}: {}", resortDay, e.getMessage());
+      }
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,570 @@
+package neu.cs6650.consumer;
+
+import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.EventIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log in front of another store. Each ride is appended as a fixed-width record to a
+ * memory-mapped segment file and its callback fires as soon as the segment has been forced to
+ * disk, so RabbitMQ deliveries are acked at disk speed however slowly the backing store accepts
+ * writes. A drainer thread ships records to the backing store in log order and marks each one
+ * shipped once the store confirms it; fully shipped segments are deleted.
+ *
+ * <p>A {@link ReplayableLiftRideStore} snapshots its in-memory state against the drainer's position
+ * in the log, and segments are then only deleted once a snapshot covers them as well. After a
+ * restart the records it had already shipped past the restored snapshot's position are replayed
+ * into its state, and every record not marked shipped is shipped again. Ride keys are derived from
+ * the event ID, so a re-shipped ride overwrites rather than duplicates its item. Queries go to the
+ * backing store and so do not see rides still waiting in the log. Rides whose IDs do not fit a
+ * record bypass the log and go straight to the backing store.
+ */
+public class WriteAheadLiftRideStore implements LiftRideStore {
+  private static final Logger logger = LoggerFactory.getLogger(WriteAheadLiftRideStore.class);
+
+  private static final int RECORD_SIZE = 40;
+  private static final int SEGMENT_RECORDS = 1 << 20;
+  private static final String SEGMENT_PREFIX = "rides-";
+  private static final String SEGMENT_SUFFIX = ".wal";
+
+  private static final byte EMPTY = 0;
+  private static final byte APPENDED = 1;
+  private static final byte SHIPPED = 2;
+
+  private static final long RESHIP_DELAY_MILLIS = 1000;
+
+  private final LiftRideStore store;
+  private final Path directory;
+  private final ConcurrentLinkedDeque<Segment> segments = new ConcurrentLinkedDeque<>();
+  /** Segments the drainer has not finished reading, oldest first */
+  private final Queue<Segment> undrained = new ConcurrentLinkedQueue<>();
+  private volatile Segment active;
+  private long nextSegmentSequence;
+
+  private final LinkedBlockingQueue<PendingSync> unsynced = new LinkedBlockingQueue<>();
+  private final Queue<ShippedRecord> toReship = new ConcurrentLinkedQueue<>();
+  private final Thread syncThread;
+  private final Thread drainThread;
+  private volatile boolean running = true;
+  /** Every record before this log position has been handed to the store; only the drainer advances it */
+  private volatile long drainedPosition;
+  /** Position the latest snapshot of the store covers; shipped segments wholly before it can go */
+  private volatile long coveredPosition = Long.MAX_VALUE;
+  /** Shipped records at or after this position are replayed into the store's state */
+  private final long replayFrom;
+
+  private final AtomicInteger totalProcessedMessages = new AtomicInteger(0);
+  private final AtomicLong appendedRecords = new AtomicLong(0);
+  private final AtomicLong shippedRecords = new AtomicLong(0);
+  private final AtomicLong syncCount = new AtomicLong(0);
+  private final AtomicLong bypassedRecords = new AtomicLong(0);
+  private long recoveredRecords = 0;
+  private final AtomicLong replayedRecords = new AtomicLong(0);
+
+  public WriteAheadLiftRideStore(LiftRideStore store, Path directory) throws IOException {
+    this.store = store;
+    this.directory = directory;
+    Files.createDirectories(directory);
+    recoverSegments();
+
+    long restoredPosition = -1;
+    if (store instanceof ReplayableLiftRideStore) {
+      restoredPosition = ((ReplayableLiftRideStore) store).attachLog(
+          () -> drainedPosition, position -> coveredPosition = position);
+    }
+    if (restoredPosition >= 0) {
+      this.coveredPosition = restoredPosition;
+      this.drainedPosition = restoredPosition;
+      // a snapshot newer than the log (say, the log directory was emptied) must not cover the
+      // records appended from now on
+      nextSegmentSequence = Math.max(nextSegmentSequence,
+          (restoredPosition + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS);
+    }
+    this.replayFrom = restoredPosition >= 0 ? restoredPosition : Long.MAX_VALUE;
+    this.active = openSegment(nextSegmentSequence++, false);
+
+    this.syncThread = new Thread(this::syncLoop, "wal-sync");
+    this.syncThread.setDaemon(true);
+    this.syncThread.start();
+    this.drainThread = new Thread(this::drainLoop, "wal-drainer");
+    this.drainThread.setDaemon(true);
+    this.drainThread.start();
+
+    logger.info("Write-ahead log at {} recovered {} unshipped rides", directory, recoveredRecords);
+  }
+
+  /**
+   * Append the ride to the log; the callback fires once the record is on disk
+   */
+  @Override
+  public void addLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID,
+      String seasonID, String dayID, WriteCallback callback) {
+    int season = RideItemCodec.season(seasonID);
+    int day = RideItemCodec.day(dayID);
+    if (season < 0 || day < 0 || !fitsShort(liftRide.getLiftID()) || !fitsShort(liftRide.getTime())) {
+      bypassedRecords.incrementAndGet();
+      store.addLiftRide(eventID, skierID, liftRide, resortID, seasonID, dayID, callback);
+      return;
+    }
+
+    UUID event = EventIds.parseOrNew(eventID);
+    byte[] record = encode(event, skierID, resortID, season, day, liftRide.getLiftID(), liftRide.getTime());
+    while (true) {
+      Segment segment = active;
+      int slot = segment.nextSlot.getAndIncrement();
+      if (slot < SEGMENT_RECORDS) {
+        int offset = slot * RECORD_SIZE;
+        segment.buffer.put(offset + 1, record, 1, RECORD_SIZE - 1);
+        segment.buffer.put(offset, APPENDED);
+        appendedRecords.incrementAndGet();
+        totalProcessedMessages.incrementAndGet();
+        unsynced.add(new PendingSync(segment, callback));
+        return;
+      }
+      try {
+        roll(segment);
+      } catch (IOException e) {
+        logger.error("Could not open a new log segment", e);
+        callback.onFailed(e);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Wait until every logged ride has been shipped, then flush the backing store
+   */
+  @Override
+  public void flushBatch() {
+    while (running && shippedRecords.get() < appendedRecords.get() + recoveredRecords) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+    }
+    store.flushBatch();
+  }
+
+  @Override
+  public int getSkierDaysCount(int skierID, String seasonID) {
+    return store.getSkierDaysCount(skierID, seasonID);
+  }
+
+  @Override
+  public Map<String, Integer> getSkierVerticalTotals(int skierID, String seasonID) {
+    return store.getSkierVerticalTotals(skierID, seasonID);
+  }
+
+  @Override
+  public List<Integer> getSkierLifts(int skierID, String seasonID, String dayID) {
+    return store.getSkierLifts(skierID, seasonID, dayID);
+  }
+
+  @Override
+  public int getUniqueSkiersCount(int resortID, String dayID) {
+    return store.getUniqueSkiersCount(resortID, dayID);
+  }
+
+  @Override
+  public int getTotalProcessedMessages() {
+    return totalProcessedMessages.get() + (int) bypassedRecords.get();
+  }
+
+  @Override
+  public int getUniqueSkiersCount() {
+    return store.getUniqueSkiersCount();
+  }
+
+  @Override
+  public void logStatistics(Logger logger) {
+    logger.info("Write-ahead log: appended {}, shipped {}, backlog {}, segments {}, syncs {}, bypassed {}, replayed {}",
+        appendedRecords.get(), shippedRecords.get(),
+        appendedRecords.get() + recoveredRecords - shippedRecords.get(),
+        segments.size(), syncCount.get(), bypassedRecords.get(), replayedRecords.get());
+    store.logStatistics(logger);
+  }
+
+  @Override
+  public void shutdown() {
+    flushBatch();
+    running = false;
+    syncThread.interrupt();
+    drainThread.interrupt();
+    try {
+      syncThread.join(5000);
+      drainThread.join(5000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Segment segment : segments) {
+      segment.buffer.force();
+    }
+    store.shutdown();
+  }
+
+  private synchronized void roll(Segment full) throws IOException {
+    if (active == full) {
+      active = openSegment(nextSegmentSequence++, false);
+      full.sealed = true;
+    }
+  }
+
+  /**
+   * Forces the segments behind everything appended so far, then acks it. Appends that arrive while
+   * a force is in progress are picked up together by the next one.
+   */
+  private void syncLoop() {
+    List<PendingSync> batch = new ArrayList<>();
+    Map<Segment, Boolean> touched = new IdentityHashMap<>();
+    while (running || !unsynced.isEmpty()) {
+      try {
+        PendingSync first = unsynced.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+      } catch (InterruptedException e) {
+        if (!running) {
+          batch.clear();
+          unsynced.drainTo(batch);
+        }
+      }
+      unsynced.drainTo(batch);
+      for (PendingSync pending : batch) {
+        touched.put(pending.segment, Boolean.TRUE);
+      }
+
+      Throwable failure = null;
+      try {
+        for (Segment segment : touched.keySet()) {
+          segment.buffer.force();
+        }
+        syncCount.incrementAndGet();
+      } catch (RuntimeException e) {
+        logger.error("Failed to force {} log records to disk", batch.size(), e);
+        failure = e;
+      }
+      for (PendingSync pending : batch) {
+        if (failure == null) {
+          pending.callback.onWritten();
+        } else {
+          pending.callback.onFailed(failure);
+        }
+      }
+      batch.clear();
+      touched.clear();
+    }
+  }
+
+  /**
+   * Ships records to the backing store in log order, waiting at the tail of the active segment for
+   * appends to complete
+   */
+  private void drainLoop() {
+    byte[] record = new byte[RECORD_SIZE];
+    while (running) {
+      try {
+        reshipFailed();
+
+        retireShipped();
+
+        Segment segment = undrained.peek();
+        if (segment == null) {
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+          continue;
+        }
+        if (segment.readSlot >= segment.slots) {
+          if (!segment.sealed) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            continue;
+          }
+          undrained.poll();
+          advanceDrained(position(segment.sequence + 1, 0));
+          continue;
+        }
+
+        int offset = segment.readSlot * RECORD_SIZE;
+        byte state = segment.buffer.get(offset);
+        if (state == EMPTY) {
+          if (segment.recovered) {
+            // Reserved but never written before the crash
+            segment.readSlot++;
+            segment.resolved.incrementAndGet();
+            advanceDrained(position(segment.sequence, segment.readSlot));
+          } else {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+          }
+          continue;
+        }
+        segment.buffer.get(offset, record);
+        if (state == SHIPPED) {
+          if (segment.recovered && position(segment.sequence, segment.readSlot) >= replayFrom
+              && checksumMatches(record)) {
+            replay(decode(segment, offset, record));
+          }
+          segment.readSlot++;
+          segment.resolved.incrementAndGet();
+          advanceDrained(position(segment.sequence, segment.readSlot));
+          continue;
+        }
+        if (!checksumMatches(record)) {
+          if (segment.recovered) {
+            logger.warn("Skipping torn log record at slot {} of {}", segment.readSlot, segment.path);
+            segment.readSlot++;
+            segment.resolved.incrementAndGet();
+            shippedRecords.incrementAndGet();
+            advanceDrained(position(segment.sequence, segment.readSlot));
+          } else {
+            // Appended state visible before the rest of the record; read it again
+            Thread.onSpinWait();
+          }
+          continue;
+        }
+
+        ShippedRecord shipped = decode(segment, offset, record);
+        segment.readSlot++;
+        ship(shipped);
+        advanceDrained(position(segment.sequence, segment.readSlot));
+      } catch (Exception e) {
+        if (running) {
+          logger.error("Error draining write-ahead log", e);
+        }
+      }
+    }
+  }
+
+  private void ship(ShippedRecord record) {
+    store.addLiftRide(record.eventID.toString(), record.skierID, record.liftRide, record.resortID,
+        record.seasonID, record.dayID, new WriteCallback() {
+          @Override
+          public void onWritten() {
+            record.segment.buffer.put(record.offset, SHIPPED);
+            record.segment.resolved.incrementAndGet();
+            shippedRecords.incrementAndGet();
+          }
+
+          @Override
+          public void onFailed(Throwable error) {
+            record.retryAtMillis = System.currentTimeMillis() + RESHIP_DELAY_MILLIS;
+            toReship.add(record);
+          }
+        });
+  }
+
+  private void replay(ShippedRecord record) {
+    ((ReplayableLiftRideStore) store).replayLiftRide(record.eventID.toString(), record.skierID,
+        record.liftRide, record.resortID, record.seasonID, record.dayID);
+    replayedRecords.incrementAndGet();
+  }
+
+  private void advanceDrained(long position) {
+    if (position > drainedPosition) {
+      drainedPosition = position;
+    }
+  }
+
+  private static long position(long sequence, int slot) {
+    return sequence * SEGMENT_RECORDS + slot;
+  }
+
+  private void reshipFailed() {
+    long now = System.currentTimeMillis();
+    int count = toReship.size();
+    for (int i = 0; i < count; i++) {
+      ShippedRecord record = toReship.poll();
+      if (record == null) {
+        return;
+      }
+      if (record.retryAtMillis > now) {
+        toReship.add(record);
+      } else {
+        ship(record);
+      }
+    }
+  }
+
+  /**
+   * Delete the oldest segments while they can take no more appends, every record in them has been
+   * shipped and the store's latest snapshot covers them
+   */
+  private void retireShipped() throws IOException {
+    for (Segment segment = segments.peekFirst(); segment != null; segment = segments.peekFirst()) {
+      if (!segment.sealed || segment.resolved.get() < segment.slots
+          || position(segment.sequence + 1, 0) > coveredPosition) {
+        return;
+      }
+      segments.pollFirst();
+      segment.channel.close();
+      Files.deleteIfExists(segment.path);
+      logger.debug("Deleted fully shipped log segment {}", segment.path);
+    }
+  }
+
+  private void recoverSegments() throws IOException {
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      stream.forEach(paths::add);
+    }
+    paths.sort(null);
+    for (Path path : paths) {
+      String name = path.getFileName().toString();
+      long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+      Segment segment = openSegment(sequence, true);
+      int lastWritten = -1;
+      for (int slot = 0; slot < SEGMENT_RECORDS; slot++) {
+        byte state = segment.buffer.get(slot * RECORD_SIZE);
+        if (state != EMPTY) {
+          lastWritten = slot;
+          if (state == APPENDED) {
+            recoveredRecords++;
+          }
+        }
+      }
+      segment.slots = lastWritten + 1;
+      nextSegmentSequence = Math.max(nextSegmentSequence, sequence + 1);
+    }
+  }
+
+  private Segment openSegment(long sequence, boolean recovered) throws IOException {
+    Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+        (long) SEGMENT_RECORDS * RECORD_SIZE);
+    Segment segment = new Segment(sequence, path, channel, buffer, recovered);
+    segments.addLast(segment);
+    undrained.add(segment);
+    return segment;
+  }
+
+  /**
+   * [state][pad x3][crc32 of bytes 8..39][event ID][skierID][resortID][season][day][liftID][time].
+   * The state byte is written last and the checksum tells a complete record from a torn one.
+   */
+  private static byte[] encode(UUID event, int skierID, int resortID, int season, int day,
+      int liftID, int time) {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    record.put(0, APPENDED);
+    record.position(8);
+    record.putLong(event.getMostSignificantBits());
+    record.putLong(event.getLeastSignificantBits());
+    record.putInt(skierID);
+    record.putInt(resortID);
+    record.putShort((short) season);
+    record.putShort((short) day);
+    record.putShort((short) liftID);
+    record.putShort((short) time);
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 8, RECORD_SIZE - 8);
+    record.putInt(4, (int) crc.getValue());
+    return record.array();
+  }
+
+  private static boolean checksumMatches(byte[] record) {
+    CRC32 crc = new CRC32();
+    crc.update(record, 8, RECORD_SIZE - 8);
+    return ByteBuffer.wrap(record).getInt(4) == (int) crc.getValue();
+  }
+
+  private static ShippedRecord decode(Segment segment, int offset, byte[] bytes) {
+    ByteBuffer record = ByteBuffer.wrap(bytes);
+    record.position(8);
+    UUID event = new UUID(record.getLong(), record.getLong());
+    int skierID = record.getInt();
+    int resortID = record.getInt();
+    String seasonID = String.valueOf(record.getShort());
+    String dayID = String.valueOf(record.getShort());
+    LiftRide liftRide = new LiftRide();
+    liftRide.setLiftID((int) record.getShort());
+    liftRide.setTime((int) record.getShort());
+    return new ShippedRecord(segment, offset, event, skierID, resortID, seasonID, dayID, liftRide);
+  }
+
+  private static boolean fitsShort(Integer value) {
+    return value != null && value >= 0 && value <= Short.MAX_VALUE;
+  }
+
+  private static final class Segment {
+    private final long sequence;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final boolean recovered;
+    private final AtomicInteger nextSlot = new AtomicInteger(0);
+    /** Slots shipped, already shipped before a restart, or skipped as empty or torn */
+    private final AtomicInteger resolved = new AtomicInteger(0);
+    private volatile boolean sealed;
+    /** Slots the drainer has to get through: all of them, or up to the last written before a restart */
+    private int slots = SEGMENT_RECORDS;
+    /** Drainer position; only touched by the drainer thread */
+    private int readSlot = 0;
+
+    private Segment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer,
+        boolean recovered) {
+      this.sequence = sequence;
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+      this.recovered = recovered;
+      this.sealed = recovered;
+      if (recovered) {
+        nextSlot.set(SEGMENT_RECORDS);
+      }
+    }
+  }
+
+  private static final class PendingSync {
+    private final Segment segment;
+    private final WriteCallback callback;
+
+    private PendingSync(Segment segment, WriteCallback callback) {
+      this.segment = segment;
+      this.callback = callback;
+    }
+  }
+
+  private static final class ShippedRecord {
+    private final Segment segment;
+    private final int offset;
+    private final UUID eventID;
+    private final int skierID;
+    private final int resortID;
+    private final String seasonID;
+    private final String dayID;
+    private final LiftRide liftRide;
+    private volatile long retryAtMillis;
+
+    private ShippedRecord(Segment segment, int offset, UUID eventID, int skierID, int resortID,
+        String seasonID, String dayID, LiftRide liftRide) {
+      this.segment = segment;
+      this.offset = offset;
+      this.eventID = eventID;
+      this.skierID = skierID;
+      this.resortID = resortID;
+      this.seasonID = seasonID;
+      this.dayID = dayID;
+      this.liftRide = liftRide;
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package neu.cs6650.consumer;
+
+/**
+ * Notified once a buffered lift ride has been durably written, or given up on
+ */
+public interface WriteCallback {
+
+  WriteCallback NONE = new WriteCallback() {
+    @Override
+    public void onWritten() {
+    }
+
+    @Override
+    public void onFailed(Throwable error) {
+    }
+  };
+
+  void onWritten();
+
+  void onFailed(Throwable error);
+}
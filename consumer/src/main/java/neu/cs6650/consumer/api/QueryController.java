@@ -1,6 +1,6 @@
 package neu.cs6650.consumer.api;
 
-import neu.cs6650.consumer.DynamoDBService;
+import neu.cs6650.consumer.LiftRideStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
@@ -14,10 +14,10 @@ import java.util.Map;
 public class QueryController {
   private static final Logger logger = LoggerFactory.getLogger(QueryController.class);
 
-  private final DynamoDBService dynamoDBService;
+  private final LiftRideStore liftRideStore;
 
-  public QueryController(DynamoDBService dynamoDBService) {
-    this.dynamoDBService = dynamoDBService;
+  public QueryController(LiftRideStore liftRideStore) {
+    this.liftRideStore = liftRideStore;
   }
 
   /**
@@ -28,7 +28,7 @@ public class QueryController {
       @PathVariable("skierId") int skierId,
       @PathVariable("seasonId") String seasonId) {
     logger.info("Getting days count for skier {} in season {}", skierId, seasonId);
-    int daysCount = dynamoDBService.getSkierDaysCount(skierId, seasonId);
+    int daysCount = liftRideStore.getSkierDaysCount(skierId, seasonId);
     return ResponseEntity.ok(daysCount);
   }
 
@@ -40,7 +40,7 @@ public class QueryController {
       @PathVariable("skierId") int skierId,
       @PathVariable("seasonId") String seasonId) {
     logger.info("Getting vertical totals for skier {} in season {}", skierId, seasonId);
-    Map<String, Integer> verticalTotals = dynamoDBService.getSkierVerticalTotals(skierId, seasonId);
+    Map<String, Integer> verticalTotals = liftRideStore.getSkierVerticalTotals(skierId, seasonId);
     return ResponseEntity.ok(verticalTotals);
   }
 
@@ -53,7 +53,7 @@ public class QueryController {
       @PathVariable("seasonId") String seasonId,
       @PathVariable("dayId") String dayId) {
     logger.info("Getting lifts for skier {} on day {} in season {}", skierId, dayId, seasonId);
-    List<Integer> lifts = dynamoDBService.getSkierLifts(skierId, seasonId, dayId);
+    List<Integer> lifts = liftRideStore.getSkierLifts(skierId, seasonId, dayId);
     return ResponseEntity.ok(lifts);
   }
 
@@ -65,7 +65,7 @@ public class QueryController {
       @PathVariable("resortId") int resortId,
       @PathVariable("dayId") String dayId) {
     logger.info("Getting unique skiers count for resort {} on day {}", resortId, dayId);
-    int skiersCount = dynamoDBService.getUniqueSkiersCount(resortId, dayId);
+    int skiersCount = liftRideStore.getUniqueSkiersCount(resortId, dayId);
     return ResponseEntity.ok(skiersCount);
   }
 
@@ -75,8 +75,8 @@ public class QueryController {
   @GetMapping("/stats")
   public ResponseEntity<Stats> getStats() {
     Stats stats = new Stats(
-        dynamoDBService.getTotalProcessedMessages(),
-        dynamoDBService.getUniqueSkiersCount()
+        liftRideStore.getTotalProcessedMessages(),
+        liftRideStore.getUniqueSkiersCount()
     );
     return ResponseEntity.ok(stats);
   }
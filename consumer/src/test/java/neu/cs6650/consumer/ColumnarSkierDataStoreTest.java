@@ -0,0 +1,148 @@
+package neu.cs6650.consumer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ColumnarSkierDataStoreTest {
+
+  private static final int WRITERS = 8;
+  private static final int READERS = 2;
+  private static final int RIDES_PER_SKIER = 4000;
+  /** A hot shared skier, both ends of the head array and two overflow IDs */
+  private static final int[] SKIERS = {1, 2, SkierIdBitmap.MAX_SKIER_ID, 0, SkierIdBitmap.MAX_SKIER_ID + 1};
+
+  private final ColumnarSkierDataStore store = new ColumnarSkierDataStore();
+
+  @Test
+  public void readsBackRidesOldestFirst() {
+    store.addLiftRide(7, 3, 100);
+    store.addLiftRide(8, 1, 50);
+    store.addLiftRide(7, 5, 200);
+
+    List<String> rides = new ArrayList<>();
+    store.forEachRide(7, (liftID, time) -> rides.add(liftID + "@" + time));
+
+    assertEquals(List.of("3@100", "5@200"), rides);
+    assertEquals(2, store.getUniqueSkiersCount());
+    assertEquals(3, store.getTotalProcessedMessages());
+  }
+
+  @Test
+  public void concurrentReadersSeeEveryCompletedRideExactlyOnce() throws Exception {
+    assertConcurrentAppendsAreExactlyOnce(store);
+  }
+
+  /**
+   * Writers append {@link #RIDES_PER_SKIER} rides to each skier, writer as the lift and sequence
+   * as the time, while readers walk the chains. Every walk must hold each writer's rides to a
+   * skier as an unbroken prefix, in order, at least as long as that writer had finished when the
+   * walk began; once the writers stop, every ride is there exactly once.
+   */
+  static void assertConcurrentAppendsAreExactlyOnce(SkierDataStore store) throws Exception {
+    AtomicIntegerArray completed = new AtomicIntegerArray(WRITERS);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    CyclicBarrier start = new CyclicBarrier(WRITERS + READERS);
+    CountDownLatch done = new CountDownLatch(WRITERS + READERS);
+    List<Thread> threads = new ArrayList<>();
+
+    for (int w = 0; w < WRITERS; w++) {
+      int writer = w;
+      threads.add(new Thread(() -> run(start, done, error, () -> {
+        for (int time = 0; time < RIDES_PER_SKIER; time++) {
+          for (int skierID : SKIERS) {
+            store.addLiftRide(skierID, writer, time);
+          }
+          completed.set(writer, time + 1);
+        }
+      })));
+    }
+    for (int r = 0; r < READERS; r++) {
+      threads.add(new Thread(() -> run(start, done, error, () -> {
+        while (writing.get()) {
+          for (int skierID : SKIERS) {
+            int[] atLeast = new int[WRITERS];
+            for (int w = 0; w < WRITERS; w++) {
+              atLeast[w] = completed.get(w);
+            }
+            assertChain(store, skierID, atLeast);
+          }
+        }
+      })));
+    }
+    threads.forEach(Thread::start);
+
+    for (int i = 0; i < WRITERS; i++) {
+      while (completed.get(i) < RIDES_PER_SKIER && error.get() == null) {
+        Thread.sleep(5);
+      }
+    }
+    writing.set(false);
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    assertNull(error.get());
+
+    int[] all = new int[WRITERS];
+    Arrays.fill(all, RIDES_PER_SKIER);
+    Set<Integer> skiers = new HashSet<>();
+    store.forEachSkier(skierID -> assertTrue(skiers.add(skierID)));
+    for (int skierID : SKIERS) {
+      assertEquals(WRITERS * RIDES_PER_SKIER, assertChain(store, skierID, all));
+      assertEquals(WRITERS * RIDES_PER_SKIER, store.getRideCount(skierID));
+      assertTrue(skiers.contains(skierID));
+    }
+    assertEquals(SKIERS.length, skiers.size());
+    assertEquals(SKIERS.length, store.getUniqueSkiersCount());
+    assertEquals(SKIERS.length * WRITERS * RIDES_PER_SKIER, store.getTotalProcessedMessages());
+  }
+
+  /**
+   * Walk one skier's rides, failing on any ride out of order, repeated or skipped
+   *
+   * @return the number of rides seen
+   */
+  private static int assertChain(SkierDataStore store, int skierID, int[] atLeast) {
+    int[] next = new int[WRITERS];
+    store.forEachRide(skierID, (liftID, time) -> {
+      if (liftID < 0 || liftID >= WRITERS || time != next[liftID]) {
+        fail("Skier " + skierID + " saw lift " + liftID + " at " + time + " out of order");
+      }
+      next[liftID]++;
+    });
+    int seen = 0;
+    for (int w = 0; w < WRITERS; w++) {
+      if (next[w] < atLeast[w]) {
+        fail("Skier " + skierID + " missed writer " + w + "'s rides from " + next[w]);
+      }
+      seen += next[w];
+    }
+    return seen;
+  }
+
+  private static void run(CyclicBarrier start, CountDownLatch done,
+      AtomicReference<Throwable> error, Runnable body) {
+    try {
+      start.await();
+      body.run();
+    } catch (Throwable t) {
+      error.compareAndSet(null, t);
+    } finally {
+      done.countDown();
+    }
+  }
+}
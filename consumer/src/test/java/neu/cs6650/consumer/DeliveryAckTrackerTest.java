@@ -0,0 +1,127 @@
+package neu.cs6650.consumer;
+
+import com.rabbitmq.client.Channel;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryAckTrackerTest {
+
+  private final List<String> sent = new ArrayList<>();
+  private boolean failing;
+  private final DeliveryAckTracker tracker = new DeliveryAckTracker(channel());
+
+  @Test
+  public void acksOnlyTheContiguousCompletedPrefix() {
+    track(1, 2, 3, 4);
+
+    tracker.complete(2);
+    tracker.complete(4);
+    assertTrue(sent.isEmpty());
+    tracker.complete(1);
+    assertEquals(Collections.singletonList("ack 2 multiple"), sent);
+    tracker.complete(3);
+    assertEquals(Arrays.asList("ack 2 multiple", "ack 4 multiple"), sent);
+    assertEquals(0, tracker.getOutstandingCount());
+  }
+
+  @Test
+  public void failureInTheMiddleReleasesTheRestOfThePrefix() {
+    track(1, 2, 3);
+
+    tracker.complete(1);
+    tracker.complete(3);
+    tracker.fail(2);
+
+    assertEquals(Arrays.asList("ack 1 multiple", "nack 2 requeue", "ack 3 multiple"), sent);
+    assertEquals(0, tracker.getOutstandingCount());
+  }
+
+  @Test
+  public void failureAtTheHeadLeavesLaterDeliveriesWaiting() {
+    track(1, 2, 3);
+
+    tracker.fail(1);
+    tracker.complete(3);
+
+    assertEquals(Collections.singletonList("nack 1 requeue"), sent);
+    assertEquals(2, tracker.getOutstandingCount());
+  }
+
+  @Test
+  public void completingOrFailingTwiceSendsNothingMore() {
+    track(1, 2);
+
+    tracker.complete(1);
+    tracker.complete(1);
+    tracker.fail(2);
+    tracker.fail(2);
+    tracker.complete(2);
+
+    assertEquals(Arrays.asList("ack 1 multiple", "nack 2 requeue"), sent);
+  }
+
+  @Test
+  public void channelErrorsAreLoggedAndTheTagIsStillReleased() {
+    track(1, 2);
+    failing = true;
+
+    tracker.complete(1);
+    tracker.fail(2);
+
+    assertEquals(0, tracker.getOutstandingCount());
+  }
+
+  @Test
+  public void recoveryForgetsDeliveriesTheBrokerWillRedeliver() {
+    track(1, 2, 3);
+    tracker.complete(2);
+
+    tracker.channelRecovered();
+    assertEquals(0, tracker.getOutstandingCount());
+    // the old tags' writes finishing later must not hold back or ack anything
+    tracker.complete(1);
+    tracker.complete(3);
+    track(4, 5);
+    tracker.complete(4);
+
+    assertEquals(Collections.singletonList("ack 4 multiple"), sent);
+    assertEquals(1, tracker.getOutstandingCount());
+  }
+
+  private void track(long... deliveryTags) {
+    for (long deliveryTag : deliveryTags) {
+      tracker.track(deliveryTag);
+    }
+  }
+
+  /**
+   * Records acks and nacks; every other channel method is unused by the tracker
+   */
+  private Channel channel() {
+    return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Channel.class},
+        (proxy, method, args) -> {
+          if (failing) {
+            throw new IOException("channel closed");
+          }
+          switch (method.getName()) {
+            case "basicAck":
+              sent.add("ack " + args[0] + ((Boolean) args[1] ? " multiple" : ""));
+              return null;
+            case "basicNack":
+              sent.add("nack " + args[0] + ((Boolean) args[2] ? " requeue" : ""));
+              return null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+}
@@ -0,0 +1,58 @@
+package neu.cs6650.consumer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LiftRideAggregatesTest {
+
+  private final LiftRideAggregates aggregates = new LiftRideAggregates(true);
+
+  @Test
+  public void servesRecordedRides() throws Exception {
+    aggregates.recordRide(7, 1, "2025", "1", 5, 50, () -> { });
+    aggregates.recordRide(7, 1, "2025", "1", 40, 400, () -> { });
+    aggregates.recordRide(8, 1, "2025", "1", 1, 10, () -> { });
+
+    assertEquals(1, aggregates.getDaysCount(7, "2025", sink -> { }));
+    assertEquals(Collections.singletonMap("1", 450), aggregates.getVerticalTotals(7, "2025", sink -> { }));
+    assertEquals(Arrays.asList(5, 40), aggregates.getLifts(7, "2025", "1", sink -> { }));
+    assertEquals(2, aggregates.getUniqueSkiersCount(1, "1", skiers -> { }));
+  }
+
+  @Test
+  public void daysOutsideTheApiRangeAreNotSupported() {
+    assertTrue(aggregates.supports("2025", String.valueOf(LiftRideAggregates.MAX_DAY_ID)));
+    assertFalse(aggregates.supports("2025", "0"));
+    assertFalse(aggregates.supports("2025", String.valueOf(LiftRideAggregates.MAX_DAY_ID + 1)));
+    assertFalse(aggregates.supports(null, "999999999"));
+    assertFalse(aggregates.supports("2025", "x"));
+  }
+
+  @Test
+  public void ridesOutsideTheApiRangesAreOnlyPassedThrough() throws Exception {
+    int[] applied = new int[1];
+    aggregates.recordRide(7, 1, "2025", "999999999", 5, 50, () -> applied[0]++);
+    aggregates.recordRide(7, 1, "2025", "1", 40000, 50, () -> applied[0]++);
+    aggregates.recordRide(7, 1, "2025", "1", 0, 50, () -> applied[0]++);
+
+    assertEquals(3, applied[0]);
+    assertEquals(0, aggregates.getDaysCount(7, "2025", sink -> { }));
+  }
+
+  @Test
+  public void loaderRidesOutsideTheApiRangesAreSkipped() throws Exception {
+    LiftRideAggregates loading = new LiftRideAggregates();
+
+    assertEquals(Collections.singletonList(3), loading.getLifts(7, "2025", "2", sink -> {
+      sink.ride(999999999, 3, 30);
+      sink.ride(2, 40000, 30);
+      sink.ride(2, 3, 30);
+    }));
+  }
+}
@@ -0,0 +1,104 @@
+package neu.cs6650.consumer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OffHeapSkierDataStoreTest {
+
+  /** Rides per 64-byte block after the link to the previous block */
+  private static final int ENTRIES_PER_BLOCK = 15;
+
+  private final OffHeapSkierDataStore store = new OffHeapSkierDataStore();
+
+  @Test
+  public void readsBackRidesOldestFirstAcrossBlocks() {
+    int rides = 4 * ENTRIES_PER_BLOCK + 1;
+    for (int time = 0; time < rides; time++) {
+      store.addLiftRide(7, time % 40, time);
+    }
+    store.addLiftRide(8, 1, 50);
+
+    List<Integer> times = new ArrayList<>();
+    store.forEachRide(7, (liftID, time) -> {
+      assertEquals(time % 40, liftID);
+      times.add(time);
+    });
+
+    assertEquals(rides, times.size());
+    for (int i = 0; i < rides; i++) {
+      assertEquals(i, (int) times.get(i));
+    }
+    assertEquals(2, store.getUniqueSkiersCount());
+    assertEquals(rides + 1, store.getTotalProcessedMessages());
+    assertEquals(5 + 1, store.getAllocatedBlocks());
+  }
+
+  @Test
+  public void concurrentReadersSeeEveryCompletedRideExactlyOnce() throws Exception {
+    ColumnarSkierDataStoreTest.assertConcurrentAppendsAreExactlyOnce(store);
+  }
+
+  @Test
+  public void blockThatLosesTheLinkRaceIsReusedForTheNextBlock() throws Exception {
+    // Both first appends read the empty tail and take a block, then wait for the first arena,
+    // which is allocated under the store's monitor; held here, it lines them up to race the link
+    Thread first = new Thread(() -> store.addLiftRide(7, 1, 0));
+    Thread second = new Thread(() -> store.addLiftRide(7, 2, 0));
+    synchronized (store) {
+      first.start();
+      second.start();
+      awaitBlocked(first);
+      awaitBlocked(second);
+    }
+    first.join(5000);
+    second.join(5000);
+
+    assertEquals(2, store.getAllocatedBlocks());
+    assertEquals(1, store.getFreeBlocks());
+
+    for (int time = 2; time < ENTRIES_PER_BLOCK; time++) {
+      store.addLiftRide(7, 3, time);
+    }
+    assertEquals(1, store.getFreeBlocks());
+    store.addLiftRide(7, 4, ENTRIES_PER_BLOCK);
+
+    assertEquals(2, store.getAllocatedBlocks());
+    assertEquals(0, store.getFreeBlocks());
+    List<Integer> lifts = new ArrayList<>();
+    store.forEachRide(7, (liftID, time) -> lifts.add(liftID));
+    assertEquals(ENTRIES_PER_BLOCK + 1, lifts.size());
+    assertTrue(lifts.containsAll(Arrays.asList(1, 2)));
+    assertEquals(4, (int) lifts.get(ENTRIES_PER_BLOCK));
+    assertEquals(1, store.getUniqueSkiersCount());
+    assertEquals(ENTRIES_PER_BLOCK + 1, store.getTotalProcessedMessages());
+  }
+
+  @Test
+  public void blocksThatLoseTheLinkRaceUnderLoadAreReusedNotLeaked() throws Exception {
+    // Each block that loses a link race must end up linked once by a later append or still
+    // waiting on the free list
+    ColumnarSkierDataStoreTest.assertConcurrentAppendsAreExactlyOnce(store);
+
+    int[] linked = {0};
+    store.forEachSkier(skierID -> linked[0] +=
+        (store.getRideCount(skierID) + ENTRIES_PER_BLOCK - 1) / ENTRIES_PER_BLOCK);
+    assertEquals(store.getAllocatedBlocks(), linked[0] + store.getFreeBlocks());
+  }
+
+  private static void awaitBlocked(Thread thread) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (thread.getState() != Thread.State.BLOCKED) {
+      if (System.currentTimeMillis() > deadline) {
+        fail(thread.getName() + " never reached the arena allocation");
+      }
+      Thread.sleep(1);
+    }
+  }
+}
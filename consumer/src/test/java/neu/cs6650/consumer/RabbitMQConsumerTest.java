@@ -0,0 +1,199 @@
+package neu.cs6650.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.EventIds;
+import neu.cs6650.common.LiftRideEventCodec;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Deliveries handed to the consumer's callback as the broker would, checking how they are unpacked
+ * into rides and when they are acked
+ */
+public class RabbitMQConsumerTest {
+
+  private final List<String> sent = new ArrayList<>();
+  private final HeldStore store = new HeldStore();
+  private DeliverCallback deliver;
+
+  @Before
+  public void setUp() throws Exception {
+    new RabbitMQConsumer(channel(), "rides", store).start();
+  }
+
+  @Test
+  public void unpacksEveryEventInABatchInOrder() throws Exception {
+    String[] eventIDs = {EventIds.newEventId().toString(), EventIds.newEventId().toString()};
+    byte[][] messages = {
+        LiftRideEventCodec.encode(eventIDs[0], 11, 2, "2025", "1", 5, 100),
+        LiftRideEventCodec.encode(eventIDs[1], 12, 3, "2025", "1", 6, 200)};
+
+    deliver(1, LiftRideEventCodec.BATCH_CONTENT_TYPE, LiftRideEventCodec.encodeBatch(messages, 2));
+
+    assertEquals(2, store.rides.size());
+    assertEquals(Arrays.asList(eventIDs[0], "11", "2", "2025", "1", "5", "100"), store.rides.get(0));
+    assertEquals(Arrays.asList(eventIDs[1], "12", "3", "2025", "1", "6", "200"), store.rides.get(1));
+  }
+
+  @Test
+  public void acksABatchOnlyOnceEveryRideIsWritten() throws Exception {
+    deliver(1, LiftRideEventCodec.BATCH_CONTENT_TYPE, batch(3));
+
+    store.callbacks.get(0).onWritten();
+    store.callbacks.get(2).onWritten();
+    assertTrue(sent.isEmpty());
+    store.callbacks.get(1).onWritten();
+
+    assertEquals(Collections.singletonList("ack 1"), sent);
+  }
+
+  @Test
+  public void nacksABatchOnceWhenAnyRideFails() throws Exception {
+    deliver(1, LiftRideEventCodec.BATCH_CONTENT_TYPE, batch(3));
+
+    store.callbacks.get(0).onWritten();
+    store.callbacks.get(1).onFailed(new RuntimeException("throttled"));
+    store.callbacks.get(2).onFailed(new RuntimeException("throttled"));
+    store.callbacks.get(2).onWritten();
+
+    assertEquals(Collections.singletonList("nack 1"), sent);
+  }
+
+  @Test
+  public void emptyBatchIsAckedStraightAway() throws Exception {
+    deliver(1, LiftRideEventCodec.BATCH_CONTENT_TYPE, batch(0));
+
+    assertTrue(store.rides.isEmpty());
+    assertEquals(Collections.singletonList("ack 1"), sent);
+  }
+
+  @Test
+  public void malformedBatchIsNackedWithoutStoringAnyOfIt() throws Exception {
+    byte[] body = batch(2);
+
+    deliver(1, LiftRideEventCodec.BATCH_CONTENT_TYPE, Arrays.copyOf(body, body.length - 1));
+
+    assertTrue(store.rides.isEmpty());
+    assertEquals(Collections.singletonList("nack 1"), sent);
+  }
+
+  @Test
+  public void singleBinaryAndJsonMessagesAreStillRead() throws Exception {
+    String eventID = EventIds.newEventId().toString();
+    deliver(1, LiftRideEventCodec.CONTENT_TYPE,
+        LiftRideEventCodec.encode(eventID, 7, 1, "2025", "1", 3, 30));
+    deliver(2, null, ("{\"skierID\":8,\"resortID\":1,\"seasonID\":\"2025\",\"dayID\":\"1\","
+        + "\"liftRide\":{\"liftID\":4,\"time\":40}}").getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(Arrays.asList(eventID, "7", "1", "2025", "1", "3", "30"), store.rides.get(0));
+    assertEquals(Arrays.asList(null, "8", "1", "2025", "1", "4", "40"), store.rides.get(1));
+  }
+
+  private void deliver(long deliveryTag, String contentType, byte[] body) throws Exception {
+    AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().contentType(contentType).build();
+    deliver.handle("consumer", new Delivery(new Envelope(deliveryTag, false, "", "rides"), properties, body));
+  }
+
+  private static byte[] batch(int count) {
+    byte[][] messages = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      messages[i] = LiftRideEventCodec.encode(EventIds.newEventId().toString(), i + 1, 1, "2025", "1", 1, 1);
+    }
+    return LiftRideEventCodec.encodeBatch(messages, count);
+  }
+
+  /**
+   * Accepts the consumer's setup calls, captures its deliver callback and records acks and nacks
+   */
+  private Channel channel() {
+    return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Channel.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "basicConsume":
+              deliver = (DeliverCallback) args[2];
+              return "consumer";
+            case "basicAck":
+              sent.add("ack " + args[0]);
+              return null;
+            case "basicNack":
+              sent.add("nack " + args[0]);
+              return null;
+            case "queueDeclare":
+            case "basicQos":
+              return null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /**
+   * Records each ride and holds its callback for the test to complete
+   */
+  private static final class HeldStore implements LiftRideStore {
+    private final List<List<String>> rides = new ArrayList<>();
+    private final List<WriteCallback> callbacks = new ArrayList<>();
+
+    @Override
+    public void addLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID,
+        String seasonID, String dayID, WriteCallback callback) {
+      rides.add(Arrays.asList(eventID, String.valueOf(skierID), String.valueOf(resortID), seasonID,
+          dayID, String.valueOf(liftRide.getLiftID()), String.valueOf(liftRide.getTime())));
+      callbacks.add(callback);
+    }
+
+    @Override
+    public void flushBatch() {
+    }
+
+    @Override
+    public int getSkierDaysCount(int skierID, String seasonID) {
+      return 0;
+    }
+
+    @Override
+    public Map<String, Integer> getSkierVerticalTotals(int skierID, String seasonID) {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public List<Integer> getSkierLifts(int skierID, String seasonID, String dayID) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public int getUniqueSkiersCount(int resortID, String dayID) {
+      return 0;
+    }
+
+    @Override
+    public int getTotalProcessedMessages() {
+      return rides.size();
+    }
+
+    @Override
+    public int getUniqueSkiersCount() {
+      return 0;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+  }
+}
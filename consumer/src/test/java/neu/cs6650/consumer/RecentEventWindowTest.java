@@ -0,0 +1,115 @@
+package neu.cs6650.consumer;
+
+import neu.cs6650.common.EventIds;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RecentEventWindowTest {
+
+  @Test
+  public void tracksEachEventThroughItsWrite() {
+    RecentEventWindow window = new RecentEventWindow(10);
+    UUID event = EventIds.newEventId();
+
+    assertNull(window.begin(event));
+    assertEquals(RecentEventWindow.State.PENDING, window.begin(event));
+    window.written(event);
+    assertEquals(RecentEventWindow.State.WRITTEN, window.begin(event));
+    assertEquals(1, window.size());
+  }
+
+  @Test
+  public void failedEventIsWrittenAgainOnRedelivery() {
+    RecentEventWindow window = new RecentEventWindow(10);
+    UUID event = EventIds.newEventId();
+
+    window.begin(event);
+    window.failed(event);
+    assertEquals(RecentEventWindow.State.FAILED, window.begin(event));
+    // the redelivery took the event back to pending
+    assertEquals(RecentEventWindow.State.PENDING, window.begin(event));
+  }
+
+  @Test
+  public void forgetsOldestEventsBeyondCapacity() {
+    RecentEventWindow window = new RecentEventWindow(2);
+    UUID oldest = EventIds.newEventId();
+    UUID middle = EventIds.newEventId();
+    UUID newest = EventIds.newEventId();
+
+    window.begin(oldest);
+    window.begin(middle);
+    window.begin(newest);
+
+    assertEquals(2, window.size());
+    assertEquals(RecentEventWindow.State.PENDING, window.begin(newest));
+    assertEquals(RecentEventWindow.State.PENDING, window.begin(middle));
+    assertNull(window.begin(oldest));
+  }
+
+  @Test
+  public void restoresSavedStatesWithPendingWritesAsFailed() {
+    RecentEventWindow saved = new RecentEventWindow(10);
+    UUID written = EventIds.newEventId();
+    UUID pending = EventIds.newEventId();
+    UUID failed = EventIds.newEventId();
+    saved.begin(written);
+    saved.written(written);
+    saved.begin(pending);
+    saved.begin(failed);
+    saved.failed(failed);
+
+    RecentEventWindow restored = new RecentEventWindow(10);
+    restored.restore(saved.toBytes());
+
+    assertEquals(3, restored.size());
+    assertEquals(RecentEventWindow.State.WRITTEN, restored.begin(written));
+    assertEquals(RecentEventWindow.State.FAILED, restored.begin(pending));
+    assertEquals(RecentEventWindow.State.FAILED, restored.begin(failed));
+  }
+
+  @Test
+  public void restoreKeepsArrivalOrderForEviction() {
+    RecentEventWindow saved = new RecentEventWindow(10);
+    UUID first = EventIds.newEventId();
+    UUID second = EventIds.newEventId();
+    saved.begin(first);
+    saved.begin(second);
+
+    RecentEventWindow restored = new RecentEventWindow(2);
+    restored.restore(saved.toBytes());
+    restored.begin(EventIds.newEventId());
+
+    assertNull(restored.begin(first));
+  }
+
+  @Test
+  public void restoreIntoSmallerWindowKeepsTheNewest() {
+    RecentEventWindow saved = new RecentEventWindow(10);
+    UUID[] events = new UUID[5];
+    for (int i = 0; i < events.length; i++) {
+      events[i] = EventIds.newEventId();
+      saved.begin(events[i]);
+      saved.written(events[i]);
+    }
+
+    RecentEventWindow restored = new RecentEventWindow(3);
+    restored.restore(saved.toBytes());
+
+    assertEquals(3, restored.size());
+    assertEquals(RecentEventWindow.State.WRITTEN, restored.begin(events[4]));
+    assertEquals(RecentEventWindow.State.WRITTEN, restored.begin(events[2]));
+  }
+
+  @Test
+  public void restoresEmptyWindow() {
+    RecentEventWindow restored = new RecentEventWindow(10);
+    restored.restore(new RecentEventWindow(10).toBytes());
+
+    assertEquals(0, restored.size());
+  }
+}
@@ -0,0 +1,113 @@
+package neu.cs6650.consumer;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RideItemCodecTest {
+
+  @Test
+  public void compactItemRoundTrips() {
+    Map<String, AttributeValue> item = RideItemCodec.encode(4567, 3, "2025", "1", 33, 217, 0xABCDEL);
+
+    assertEquals("4567", item.get(RideItemCodec.SKIER).n());
+    assertEquals(String.valueOf(RideItemCodec.resortDay(3, 1)), item.get(RideItemCodec.RESORT_DAY).n());
+    RideItemCodec.Ride ride = RideItemCodec.decode(item);
+    assertEquals("2025", ride.getSeasonID());
+    assertEquals("1", ride.getDayID());
+    assertEquals(Integer.valueOf(33), ride.getLiftID());
+    assertEquals(Integer.valueOf(330), ride.getVertical());
+    assertEquals(item.get(RideItemCodec.RIDE), ride.getKey());
+  }
+
+  @Test
+  public void rideKeyPacksFieldsFromVersionDown() {
+    long rideKey = rideKey(RideItemCodec.encode(1, 1, "2025", "7", 33, 217, 0xABCDEL));
+
+    assertEquals(RideItemCodec.VERSION, rideKey >>> 60);
+    assertEquals(2025, (rideKey >>> 46) & 0x3FFF);
+    assertEquals(7, (rideKey >>> 37) & 0x1FF);
+    assertEquals(217, (rideKey >>> 28) & 0x1FF);
+    assertEquals(33, (rideKey >>> 20) & 0xFF);
+    assertEquals(0xABCDE, rideKey & RideItemCodec.DISCRIMINATOR_MASK);
+  }
+
+  @Test
+  public void discriminatorIsMaskedToItsBits() {
+    long rideKey = rideKey(RideItemCodec.encode(1, 1, "2025", "1", 1, 1, -1L));
+
+    assertEquals(RideItemCodec.DISCRIMINATOR_MASK, rideKey & RideItemCodec.DISCRIMINATOR_MASK);
+    assertEquals(1, (rideKey >>> 20) & 0xFF);
+  }
+
+  @Test
+  public void ridesSortWithinTheirSeasonAndDayRanges() {
+    int season = RideItemCodec.season("2025");
+    int day = RideItemCodec.day("2");
+    long first = rideKey(RideItemCodec.encode(1, 1, "2025", "2", 0, 0, 0));
+    long last = rideKey(RideItemCodec.encode(1, 1, "2025", "2", 255, 511, RideItemCodec.DISCRIMINATOR_MASK));
+
+    assertEquals(RideItemCodec.dayStart(season, day), first);
+    assertEquals(RideItemCodec.dayEnd(season, day), last);
+    assertEquals(last, RideItemCodec.dayEnd(first));
+    assertTrue(RideItemCodec.firstKey() <= first && last <= RideItemCodec.lastKey());
+    assertTrue(RideItemCodec.seasonStart(season) <= first && last <= RideItemCodec.seasonEnd(season));
+    assertTrue(RideItemCodec.dayEnd(season, day) < RideItemCodec.dayStart(season, day + 1));
+    assertTrue(RideItemCodec.seasonEnd(season) < RideItemCodec.seasonStart(season + 1));
+  }
+
+  @Test
+  public void identicalRidesWithDifferentEventsGetDifferentKeys() {
+    assertNotEquals(rideKey(RideItemCodec.encode(1, 1, "2025", "1", 5, 50, 1)),
+        rideKey(RideItemCodec.encode(1, 1, "2025", "1", 5, 50, 2)));
+  }
+
+  @Test
+  public void refusesFieldsThatDoNotFit() {
+    assertNull(RideItemCodec.encode(1, 1, "16384", "1", 1, 1, 0));
+    assertNull(RideItemCodec.encode(1, 1, "2025", "512", 1, 1, 0));
+    assertNull(RideItemCodec.encode(1, 1, "02025", "1", 1, 1, 0));
+    assertNull(RideItemCodec.encode(1, 1, "2025", "x", 1, 1, 0));
+    assertNull(RideItemCodec.encode(1, 1, "2025", "1", 256, 1, 0));
+    assertNull(RideItemCodec.encode(1, 1, "2025", "1", 1, 512, 0));
+    assertNull(RideItemCodec.encode(1, 1, "2025", "1", -1, 1, 0));
+    assertNull(RideItemCodec.encode(1, -1, "2025", "1", 1, 1, 0));
+  }
+
+  @Test
+  public void decodesOriginalItems() {
+    Map<String, AttributeValue> item = new HashMap<>();
+    item.put("timestamp_liftID", AttributeValue.builder().s("2025-01-01T10:00#12#id").build());
+    item.put("seasonID", AttributeValue.builder().s("2025").build());
+    item.put("dayID", AttributeValue.builder().s("1").build());
+    item.put("liftID", AttributeValue.builder().n("12").build());
+
+    RideItemCodec.Ride ride = RideItemCodec.decode(item);
+
+    assertEquals("2025", ride.getSeasonID());
+    assertEquals("1", ride.getDayID());
+    assertEquals(Integer.valueOf(12), ride.getLiftID());
+    assertEquals(Integer.valueOf(120), ride.getVertical());
+  }
+
+  @Test
+  public void skipsItemsItCannotRead() {
+    assertNull(RideItemCodec.decode(new HashMap<>()));
+
+    Map<String, AttributeValue> newer = new HashMap<>();
+    long futureKey = (long) (RideItemCodec.VERSION + 1) << 60;
+    newer.put(RideItemCodec.RIDE, AttributeValue.builder().n(String.valueOf(futureKey)).build());
+    assertNull(RideItemCodec.decode(newer));
+  }
+
+  private static long rideKey(Map<String, AttributeValue> item) {
+    return Long.parseLong(item.get(RideItemCodec.RIDE).n());
+  }
+}
@@ -0,0 +1,118 @@
+package neu.cs6650.consumer;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class SkierSeasonSummaryWriterTest {
+
+  @Test
+  public void coalescesRidesAndAcknowledgesOnceApplied() {
+    FakeClient client = new FakeClient(0);
+    SkierSeasonSummaryWriter writer = new SkierSeasonSummaryWriter(client, "summary", 60_000, 4);
+    CountingCallback callback = new CountingCallback();
+
+    writer.record(7, "2025", "1", 50, callback);
+    writer.record(7, "2025", "1", 30, callback);
+    assertEquals(0, callback.written.get());
+    writer.flush();
+
+    assertEquals(1, client.requests.size());
+    Update update = client.requests.get(0).transactItems().get(0).update();
+    assertEquals("7#2025", update.key().get(SkierSeasonSummaryWriter.PARTITION_KEY).s());
+    assertEquals("80", update.expressionAttributeValues().get(":v").n());
+    assertEquals("2", update.expressionAttributeValues().get(":r").n());
+    assertEquals(2, callback.written.get());
+    writer.shutdown();
+  }
+
+  @Test
+  public void failedUpdateIsRetriedUnchangedWithTheSameToken() {
+    FakeClient client = new FakeClient(1);
+    SkierSeasonSummaryWriter writer = new SkierSeasonSummaryWriter(client, "summary", 60_000, 4);
+    CountingCallback callback = new CountingCallback();
+
+    writer.record(7, "2025", "1", 50, callback);
+    writer.flush();
+    assertEquals(0, callback.written.get());
+    // a ride arriving before the retry goes in an update of its own
+    writer.record(7, "2025", "1", 30, callback);
+    writer.flush();
+
+    assertEquals(3, client.requests.size());
+    TransactWriteItemsRequest first = client.requests.get(0);
+    TransactWriteItemsRequest retry = client.requests.get(1);
+    assertEquals(first.clientRequestToken(), retry.clientRequestToken());
+    assertEquals(first.transactItems(), retry.transactItems());
+    assertEquals(2, callback.written.get());
+    writer.shutdown();
+  }
+
+  @Test
+  public void updatesStillFailingAtShutdownFailTheirRides() {
+    FakeClient client = new FakeClient(Integer.MAX_VALUE);
+    SkierSeasonSummaryWriter writer = new SkierSeasonSummaryWriter(client, "summary", 60_000, 4);
+    CountingCallback callback = new CountingCallback();
+
+    writer.record(7, "2025", "1", 50, callback);
+    writer.record(8, "2025", "1", 50, callback);
+    writer.shutdown();
+
+    assertEquals(0, callback.written.get());
+    assertEquals(2, callback.failed.get());
+  }
+
+  private static final class FakeClient implements DynamoDbAsyncClient {
+    private final List<TransactWriteItemsRequest> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failuresLeft;
+
+    private FakeClient(int failures) {
+      this.failuresLeft = new AtomicInteger(failures);
+    }
+
+    @Override
+    public CompletableFuture<TransactWriteItemsResponse> transactWriteItems(TransactWriteItemsRequest request) {
+      requests.add(request);
+      CompletableFuture<TransactWriteItemsResponse> response = new CompletableFuture<>();
+      if (failuresLeft.getAndDecrement() > 0) {
+        response.completeExceptionally(new RuntimeException("timed out"));
+      } else {
+        response.complete(TransactWriteItemsResponse.builder().build());
+      }
+      return response;
+    }
+
+    @Override
+    public String serviceName() {
+      return "dynamodb";
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static final class CountingCallback implements WriteCallback {
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    @Override
+    public void onWritten() {
+      written.incrementAndGet();
+    }
+
+    @Override
+    public void onFailed(Throwable error) {
+      failed.incrementAndGet();
+    }
+  }
+}
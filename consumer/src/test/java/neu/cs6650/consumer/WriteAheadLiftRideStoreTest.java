@@ -0,0 +1,404 @@
+package neu.cs6650.consumer;
+
+import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.EventIds;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Recovery of segments left behind by a crash. Segments are written here in the on-disk record
+ * layout, with the damage a crash can leave, and a store opened over them must ship exactly the
+ * rides that were logged but never confirmed.
+ */
+public class WriteAheadLiftRideStoreTest {
+
+  private static final int RECORD_SIZE = 40;
+  private static final int SEGMENT_RECORDS = 1 << 20;
+  private static final byte APPENDED = 1;
+  private static final byte SHIPPED = 2;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private RecordingStore backing;
+  private WriteAheadLiftRideStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = folder.getRoot().toPath();
+    backing = new RecordingStore();
+  }
+
+  @After
+  public void tearDown() {
+    if (store != null) {
+      store.shutdown();
+    }
+  }
+
+  @Test
+  public void shipsAppendedRecordsInLogOrder() throws Exception {
+    UUID first = EventIds.newEventId();
+    UUID second = EventIds.newEventId();
+    writeSegment(0, record(APPENDED, first, 7, 3, 12, 250), record(APPENDED, second, 8, 3, 5, 10));
+
+    reopen();
+
+    assertEquals(2, backing.shipped.size());
+    assertShipped(backing.shipped.get(0), first, 7, 3, 12, 250);
+    assertShipped(backing.shipped.get(1), second, 8, 3, 5, 10);
+  }
+
+  @Test
+  public void doesNotShipRecordsAlreadyShipped() throws Exception {
+    UUID shipped = EventIds.newEventId();
+    UUID unshipped = EventIds.newEventId();
+    writeSegment(0, record(SHIPPED, shipped, 1, 1, 1, 1), record(APPENDED, unshipped, 2, 1, 2, 2));
+
+    reopen();
+
+    assertEquals(1, backing.shipped.size());
+    assertShipped(backing.shipped.get(0), unshipped, 2, 1, 2, 2);
+  }
+
+  @Test
+  public void skipsTornRecord() throws Exception {
+    UUID before = EventIds.newEventId();
+    UUID after = EventIds.newEventId();
+    byte[] torn = record(APPENDED, EventIds.newEventId(), 5, 1, 9, 90);
+    torn[RECORD_SIZE - 1] ^= 0x7F;
+    writeSegment(0, record(APPENDED, before, 4, 1, 8, 80), torn, record(APPENDED, after, 6, 1, 10, 100));
+
+    reopen();
+
+    assertEquals(2, backing.shipped.size());
+    assertShipped(backing.shipped.get(0), before, 4, 1, 8, 80);
+    assertShipped(backing.shipped.get(1), after, 6, 1, 10, 100);
+  }
+
+  @Test
+  public void skipsEmptySlotInRecoveredSegment() throws Exception {
+    UUID before = EventIds.newEventId();
+    UUID after = EventIds.newEventId();
+    writeSegment(0, record(APPENDED, before, 4, 1, 8, 80), new byte[RECORD_SIZE],
+        record(APPENDED, after, 6, 1, 10, 100));
+
+    reopen();
+
+    assertEquals(2, backing.shipped.size());
+    assertShipped(backing.shipped.get(0), before, 4, 1, 8, 80);
+    assertShipped(backing.shipped.get(1), after, 6, 1, 10, 100);
+  }
+
+  @Test
+  public void retiresRecoveredSegmentsOnceShipped() throws Exception {
+    Path older = writeSegment(3, record(APPENDED, EventIds.newEventId(), 1, 1, 1, 1));
+    Path newer = writeSegment(4, record(SHIPPED, EventIds.newEventId(), 2, 1, 2, 2),
+        record(APPENDED, EventIds.newEventId(), 3, 1, 3, 3));
+
+    reopen();
+
+    assertEquals(2, backing.shipped.size());
+    assertTrue(awaitDeleted(older));
+    assertTrue(awaitDeleted(newer));
+    assertTrue(Files.exists(segmentPath(5)));
+  }
+
+  @Test
+  public void reshipsRidesLoggedButNeverConfirmedByTheBackingStore() throws Exception {
+    // The first run logs and acks the rides, but the backing store never confirms them; it is
+    // left as a crash would leave it, without a shutdown
+    WriteAheadLiftRideStore crashed = new WriteAheadLiftRideStore(new RecordingStore(false), directory);
+    List<String> eventIDs = new ArrayList<>();
+    CountDownLatch synced = new CountDownLatch(3);
+    for (int i = 1; i <= 3; i++) {
+      String eventID = EventIds.newEventId().toString();
+      eventIDs.add(eventID);
+      crashed.addLiftRide(eventID, 100 + i, liftRide(i, i * 10), 2, "2025", "1", new WriteCallback() {
+        @Override
+        public void onWritten() {
+          synced.countDown();
+        }
+
+        @Override
+        public void onFailed(Throwable error) {
+        }
+      });
+    }
+    assertTrue(synced.await(10, TimeUnit.SECONDS));
+
+    reopen();
+
+    assertEquals(3, backing.shipped.size());
+    for (int i = 0; i < 3; i++) {
+      Shipped ride = backing.shipped.get(i);
+      assertEquals(eventIDs.get(i), ride.eventID);
+      assertEquals(101 + i, ride.skierID);
+      assertEquals(i + 1, ride.liftID);
+    }
+    assertTrue(awaitDeleted(segmentPath(0)));
+  }
+
+  @Test
+  public void doesNotShipAgainAfterACleanShutdown() throws Exception {
+    reopen();
+    store.addLiftRide(EventIds.newEventId().toString(), 42, liftRide(3, 30), 1, "2025", "1",
+        WriteCallback.NONE);
+    store.flushBatch();
+    store.shutdown();
+    assertEquals(1, backing.shipped.size());
+
+    backing = new RecordingStore();
+    reopen();
+
+    assertTrue(backing.shipped.isEmpty());
+  }
+
+  @Test
+  public void replaysShippedRecordsFromTheSnapshotPosition() throws Exception {
+    UUID covered = EventIds.newEventId();
+    UUID uncovered = EventIds.newEventId();
+    UUID unshipped = EventIds.newEventId();
+    writeSegment(0, record(SHIPPED, covered, 1, 1, 1, 1), record(SHIPPED, uncovered, 2, 1, 2, 2),
+        record(APPENDED, unshipped, 3, 1, 3, 3));
+    backing.restoredPosition = 1;
+
+    reopen();
+
+    assertTrue(awaitPosition(SEGMENT_RECORDS));
+    assertEquals(1, backing.replayed.size());
+    assertShipped(backing.replayed.get(0), uncovered, 2, 1, 2, 2);
+    assertEquals(1, backing.shipped.size());
+    assertShipped(backing.shipped.get(0), unshipped, 3, 1, 3, 3);
+  }
+
+  @Test
+  public void keepsShippedSegmentsUntilASnapshotCoversThem() throws Exception {
+    Path segment = writeSegment(0, record(APPENDED, EventIds.newEventId(), 1, 1, 1, 1));
+    backing.restoredPosition = 0;
+
+    reopen();
+
+    assertTrue(awaitPosition(SEGMENT_RECORDS));
+    Thread.sleep(50);
+    assertTrue(Files.exists(segment));
+    backing.covered.accept(backing.position.getAsLong());
+    assertTrue(awaitDeleted(segment));
+  }
+
+  @Test
+  public void newSegmentsStartPastASnapshotNewerThanTheLog() throws Exception {
+    backing.restoredPosition = 3L * SEGMENT_RECORDS + 5;
+
+    reopen();
+
+    assertTrue(Files.exists(segmentPath(4)));
+    assertEquals(backing.restoredPosition, backing.position.getAsLong());
+  }
+
+  private void reopen() throws IOException {
+    store = new WriteAheadLiftRideStore(backing, directory);
+    store.flushBatch();
+  }
+
+  private Path segmentPath(long sequence) {
+    return directory.resolve(String.format("rides-%016d.wal", sequence));
+  }
+
+  private Path writeSegment(long sequence, byte[]... records) throws IOException {
+    Path path = segmentPath(sequence);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      for (byte[] record : records) {
+        channel.write(ByteBuffer.wrap(record));
+      }
+    }
+    return path;
+  }
+
+  /**
+   * A record in the log layout: state, padding, CRC32 of bytes 8..39, then the ride
+   */
+  private static byte[] record(byte state, UUID event, int skierID, int resortID, int liftID, int time) {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    record.put(0, state);
+    record.position(8);
+    record.putLong(event.getMostSignificantBits());
+    record.putLong(event.getLeastSignificantBits());
+    record.putInt(skierID);
+    record.putInt(resortID);
+    record.putShort((short) 2025);
+    record.putShort((short) 1);
+    record.putShort((short) liftID);
+    record.putShort((short) time);
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 8, RECORD_SIZE - 8);
+    record.putInt(4, (int) crc.getValue());
+    return record.array();
+  }
+
+  private static LiftRide liftRide(int liftID, int time) {
+    LiftRide liftRide = new LiftRide();
+    liftRide.setLiftID(liftID);
+    liftRide.setTime(time);
+    return liftRide;
+  }
+
+  private static void assertShipped(Shipped ride, UUID event, int skierID, int resortID, int liftID,
+      int time) {
+    assertEquals(event.toString(), ride.eventID);
+    assertEquals(skierID, ride.skierID);
+    assertEquals(resortID, ride.resortID);
+    assertEquals("2025", ride.seasonID);
+    assertEquals("1", ride.dayID);
+    assertEquals(liftID, ride.liftID);
+    assertEquals(time, ride.time);
+  }
+
+  private boolean awaitPosition(long position) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (backing.position.getAsLong() < position) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  private static boolean awaitDeleted(Path path) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (Files.exists(path)) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  private static final class Shipped {
+    private final String eventID;
+    private final int skierID;
+    private final int resortID;
+    private final String seasonID;
+    private final String dayID;
+    private final int liftID;
+    private final int time;
+
+    private Shipped(String eventID, int skierID, int resortID, String seasonID, String dayID,
+        LiftRide liftRide) {
+      this.eventID = eventID;
+      this.skierID = skierID;
+      this.resortID = resortID;
+      this.seasonID = seasonID;
+      this.dayID = dayID;
+      this.liftID = liftRide.getLiftID();
+      this.time = liftRide.getTime();
+    }
+  }
+
+  /**
+   * Backing store that records what it is sent and, unless told not to, confirms it at once. It
+   * takes snapshots only when given a restored position.
+   */
+  private static final class RecordingStore implements ReplayableLiftRideStore {
+    private final List<Shipped> shipped = Collections.synchronizedList(new ArrayList<>());
+    private final List<Shipped> replayed = Collections.synchronizedList(new ArrayList<>());
+    private final boolean confirm;
+    private long restoredPosition = -1;
+    private volatile LongSupplier position;
+    private volatile LongConsumer covered;
+
+    private RecordingStore() {
+      this(true);
+    }
+
+    private RecordingStore(boolean confirm) {
+      this.confirm = confirm;
+    }
+
+    @Override
+    public void addLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID,
+        String seasonID, String dayID, WriteCallback callback) {
+      shipped.add(new Shipped(eventID, skierID, resortID, seasonID, dayID, liftRide));
+      if (confirm) {
+        callback.onWritten();
+      }
+    }
+
+    @Override
+    public long attachLog(LongSupplier position, LongConsumer covered) {
+      this.position = position;
+      this.covered = covered;
+      return restoredPosition;
+    }
+
+    @Override
+    public void replayLiftRide(String eventID, int skierID, LiftRide liftRide, int resortID,
+        String seasonID, String dayID) {
+      replayed.add(new Shipped(eventID, skierID, resortID, seasonID, dayID, liftRide));
+    }
+
+    @Override
+    public void flushBatch() {
+    }
+
+    @Override
+    public int getSkierDaysCount(int skierID, String seasonID) {
+      return 0;
+    }
+
+    @Override
+    public Map<String, Integer> getSkierVerticalTotals(int skierID, String seasonID) {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public List<Integer> getSkierLifts(int skierID, String seasonID, String dayID) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public int getUniqueSkiersCount(int resortID, String dayID) {
+      return 0;
+    }
+
+    @Override
+    public int getTotalProcessedMessages() {
+      return shipped.size();
+    }
+
+    @Override
+    public int getUniqueSkiersCount() {
+      return 0;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package neu.cs6650.serverreactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class ServerReactiveApplication {
+
+	public static void main(String[] args) {
+		SpringApplication.run(ServerReactiveApplication.class, args);
+	}
+
+}
@@ -0,0 +1,69 @@
+package neu.cs6650.serverreactive.controller;
+
+import io.swagger.client.model.LiftRide;
+import io.swagger.client.model.ResponseMsg;
+import neu.cs6650.common.LiftRideBodies;
+import neu.cs6650.common.SkierPath;
+import neu.cs6650.serverreactive.service.PublishRejectedException;
+import neu.cs6650.serverreactive.service.ReactiveMessageProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+@RestController
+@RequestMapping("/skiers")
+public class SkierController {
+
+  private static final Logger logger = LoggerFactory.getLogger(SkierController.class);
+
+  @Autowired
+  private ReactiveMessageProducer messageProducer;
+
+  /**
+   * Answers 201 once the broker confirms the ride, or 503 if the publisher is too far behind to
+   * take it. Nothing here blocks the event loop.
+   */
+  @PostMapping("/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}")
+  public Mono<ResponseEntity<ResponseMsg>> writeNewLiftRide(
+      @PathVariable int resortID,
+      @PathVariable String seasonID,
+      @PathVariable String dayID,
+      @PathVariable int skierID,
+      @RequestBody(required = false) Mono<byte[]> body) {
+
+    if (!SkierPath.isValid(resortID, seasonID, dayID, skierID)) {
+      logger.warn("Invalid URL parameters: resortID={}, seasonID={}, dayID={}, skierID={}",
+          resortID, seasonID, dayID, skierID);
+      return Mono.just(response(HttpStatus.BAD_REQUEST, "Invalid URL path"));
+    }
+
+    return body
+        .flatMap(bytes -> {
+          LiftRide liftRide = LiftRideBodies.decode(bytes);
+          if (!LiftRideBodies.isValid(liftRide)) {
+            logger.warn("Invalid lift ride: {}", liftRide);
+            return Mono.just(response(HttpStatus.BAD_REQUEST, "Invalid request body"));
+          }
+          return messageProducer
+              .sendLiftRide(skierID, resortID, seasonID, dayID, liftRide.getLiftID(), liftRide.getTime())
+              .then(Mono.fromSupplier(() -> response(HttpStatus.CREATED, "Write successful")));
+        })
+        .switchIfEmpty(Mono.fromSupplier(() -> response(HttpStatus.BAD_REQUEST, "Invalid request body")))
+        .onErrorResume(PublishRejectedException.class,
+            e -> Mono.just(response(HttpStatus.SERVICE_UNAVAILABLE, "Server busy, retry later")))
+        .onErrorResume(e -> {
+          logger.error("Failed to process lift ride", e);
+          return Mono.just(response(HttpStatus.INTERNAL_SERVER_ERROR, "Server error"));
+        });
+  }
+
+  private static ResponseEntity<ResponseMsg> response(HttpStatus status, String message) {
+    ResponseMsg response = new ResponseMsg();
+    response.setMessage(message);
+    return ResponseEntity.status(status).body(response);
+  }
+}
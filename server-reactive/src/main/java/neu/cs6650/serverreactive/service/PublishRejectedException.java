@@ -0,0 +1,16 @@
+package neu.cs6650.serverreactive.service;
+
+/**
+ * A ride was refused because the publisher already has as many batches waiting as it will hold,
+ * or is not running
+ */
+public class PublishRejectedException extends RuntimeException {
+
+  public PublishRejectedException() {
+    super("Too many lift ride batches waiting for RabbitMQ");
+  }
+
+  public PublishRejectedException(String message) {
+    super(message);
+  }
+}
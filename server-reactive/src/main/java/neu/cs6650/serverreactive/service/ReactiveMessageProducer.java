@@ -0,0 +1,219 @@
+package neu.cs6650.serverreactive.service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ConnectionFactory;
+import neu.cs6650.common.EventIds;
+import neu.cs6650.common.LiftRideEventCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.rabbitmq.CorrelableOutboundMessage;
+import reactor.rabbitmq.ExceptionHandlers;
+import reactor.rabbitmq.OutboundMessage;
+import reactor.rabbitmq.OutboundMessageResult;
+import reactor.rabbitmq.QueueSpecification;
+import reactor.rabbitmq.RabbitFlux;
+import reactor.rabbitmq.SendOptions;
+import reactor.rabbitmq.Sender;
+import reactor.rabbitmq.SenderOptions;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Publishes lift rides through a reactor-rabbitmq Sender in confirm mode, without blocking the
+ * calling event-loop thread. Rides are coalesced into binary batches of up to maxEvents or
+ * lingerMillis; the sender keeps at most maxInFlight batches unconfirmed and pulls the next only
+ * as confirms come back. Batches that find maxPendingBatches already waiting for it are refused,
+ * failing their rides with {@link PublishRejectedException} so the caller can shed load.
+ *
+ * <p>If publishing fails the pipeline is resubscribed with backoff. Until it is back, rides are
+ * refused straight away rather than left to time out.
+ */
+@Service
+public class ReactiveMessageProducer {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReactiveMessageProducer.class);
+
+  @Value("${rabbitmq.host}")
+  private String host;
+
+  @Value("${rabbitmq.port:5672}")
+  private int port;
+
+  @Value("${rabbitmq.username:guest}")
+  private String username;
+
+  @Value("${rabbitmq.password:guest}")
+  private String password;
+
+  @Value("${rabbitmq.queue.ski-rides}")
+  private String queueName;
+
+  @Value("${rabbitmq.batch.max-events:100}")
+  private int batchEvents;
+
+  @Value("${rabbitmq.batch.linger-ms:2}")
+  private long lingerMillis;
+
+  @Value("${rabbitmq.max-pending-batches:200}")
+  private int maxPendingBatches;
+
+  @Value("${rabbitmq.max-in-flight:256}")
+  private int maxInFlight;
+
+  @Value("${rabbitmq.confirm-timeout-ms:30000}")
+  private long confirmTimeoutMillis;
+
+  private static final AMQP.BasicProperties BINARY_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .contentType(LiftRideEventCodec.CONTENT_TYPE).build();
+  private static final AMQP.BasicProperties BATCH_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .contentType(LiftRideEventCodec.BATCH_CONTENT_TYPE).build();
+
+  private Sender sender;
+  private volatile FluxSink<PendingRide> rides;
+  private Disposable publishing;
+
+  @PostConstruct
+  public void init() {
+    logger.info("Initializing reactive RabbitMQ sender to {}:{}", host, port);
+
+    ConnectionFactory factory = new ConnectionFactory();
+    factory.setHost(host);
+    factory.setPort(port);
+    factory.setUsername(username);
+    factory.setPassword(password);
+    factory.useNio();
+
+    this.sender = RabbitFlux.createSender(new SenderOptions()
+        .connectionFactory(factory)
+        .resourceManagementScheduler(Schedulers.boundedElastic()));
+    sender.declareQueue(QueueSpecification.queue(queueName).durable(true)).block(Duration.ofSeconds(30));
+
+    Flux<OutboundMessage> batches = Flux.<PendingRide>create(this::open)
+        .bufferTimeout(batchEvents, Duration.ofMillis(lingerMillis))
+        .onBackpressureBuffer(maxPendingBatches, this::reject, BufferOverflowStrategy.DROP_LATEST)
+        .map(this::toMessage);
+
+    SendOptions options = new SendOptions()
+        .maxInFlight(maxInFlight)
+        .exceptionHandler(new ExceptionHandlers.RetrySendingExceptionHandler(
+            Duration.ofSeconds(10), Duration.ofMillis(200),
+            ExceptionHandlers.CONNECTION_RECOVERY_PREDICATE));
+
+    this.publishing = sender.sendWithPublishConfirms(batches, options)
+        .doOnError(error -> logger.error("RabbitMQ publishing failed, resubscribing", error))
+        .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(200)).maxBackoff(Duration.ofSeconds(10)))
+        .subscribe(this::settle, error -> logger.error("RabbitMQ publishing stopped", error));
+
+    logger.info("Reactive RabbitMQ sender ready, batching up to {} events for {} ms, {} batches in flight",
+        batchEvents, lingerMillis, maxInFlight);
+  }
+
+  /**
+   * @return completes once the broker confirms the ride; fails with
+   *     {@link PublishRejectedException} if too many batches are already waiting
+   */
+  public Mono<Void> sendLiftRide(int skierID, int resortID, String seasonID, String dayID,
+      int liftID, int time) {
+    return Mono.defer(() -> {
+      byte[] message = LiftRideEventCodec.encode(EventIds.newEventId().toString(), skierID, resortID,
+          seasonID, dayID, liftID, time);
+      if (message == null) {
+        return Mono.error(new IllegalArgumentException("Ride cannot be encoded: season "
+            + seasonID + ", day " + dayID));
+      }
+      FluxSink<PendingRide> sink = rides;
+      if (sink == null || sink.isCancelled()) {
+        return Mono.error(new PublishRejectedException("RabbitMQ sender is not running"));
+      }
+      PendingRide ride = new PendingRide(message);
+      sink.next(ride);
+      return ride.confirmed.asMono().timeout(Duration.ofMillis(confirmTimeoutMillis));
+    });
+  }
+
+  /**
+   * Takes the sink of a new subscription to the pipeline, and forgets it once that subscription
+   * ends so rides are not handed to a pipeline nobody is reading
+   */
+  private void open(FluxSink<PendingRide> sink) {
+    sink.onDispose(() -> {
+      if (rides == sink) {
+        rides = null;
+      }
+    });
+    this.rides = sink;
+  }
+
+  private OutboundMessage toMessage(List<PendingRide> batch) {
+    if (batch.size() == 1) {
+      return new CorrelableOutboundMessage<>("", queueName, BINARY_PROPERTIES, batch.get(0).message, batch);
+    }
+    byte[][] messages = new byte[batch.size()][];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = batch.get(i).message;
+    }
+    return new CorrelableOutboundMessage<>("", queueName, BATCH_PROPERTIES,
+        LiftRideEventCodec.encodeBatch(messages, messages.length), batch);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void settle(OutboundMessageResult result) {
+    List<PendingRide> batch =
+        ((CorrelableOutboundMessage<List<PendingRide>>) result.getOutboundMessage()).getCorrelationMetadata();
+    for (PendingRide ride : batch) {
+      if (result.isAck()) {
+        ride.confirmed.tryEmitEmpty();
+      } else {
+        ride.confirmed.tryEmitError(new IOException("Broker rejected lift ride batch"));
+      }
+    }
+  }
+
+  private void reject(List<PendingRide> batch) {
+    logger.warn("{} batches waiting for RabbitMQ, refusing {} rides", maxPendingBatches, batch.size());
+    for (PendingRide ride : batch) {
+      ride.confirmed.tryEmitError(new PublishRejectedException());
+    }
+  }
+
+  @PreDestroy
+  public void cleanup() {
+    logger.info("Closing reactive RabbitMQ sender");
+    FluxSink<PendingRide> sink = rides;
+    if (sink != null) {
+      sink.complete();
+    }
+    if (publishing != null) {
+      publishing.dispose();
+    }
+    if (sender != null) {
+      sender.close();
+    }
+  }
+
+  /**
+   * An encoded ride and the confirm its request is waiting on
+   */
+  private static final class PendingRide {
+    private final byte[] message;
+    private final Sinks.One<Void> confirmed = Sinks.one();
+
+    private PendingRide(byte[] message) {
+      this.message = message;
+    }
+  }
+}
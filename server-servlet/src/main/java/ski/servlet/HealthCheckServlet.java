@@ -8,7 +8,7 @@ import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@WebServlet(urlPatterns = {"/", "/health", "/health/"})
+@WebServlet(name = "HealthCheckServlet", urlPatterns = {"/", "/health", "/health/"})
 public class HealthCheckServlet extends HttpServlet {
   private static final Logger logger = LoggerFactory.getLogger(HealthCheckServlet.class);
 
@@ -2,25 +2,39 @@ package ski.servlet;
 
 import com.google.gson.Gson;
 import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.LiftRideBodies;
+import neu.cs6650.common.SkierPath;
 import ski.servlet.config.ApplicationConfig;
 import ski.servlet.service.MessageProducer;
+import ski.servlet.service.PublishQueue;
 import ski.servlet.service.SkierService;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@WebServlet("/skiers/*")
+@WebServlet(name = "SkierServlet", urlPatterns = "/skiers/*", asyncSupported = true)
 public class SkierServlet extends HttpServlet {
   private static final Logger logger = LoggerFactory.getLogger(SkierServlet.class);
+  private static final long CONFIRM_TIMEOUT_MILLIS = Long.getLong("RABBITMQ_CONFIRM_TIMEOUT_MS", 30000);
+  private static final int PUBLISH_QUEUE_CAPACITY = Integer.getInteger("PUBLISH_QUEUE_CAPACITY", 10000);
+  private static final int MAX_BODY_BYTES = 4096;
   private final Gson gson = new Gson();
   private SkierService skierService;
   private MessageProducer messageProducer;
+  private PublishQueue publishQueue;
 
   @Override
   public void init() {
@@ -60,109 +74,189 @@ public class SkierServlet extends HttpServlet {
 
       this.messageProducer = MessageProducer.getInstance(host, port, username, password);
       this.skierService = new SkierService(messageProducer);
+      this.publishQueue = new PublishQueue(skierService, PUBLISH_QUEUE_CAPACITY, PublishQueue.THREADS);
       logger.info("SkierServlet initialized successfully with RabbitMQ connection");
     } catch (Exception e) {
       logger.error("Failed to initialize SkierServlet with RabbitMQ connection", e);
     }
   }
 
-  private boolean validateUrlPath(String urlPath) {
-    if (urlPath == null || urlPath.isEmpty()) {
-      return false;
-    }
-
-    String[] urlParts = urlPath.split("/");
-    if (urlParts.length != 8) {
-      return false;
-    }
-
-    try {
-      int resortID = Integer.parseInt(urlParts[1]);
-      if (resortID < 1 || resortID > 10) return false;
-
-      if (!urlParts[2].equals("seasons")) return false;
-
-      if (!urlParts[3].equals("2025")) return false;
-
-      if (!urlParts[4].equals("days")) return false;
-
-      int dayID = Integer.parseInt(urlParts[5]);
-      if (dayID != 1) return false;
-
-      if (!urlParts[6].equals("skiers")) return false;
-
-      int skierID = Integer.parseInt(urlParts[7]);
-      if (skierID < 1 || skierID > 100000) return false;
-
-      return true;
-    } catch (NumberFormatException e) {
-      return false;
-    }
-  }
-
-  private boolean isValidLiftRide(LiftRide liftRide) {
-    return !(liftRide.getLiftID() < 1 || liftRide.getLiftID() > 40 ||
-        liftRide.getTime() < 1 || liftRide.getTime() > 360);
-  }
-
+  /**
+   * The URL is checked on the request thread; the body is then read without blocking and the
+   * ride handed to the publish queue, so no request thread waits on the client or the broker.
+   * Answers 201 once the broker confirms the ride, or 503 straight away if the queue is full.
+   */
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse res) throws IOException {
     res.setContentType("application/json");
-    PrintWriter out = res.getWriter();
 
     String urlPath = req.getPathInfo();
 
     logger.debug("Received POST request with URL path: {}", urlPath);
 
-    if (!validateUrlPath(urlPath)) {
+    // one per request: on virtual threads a thread-local parser would never be reused
+    SkierPath path = new SkierPath();
+    if (!path.parse(urlPath)) {
       logger.warn("Invalid URL path: {}", urlPath);
       res.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-      out.write(gson.toJson(new Message("Invalid URL path")));
+      res.getWriter().write(gson.toJson(new Message("Invalid URL path")));
       return;
     }
 
-    try {
-      String[] urlParts = urlPath.split("/");
-      int resortID = Integer.parseInt(urlParts[1]);
-      String seasonID = urlParts[3];
-      String dayID = urlParts[5];
-      int skierID = Integer.parseInt(urlParts[7]);
-
-      StringBuilder sb = new StringBuilder();
-      String line;
-      while ((line = req.getReader().readLine()) != null) {
-        sb.append(line);
-      }
+    AsyncContext async = req.startAsync();
+    async.setTimeout(CONFIRM_TIMEOUT_MILLIS);
+    LiftRideRequest request = new LiftRideRequest(async, res, path, req.getInputStream());
+    async.addListener(request);
+    request.input.setReadListener(request);
+  }
+
+  /**
+   * One POST in flight: collects the body as it arrives, then publishes the ride and answers
+   * exactly once, whichever of confirm, failure or timeout comes first
+   */
+  private final class LiftRideRequest implements ReadListener, AsyncListener {
+    private final AsyncContext async;
+    private final HttpServletResponse res;
+    private final int resortID;
+    private final int seasonID;
+    private final int dayID;
+    private final int skierID;
+    private final ServletInputStream input;
+    private byte[] body = new byte[64];
+    private int bodyLength;
+    private final AtomicBoolean responded = new AtomicBoolean(false);
+
+    private LiftRideRequest(AsyncContext async, HttpServletResponse res, SkierPath path,
+        ServletInputStream input) {
+      this.async = async;
+      this.res = res;
+      this.resortID = path.getResortID();
+      this.seasonID = path.getSeasonID();
+      this.dayID = path.getDayID();
+      this.skierID = path.getSkierID();
+      this.input = input;
+    }
 
-      LiftRide liftRide = gson.fromJson(sb.toString(), LiftRide.class);
+    @Override
+    public void onDataAvailable() throws IOException {
+      while (input.isReady() && !input.isFinished()) {
+        if (bodyLength == body.length) {
+          body = Arrays.copyOf(body, Math.min(body.length * 2, MAX_BODY_BYTES + 1));
+        }
+        int read = input.read(body, bodyLength, body.length - bodyLength);
+        if (read > 0) {
+          bodyLength += read;
+        }
+        if (bodyLength > MAX_BODY_BYTES) {
+          logger.warn("Request body over {} bytes", MAX_BODY_BYTES);
+          respond(HttpServletResponse.SC_BAD_REQUEST, "Invalid request body");
+          return;
+        }
+      }
+    }
 
-      if (!isValidLiftRide(liftRide)) {
-        logger.warn("Invalid lift ride: liftID={}, time={}",
-            liftRide.getLiftID(), liftRide.getTime());
-        res.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-        out.write(gson.toJson(new Message("Invalid request body")));
+    @Override
+    public void onAllDataRead() {
+      if (responded.get()) {
         return;
       }
+      try {
+        LiftRide liftRide = LiftRideBodies.decode(body, bodyLength);
+
+        if (!LiftRideBodies.isValid(liftRide)) {
+          logger.warn("Invalid lift ride: {}", liftRide);
+          respond(HttpServletResponse.SC_BAD_REQUEST, "Invalid request body");
+          return;
+        }
+
+        logger.info("Queueing lift ride: skierID={}, resortID={}, liftID={}",
+            skierID, resortID, liftRide.getLiftID());
+
+        CompletableFuture<Void> confirmed =
+            publishQueue.submit(liftRide, resortID, String.valueOf(seasonID), String.valueOf(dayID), skierID);
+        if (confirmed == null) {
+          logger.warn("Publish queue full, refusing lift ride for skierID={}", skierID);
+          respond(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy, retry later");
+          return;
+        }
+
+        // Confirms complete on the RabbitMQ connection thread; write the response on a container
+        // one, but only if the timeout has not answered (and completed the context) already
+        confirmed.whenComplete((ignored, error) -> {
+          if (!responded.compareAndSet(false, true)) {
+            return;
+          }
+          try {
+            async.start(() -> {
+              if (error == null) {
+                logger.info("Lift ride processed successfully");
+                write(HttpServletResponse.SC_CREATED, "Write successful");
+              } else {
+                logger.error("Error publishing lift ride", error);
+                write(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error: " + error.getMessage());
+              }
+            });
+          } catch (IllegalStateException e) {
+            // The container timed the request out between the check above and start()
+            logger.warn("Request completed before its confirm could be answered", e);
+          }
+        });
+      } catch (Exception e) {
+        logger.error("Error processing request", e);
+        respond(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error: " + e.getMessage());
+      }
+    }
 
-      logger.info("Processing lift ride: skierID={}, resortID={}, liftID={}",
-          skierID, resortID, liftRide.getLiftID());
+    @Override
+    public void onError(Throwable error) {
+      logger.warn("Failed reading request body", error);
+      respond(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error: " + error.getMessage());
+    }
 
-      skierService.processLiftRide(liftRide, resortID, seasonID, dayID, skierID);
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      logger.error("No confirm from RabbitMQ within {} ms", CONFIRM_TIMEOUT_MILLIS);
+      respond(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error: write not confirmed");
+    }
 
-      logger.info("Lift ride processed successfully");
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
 
-      res.setStatus(HttpServletResponse.SC_CREATED);
-      out.write(gson.toJson(new Message("Write successful")));
+    @Override
+    public void onError(AsyncEvent event) {
+      responded.set(true);
+    }
 
-    } catch (Exception e) {
-      logger.error("Error processing request", e);
-      res.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-      out.write(gson.toJson(new Message("Server error: " + e.getMessage())));
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private void respond(int status, String message) {
+      if (responded.compareAndSet(false, true)) {
+        write(status, message);
+      }
+    }
+
+    /**
+     * Answer and complete; only the caller that won the race on responded may call this
+     */
+    private void write(int status, String message) {
+      try {
+        res.setStatus(status);
+        res.getWriter().write(gson.toJson(new Message(message)));
+      } catch (IOException e) {
+        logger.warn("Failed to write response", e);
+      }
+      async.complete();
     }
   }
 
   @Override
   public void destroy() {
+    if (publishQueue != null) {
+      publishQueue.close();
+    }
     if (messageProducer != null) {
       messageProducer.cleanup();
     }
@@ -6,18 +6,21 @@ import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.webresources.DirResourceSet;
 import org.apache.catalina.webresources.StandardRoot;
+import neu.cs6650.common.VirtualThreads;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
 public class TomcatLauncher {
   private static final Logger logger = LoggerFactory.getLogger(TomcatLauncher.class);
   public static void main(String[] args) throws Exception {
     String rabbitMQHost = "localhost";
     String rabbitMQUsername = "myuser";
     String rabbitMQPassword = "mypassword";
+    boolean virtualThreads = false;
     for (int i = 0; i < args.length; i++) {
       String arg = args[i];
       if (arg.startsWith("--rabbitmq.host=")) {
@@ -29,6 +32,9 @@ public class TomcatLauncher {
       else if (arg.startsWith("--rabbitmq.password=")) {
         rabbitMQPassword = arg.substring("--rabbitmq.password=".length());
       }
+      else if ("--virtual-threads".equals(arg) || "--virtual-threads=true".equals(arg)) {
+        virtualThreads = true;
+      }
       else if ("--rabbitmq.host".equals(arg) && i + 1 < args.length) {
         rabbitMQHost = args[++i];
       }
@@ -50,6 +56,16 @@ public class TomcatLauncher {
 
     tomcat.getConnector().setProperty("address", "0.0.0.0");
 
+    if (virtualThreads) {
+      ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("tomcat-virtual-");
+      if (executor == null) {
+        logger.warn("Virtual threads need Java 21 or later, using the platform thread pool");
+      } else {
+        tomcat.getConnector().getProtocolHandler().setExecutor(executor);
+        logger.info("Handling requests on virtual threads");
+      }
+    }
+
     Path tempPath = Files.createTempDirectory("tomcat-base-dir");
     tomcat.setBaseDir(tempPath.toString());
     String webappDirLocation = "src/main/webapp/";
@@ -0,0 +1,186 @@
+package ski.servlet.service;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of channels on one connection, so each publishing thread has a channel to itself
+ * for the duration of a publish. Channels are opened lazily up to maxChannels; a borrower waits
+ * for one to be returned once that many are open. Closed channels are dropped when they are
+ * borrowed or returned and replaced on demand.
+ *
+ * <p>With thread affinity a thread keeps the channel it first borrowed instead of returning it,
+ * which saves the hand-off on every publish but needs maxChannels to be at least the number of
+ * publishing threads.
+ */
+public class ChannelPool {
+  private static final Logger logger = LoggerFactory.getLogger(ChannelPool.class);
+
+  /**
+   * Prepares each newly opened channel before it is first lent out
+   */
+  public interface Setup {
+    void prepare(Channel channel) throws IOException;
+  }
+
+  private final Connection connection;
+  private final int maxChannels;
+  private final boolean threadAffinity;
+  private final Setup setup;
+  private final BlockingQueue<Channel> idle;
+  private final AtomicInteger openChannels = new AtomicInteger(0);
+  private final ThreadLocal<Channel> pinned = new ThreadLocal<>();
+  private volatile boolean closed = false;
+
+  public ChannelPool(Connection connection, int maxChannels, boolean threadAffinity) {
+    this(connection, maxChannels, threadAffinity, null);
+  }
+
+  public ChannelPool(Connection connection, int maxChannels, boolean threadAffinity, Setup setup) {
+    this.connection = connection;
+    this.maxChannels = Math.max(1, maxChannels);
+    this.threadAffinity = threadAffinity;
+    this.setup = setup;
+    this.idle = new ArrayBlockingQueue<>(this.maxChannels);
+  }
+
+  /**
+   * @throws IOException if the pool is closed, a channel cannot be opened, or none is returned
+   *     within the timeout
+   */
+  public Channel borrow(long timeoutMillis) throws IOException {
+    if (closed) {
+      throw new IOException("Channel pool is closed");
+    }
+    if (threadAffinity) {
+      Channel channel = pinned.get();
+      if (channel != null) {
+        if (channel.isOpen()) {
+          return channel;
+        }
+        invalidate(channel);
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (true) {
+      if (closed) {
+        throw new IOException("Channel pool is closed");
+      }
+      Channel channel = idle.poll();
+      if (channel == null) {
+        channel = openIfBelowLimit();
+      }
+      if (channel == null) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new IOException("No RabbitMQ channel available within " + timeoutMillis + " ms");
+        }
+        try {
+          channel = idle.poll(remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted waiting for a RabbitMQ channel", e);
+        }
+        if (channel == null) {
+          continue;
+        }
+      }
+      if (!channel.isOpen()) {
+        discard(channel);
+        continue;
+      }
+      if (threadAffinity) {
+        pinned.set(channel);
+      }
+      return channel;
+    }
+  }
+
+  /**
+   * Give back a channel that is still usable; closed ones are dropped
+   */
+  public void release(Channel channel) {
+    if (threadAffinity && pinned.get() == channel) {
+      return;
+    }
+    if (closed || !channel.isOpen() || !idle.offer(channel)) {
+      discard(channel);
+    }
+  }
+
+  /**
+   * Drop a channel that failed a publish; a replacement is opened on demand
+   */
+  public void invalidate(Channel channel) {
+    if (pinned.get() == channel) {
+      pinned.remove();
+    }
+    discard(channel);
+  }
+
+  public int getOpenChannelCount() {
+    return openChannels.get();
+  }
+
+  /**
+   * Close idle channels; borrowed ones are closed as they are returned
+   */
+  public void close() {
+    closed = true;
+    Channel channel;
+    while ((channel = idle.poll()) != null) {
+      discard(channel);
+    }
+  }
+
+  private Channel openIfBelowLimit() throws IOException {
+    while (true) {
+      int open = openChannels.get();
+      if (open >= maxChannels) {
+        return null;
+      }
+      if (openChannels.compareAndSet(open, open + 1)) {
+        break;
+      }
+    }
+    Channel channel = null;
+    try {
+      channel = connection.createChannel();
+      if (channel == null) {
+        throw new IOException("Connection has no free channel numbers");
+      }
+      if (setup != null) {
+        setup.prepare(channel);
+      }
+      logger.debug("Opened RabbitMQ channel {} ({} open)", channel.getChannelNumber(), openChannels.get());
+      return channel;
+    } catch (IOException | RuntimeException e) {
+      if (channel != null) {
+        discard(channel);
+      } else {
+        openChannels.decrementAndGet();
+      }
+      throw e;
+    }
+  }
+
+  private void discard(Channel channel) {
+    openChannels.decrementAndGet();
+    try {
+      if (channel.isOpen()) {
+        channel.close();
+      }
+    } catch (Exception e) {
+      logger.debug("Error closing RabbitMQ channel", e);
+    }
+  }
+}
@@ -3,6 +3,7 @@ package ski.servlet.service;
 import io.swagger.client.model.LiftRide;
 
 public class LiftRideEvent {
+  private String eventID;
   private LiftRide liftRide;
   private int resortID;
   private String seasonID;
@@ -11,7 +12,9 @@ public class LiftRideEvent {
 
   public LiftRideEvent() {}
 
-  public LiftRideEvent(LiftRide liftRide, int resortID, String seasonID, String dayID, int skierID) {
+  public LiftRideEvent(String eventID, LiftRide liftRide, int resortID, String seasonID, String dayID,
+      int skierID) {
+    this.eventID = eventID;
     this.liftRide = liftRide;
     this.resortID = resortID;
     this.seasonID = seasonID;
@@ -19,6 +22,14 @@ public class LiftRideEvent {
     this.skierID = skierID;
   }
 
+  public String getEventID() {
+    return eventID;
+  }
+
+  public void setEventID(String eventID) {
+    this.eventID = eventID;
+  }
+
   public LiftRide getLiftRide() {
     return liftRide;
   }
@@ -62,7 +73,8 @@ public class LiftRideEvent {
   @Override
   public String toString() {
     return "LiftRideEvent{" +
-        "liftRide=" + liftRide +
+        "eventID='" + eventID + '\'' +
+        ", liftRide=" + liftRide +
         ", resortID=" + resortID +
         ", seasonID='" + seasonID + '\'' +
         ", dayID='" + dayID + '\'' +
@@ -1,14 +1,23 @@
 package ski.servlet.service;
 
 import com.google.gson.Gson;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.LiftRideEventCodec;
+import neu.cs6650.common.MessageBatcher;
+import neu.cs6650.common.PublishConfirms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.concurrent.TimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MessageProducer {
   private static final Logger logger = LoggerFactory.getLogger(MessageProducer.class);
@@ -18,11 +27,40 @@ public class MessageProducer {
   private final String username;
   private final String password;
   private final String queueName = "ski-rides";
+  private final boolean binaryFormat = !"json".equalsIgnoreCase(System.getProperty("RABBITMQ_WIRE_FORMAT", "binary"));
+  private final int batchEvents = Integer.getInteger("RABBITMQ_BATCH_EVENTS", 100);
+  private final long lingerMillis = Long.getLong("RABBITMQ_LINGER_MS", 2);
+  private final MessageBatcher batcher;
+  /**
+   * Only the publish queue's threads and the batcher's linger timer publish, so by default one
+   * channel each
+   */
+  private final int channelPoolSize = Integer.getInteger("RABBITMQ_CHANNEL_POOL_SIZE",
+      PublishQueue.THREADS + 1);
+  private final boolean channelAffinity = Boolean.getBoolean("RABBITMQ_CHANNEL_AFFINITY");
+  private final long channelWaitMillis = Long.getLong("RABBITMQ_CHANNEL_WAIT_MS", 5000);
+  private final boolean publisherConfirms =
+      !"false".equalsIgnoreCase(System.getProperty("RABBITMQ_PUBLISHER_CONFIRMS", "true"));
+  private final Map<Channel, PublishConfirms> confirms = new ConcurrentHashMap<>();
 
-  private Connection connection;
-  private Channel channel;
+  private volatile Connection connection;
+  private volatile ChannelPool channels;
   private final Gson gson = new Gson();
 
+  private static final AMQP.BasicProperties BINARY_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .contentType(LiftRideEventCodec.CONTENT_TYPE).build();
+  private static final AMQP.BasicProperties BATCH_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .contentType(LiftRideEventCodec.BATCH_CONTENT_TYPE).build();
+  private static final AMQP.BasicProperties JSON_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .contentType(LiftRideEventCodec.JSON_CONTENT_TYPE).build();
+
+  /**
+   * Locks rather than synchronized, since both are held across network I/O and a virtual thread
+   * blocked inside synchronized pins its carrier thread
+   */
+  private static final ReentrantLock instanceLock = new ReentrantLock();
+  private final ReentrantLock connectionLock = new ReentrantLock();
+
   private static MessageProducer instance;
 
 
@@ -31,36 +69,70 @@ public class MessageProducer {
     this.port = port;
     this.username = username;
     this.password = password;
+    this.batcher = new MessageBatcher(batchEvents, lingerMillis, this::publishBatch);
     init();
   }
 
 
-  public static synchronized MessageProducer getInstance(String host, int port, String username, String password) {
-    if (instance == null) {
-      instance = new MessageProducer(host, port, username, password);
-    } else if (!instance.isConnectionValid() ||
-        !instance.host.equals(host) ||
-        instance.port != port ||
-        !instance.username.equals(username) ||
-        !instance.password.equals(password)) {
+  public static MessageProducer getInstance(String host, int port, String username, String password) {
+    instanceLock.lock();
+    try {
+      if (instance == null) {
+        instance = new MessageProducer(host, port, username, password);
+      } else if (!instance.isConnectionValid() ||
+          !instance.host.equals(host) ||
+          instance.port != port ||
+          !instance.username.equals(username) ||
+          !instance.password.equals(password)) {
 
-      try {
-        if (instance != null) {
-          instance.cleanup();
+        try {
+          if (instance != null) {
+            instance.cleanup();
+          }
+        } catch (Exception e) {
+          logger.warn("Error cleaning up previous MessageProducer instance", e);
         }
-      } catch (Exception e) {
-        logger.warn("Error cleaning up previous MessageProducer instance", e);
+        instance = new MessageProducer(host, port, username, password);
       }
-      instance = new MessageProducer(host, port, username, password);
+      return instance;
+    } finally {
+      instanceLock.unlock();
     }
-    return instance;
   }
 
   private boolean isConnectionValid() {
-    return connection != null && connection.isOpen() && channel != null && channel.isOpen();
+    Connection current = connection;
+    return current != null && current.isOpen() && channels != null;
+  }
+
+  /**
+   * Open a new connection and channel pool unless another thread already replaced the one that
+   * failed
+   */
+  private void reconnect(Connection failed) {
+    connectionLock.lock();
+    try {
+      if (connection != failed && isConnectionValid()) {
+        return;
+      }
+      if (channels != null) {
+        channels.close();
+      }
+      try {
+        if (connection != null && connection.isOpen()) {
+          connection.close();
+        }
+      } catch (Exception e) {
+        logger.debug("Error closing failed RabbitMQ connection", e);
+      }
+      init();
+    } finally {
+      connectionLock.unlock();
+    }
   }
 
   private void init() {
+    connectionLock.lock();
     try {
       logger.info("Initializing RabbitMQ connection to {}:{} with username {}",
           host, port, username);
@@ -75,47 +147,99 @@ public class MessageProducer {
       factory.setConnectionTimeout(5000);
 
       logger.info("Creating RabbitMQ connection...");
-      this.connection = factory.newConnection();
-      this.channel = connection.createChannel();
+      Connection opened = factory.newConnection();
 
       logger.info("Declaring queue: {}", queueName);
-      channel.queueDeclare(queueName, true, false, false, null);
-      logger.info("RabbitMQ connection established successfully");
+      try (Channel channel = opened.createChannel()) {
+        channel.queueDeclare(queueName, true, false, false, null);
+      }
+      this.channels = new ChannelPool(opened, channelPoolSize, channelAffinity,
+          publisherConfirms ? this::enableConfirms : null);
+      this.connection = opened;
+      logger.info("RabbitMQ connection established successfully with up to {} channels{}{}",
+          channelPoolSize, channelAffinity ? " pinned to threads" : "",
+          publisherConfirms ? " in confirm mode" : "");
     } catch (Exception e) {
       logger.error("Failed to initialize RabbitMQ connection: {}", e.getMessage(), e);
+    } finally {
+      connectionLock.unlock();
     }
   }
 
-  public void sendLiftRideEvent(LiftRideEvent event) throws IOException {
-    try {
+  /**
+   * Channels are put in confirm mode as the pool opens them, each with its own tracker, since
+   * sequence numbers are per channel. Closing a channel fails whatever it still had outstanding.
+   */
+  private void enableConfirms(Channel channel) throws IOException {
+    PublishConfirms tracker = new PublishConfirms();
+    channel.addConfirmListener(tracker::confirmed, tracker::nacked);
+    channel.addShutdownListener(cause -> {
+      confirms.remove(channel);
+      tracker.failAll(cause);
+    });
+    channel.confirmSelect();
+    confirms.put(channel, tracker);
+  }
 
-      if (!isConnectionValid()) {
-        logger.warn("Connection to RabbitMQ is not valid. Attempting to reconnect...");
-        init();
+  /**
+   * Events the binary format can carry are batched with others; anything else is published on
+   * its own as JSON. Nothing here waits for the broker.
+   *
+   * @return completes once the broker has confirmed the event (or, with confirms off, once it
+   *     has been published)
+   * @throws IOException if a JSON event could not be published at all
+   */
+  public CompletableFuture<Void> sendLiftRideEvent(LiftRideEvent event) throws IOException {
+    byte[] message = encodeBinary(event);
+    if (message != null) {
+      logger.info("Batching message for queue {}: {}", queueName, event);
+      return batcher.add(message);
+    }
+    byte[] json = gson.toJson(event).getBytes(StandardCharsets.UTF_8);
+    return publishWithReconnect(channel -> channel.basicPublish("", queueName, JSON_PROPERTIES, json));
+  }
 
+  private CompletableFuture<Void> publishBatch(byte[][] messages, int count) throws IOException {
+    if (count == 1) {
+      return publishWithReconnect(channel -> channel.basicPublish("", queueName, BINARY_PROPERTIES, messages[0]));
+    }
+    byte[] batch = LiftRideEventCodec.encodeBatch(messages, count);
+    return publishWithReconnect(channel -> channel.basicPublish("", queueName, BATCH_PROPERTIES, batch));
+  }
+
+  private interface Publish {
+    void run(Channel channel) throws IOException;
+  }
 
+  /**
+   * Publish on a pooled channel. A failed channel is dropped and the publish retried once on
+   * another, after reconnecting if the connection itself has gone. A nack is not retried here; it
+   * fails the returned future and so the request.
+   */
+  private CompletableFuture<Void> publishWithReconnect(Publish publish) throws IOException {
+    try {
+      if (!isConnectionValid()) {
+        logger.warn("Connection to RabbitMQ is not valid. Attempting to reconnect...");
+        reconnect(connection);
         if (!isConnectionValid()) {
           throw new IOException("Failed to establish valid connection to RabbitMQ after reconnect attempt");
         }
       }
-
-      String jsonMessage = gson.toJson(event);
-      logger.info("Sending message to queue {}: {}", queueName, jsonMessage);
-      channel.basicPublish("", queueName, null, jsonMessage.getBytes());
+      CompletableFuture<Void> confirmed = publishOnPooledChannel(publish);
       logger.info("Message sent successfully");
+      return confirmed;
     } catch (Exception e) {
       logger.error("Error sending message to RabbitMQ: {}", e.getMessage(), e);
 
-
       try {
-        logger.info("Attempting to reconnect to RabbitMQ...");
-        init();
-
-
+        if (!isConnectionValid()) {
+          logger.info("Attempting to reconnect to RabbitMQ...");
+          reconnect(connection);
+        }
         if (isConnectionValid()) {
-          String jsonMessage = gson.toJson(event);
-          channel.basicPublish("", queueName, null, jsonMessage.getBytes());
-          logger.info("Message sent successfully after reconnection");
+          CompletableFuture<Void> confirmed = publishOnPooledChannel(publish);
+          logger.info("Message sent successfully after retry");
+          return confirmed;
         } else {
           throw new IOException("Failed to reestablish connection to RabbitMQ");
         }
@@ -126,16 +250,53 @@ public class MessageProducer {
     }
   }
 
+  /**
+   * The borrowed channel is ours alone until released, so no other publish can take the sequence
+   * number tracked for this one
+   */
+  private CompletableFuture<Void> publishOnPooledChannel(Publish publish) throws IOException {
+    ChannelPool pool = channels;
+    Channel channel = pool.borrow(channelWaitMillis);
+    PublishConfirms tracker = publisherConfirms ? confirms.get(channel) : null;
+    long sequenceNumber = channel.getNextPublishSeqNo();
+    CompletableFuture<Void> confirmed = tracker != null
+        ? tracker.track(sequenceNumber) : CompletableFuture.completedFuture(null);
+    try {
+      publish.run(channel);
+    } catch (IOException | RuntimeException e) {
+      if (tracker != null) {
+        tracker.forget(sequenceNumber);
+      }
+      pool.invalidate(channel);
+      throw e;
+    }
+    pool.release(channel);
+    return confirmed;
+  }
+
+  /**
+   * @return the binary message, or null if it is disabled or cannot represent the event
+   */
+  private byte[] encodeBinary(LiftRideEvent event) {
+    LiftRide liftRide = event.getLiftRide();
+    if (!binaryFormat || liftRide == null || liftRide.getLiftID() == null || liftRide.getTime() == null) {
+      return null;
+    }
+    return LiftRideEventCodec.encode(event.getEventID(), event.getSkierID(), event.getResortID(),
+        event.getSeasonID(), event.getDayID(), liftRide.getLiftID(), liftRide.getTime());
+  }
+
   public void cleanup() {
     logger.info("Closing RabbitMQ connection");
+    batcher.close();
     try {
-      if (channel != null && channel.isOpen()) {
-        channel.close();
+      if (channels != null) {
+        channels.close();
       }
       if (connection != null && connection.isOpen()) {
         connection.close();
       }
-    } catch (IOException | TimeoutException e) {
+    } catch (IOException e) {
       logger.error("Error while closing RabbitMQ connection", e);
     }
   }
@@ -0,0 +1,88 @@
+package ski.servlet.service;
+
+import io.swagger.client.model.LiftRide;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded queue of validated lift rides between the request threads and the producer, drained by
+ * a few dedicated publisher threads. Request threads only enqueue, so they are never held by a
+ * slow broker; when the queue is full new rides are refused instead of piling up in memory.
+ */
+public class PublishQueue {
+  private static final Logger logger = LoggerFactory.getLogger(PublishQueue.class);
+
+  /** Publisher threads, set with the PUBLISH_THREADS system property */
+  public static final int THREADS = Integer.getInteger("PUBLISH_THREADS", 4);
+
+  private final SkierService skierService;
+  private final ThreadPoolExecutor publishers;
+
+  public PublishQueue(SkierService skierService, int capacity, int publisherThreads) {
+    this.skierService = skierService;
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.publishers = new ThreadPoolExecutor(publisherThreads, publisherThreads,
+        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+        runnable -> {
+          Thread thread = new Thread(runnable, "lift-ride-publisher-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+    logger.info("Publish queue holds up to {} rides for {} publisher threads", capacity, publisherThreads);
+  }
+
+  /**
+   * @return completes once the ride is safely with the broker, or null if the queue is full
+   */
+  public CompletableFuture<Void> submit(LiftRide liftRide, int resortID, String seasonID,
+      String dayID, int skierID) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    try {
+      publishers.execute(() -> {
+        try {
+          skierService.processLiftRide(liftRide, resortID, seasonID, dayID, skierID)
+              .whenComplete((ignored, error) -> {
+                if (error == null) {
+                  result.complete(null);
+                } else {
+                  result.completeExceptionally(error);
+                }
+              });
+        } catch (Exception e) {
+          result.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+    return result;
+  }
+
+  public int getQueuedCount() {
+    return publishers.getQueue().size();
+  }
+
+  /**
+   * Stop taking rides and give the queued ones a few seconds to be handed to the producer
+   */
+  public void close() {
+    publishers.shutdown();
+    try {
+      if (!publishers.awaitTermination(5, TimeUnit.SECONDS)) {
+        logger.warn("{} queued rides were not published before shutdown", getQueuedCount());
+        publishers.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      publishers.shutdownNow();
+    }
+  }
+}
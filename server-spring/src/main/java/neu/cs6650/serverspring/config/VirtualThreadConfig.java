@@ -0,0 +1,37 @@
+package neu.cs6650.serverspring.config;
+
+import neu.cs6650.common.VirtualThreads;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs Tomcat's request handling on virtual threads when spring.threads.virtual.enabled is set
+ * (the property Spring Boot 3.2 later adopted for the same purpose). Needs Java 21 or later; on
+ * an older runtime the platform thread pool stays in place.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+  private static final Logger logger = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+  @Bean
+  public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadExecutorCustomizer() {
+    return protocolHandler -> {
+      ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("tomcat-virtual-");
+      if (executor == null) {
+        logger.warn("Virtual threads need Java 21 or later, using the platform thread pool");
+        return;
+      }
+      protocolHandler.setExecutor(executor);
+      logger.info("Handling requests on virtual threads");
+    };
+  }
+}
@@ -2,6 +2,8 @@ package neu.cs6650.serverspring.controller;
 
 import io.swagger.client.model.LiftRide;
 import io.swagger.client.model.ResponseMsg;
+import neu.cs6650.common.LiftRideBodies;
+import neu.cs6650.common.SkierPath;
 import neu.cs6650.serverspring.service.SkierService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,6 +12,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping("/skiers")
 public class SkierController {
@@ -19,75 +23,63 @@ public class SkierController {
   @Autowired
   private SkierService skierService;
 
+  /**
+   * The response is sent once the broker confirms the ride; the request thread is not held while
+   * waiting. The body is taken as raw bytes and decoded here rather than bound by Jackson.
+   */
   @PostMapping("/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}")
-  public ResponseEntity<ResponseMsg> writeNewLiftRide(
+  public CompletableFuture<ResponseEntity<ResponseMsg>> writeNewLiftRide(
       @PathVariable int resortID,
       @PathVariable String seasonID,
       @PathVariable String dayID,
       @PathVariable int skierID,
-      @RequestBody LiftRide liftRide) {
+      @RequestBody byte[] body) {
 
-    if (!isValidUrlParameters(resortID, seasonID, dayID, skierID)) {
+    if (!SkierPath.isValid(resortID, seasonID, dayID, skierID)) {
       logger.warn("Invalid URL parameters: resortID={}, seasonID={}, dayID={}, skierID={}",
           resortID, seasonID, dayID, skierID);
       ResponseMsg response = new ResponseMsg();
       response.setMessage("Invalid URL path");
-      return ResponseEntity
+      return CompletableFuture.completedFuture(ResponseEntity
           .status(HttpStatus.BAD_REQUEST)
-          .body(response);
+          .body(response));
     }
 
-    if (!isValidLiftRide(liftRide)) {
-      logger.warn("Invalid lift ride: liftID={}, time={}",
-          liftRide.getLiftID(), liftRide.getTime());
+    LiftRide liftRide = LiftRideBodies.decode(body);
+    if (!LiftRideBodies.isValid(liftRide)) {
+      logger.warn("Invalid lift ride: {}", liftRide);
       ResponseMsg response = new ResponseMsg();
       response.setMessage("Invalid request body");
-      return ResponseEntity
+      return CompletableFuture.completedFuture(ResponseEntity
           .status(HttpStatus.BAD_REQUEST)
-          .body(response);
+          .body(response));
     }
 
+    CompletableFuture<Void> confirmed;
     try {
-
-      skierService.processLiftRide(liftRide, resortID, seasonID, dayID, skierID);
-
+      confirmed = skierService.processLiftRide(liftRide, resortID, seasonID, dayID, skierID);
+    } catch (Exception e) {
+      return CompletableFuture.completedFuture(serverError(e));
+    }
+    return confirmed.handle((ignored, error) -> {
+      if (error != null) {
+        return serverError(error);
+      }
       ResponseMsg response = new ResponseMsg();
       response.setMessage("Write successful");
       return ResponseEntity
           .status(HttpStatus.CREATED)
           .body(response);
-    } catch (Exception e) {
-      logger.error("Failed to process lift ride", e);
-      ResponseMsg response = new ResponseMsg();
-      response.setMessage("Server error");
-      return ResponseEntity
-          .status(HttpStatus.INTERNAL_SERVER_ERROR)
-          .body(response);
-    }
+    });
   }
 
-  private boolean isValidUrlParameters(int resortID, String seasonID, String dayID, int skierID) {
-    if (resortID < 1 || resortID > 10) {
-      return false;
-    }
-
-    if (!seasonID.equals("2025")) {
-      return false;
-    }
-
-    if (!dayID.equals("1")) {
-      return false;
-    }
-
-    if (skierID < 1 || skierID > 100000) {
-      return false;
-    }
-
-    return true;
+  private ResponseEntity<ResponseMsg> serverError(Throwable error) {
+    logger.error("Failed to process lift ride", error);
+    ResponseMsg response = new ResponseMsg();
+    response.setMessage("Server error");
+    return ResponseEntity
+        .status(HttpStatus.INTERNAL_SERVER_ERROR)
+        .body(response);
   }
 
-  private boolean isValidLiftRide(LiftRide liftRide) {
-    return !(liftRide.getLiftID() < 1 || liftRide.getLiftID() > 40 ||
-        liftRide.getTime() < 1 || liftRide.getTime() > 360);
-  }
 }
@@ -4,6 +4,7 @@ import io.swagger.client.model.LiftRide;
 
 
 public class LiftRideEvent {
+  private String eventID;
   private LiftRide liftRide;
   private int resortID;
   private String seasonID;
@@ -12,7 +13,9 @@ public class LiftRideEvent {
 
   public LiftRideEvent() {}
 
-  public LiftRideEvent(LiftRide liftRide, int resortID, String seasonID, String dayID, int skierID) {
+  public LiftRideEvent(String eventID, LiftRide liftRide, int resortID, String seasonID, String dayID,
+      int skierID) {
+    this.eventID = eventID;
     this.liftRide = liftRide;
     this.resortID = resortID;
     this.seasonID = seasonID;
@@ -21,6 +24,14 @@ public class LiftRideEvent {
   }
 
 
+  public String getEventID() {
+    return eventID;
+  }
+
+  public void setEventID(String eventID) {
+    this.eventID = eventID;
+  }
+
   public LiftRide getLiftRide() {
     return liftRide;
   }
@@ -64,7 +75,8 @@ public class LiftRideEvent {
   @Override
   public String toString() {
     return "LiftRideEvent{" +
-        "liftRide=" + liftRide +
+        "eventID='" + eventID + '\'' +
+        ", liftRide=" + liftRide +
         ", resortID=" + resortID +
         ", seasonID='" + seasonID + '\'' +
         ", dayID='" + dayID + '\'' +
@@ -1,9 +1,14 @@
 package neu.cs6650.serverspring.service;
 
 import com.google.gson.Gson;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.LiftRideEventCodec;
+import neu.cs6650.common.MessageBatcher;
+import neu.cs6650.common.PublishConfirms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,6 +17,9 @@ import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.TimeoutException;
 
 @Service
@@ -34,9 +42,35 @@ public class MessageProducer {
   @Value("${rabbitmq.queue.ski-rides}")
   private String queueName;
 
+  /** binary, or json while consumers that only read JSON are still running */
+  @Value("${rabbitmq.wire-format:binary}")
+  private String wireFormat;
+
+  /** Binary events per published batch; 1 publishes each event on its own */
+  @Value("${rabbitmq.batch.max-events:100}")
+  private int batchEvents;
+
+  @Value("${rabbitmq.batch.linger-ms:2}")
+  private long lingerMillis;
+
+  /** Complete requests only once the broker has confirmed their rides */
+  @Value("${rabbitmq.publisher-confirms:true}")
+  private boolean publisherConfirms;
+
   private Connection connection;
   private Channel channel;
+  private PublishConfirms confirms;
+  /** Not synchronized: a virtual thread publishing inside a monitor would pin its carrier */
+  private final ReentrantLock publishLock = new ReentrantLock();
   private final Gson gson = new Gson();
+  private MessageBatcher batcher;
+
+  private static final AMQP.BasicProperties BINARY_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .contentType(LiftRideEventCodec.CONTENT_TYPE).build();
+  private static final AMQP.BasicProperties BATCH_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .contentType(LiftRideEventCodec.BATCH_CONTENT_TYPE).build();
+  private static final AMQP.BasicProperties JSON_PROPERTIES = new AMQP.BasicProperties.Builder()
+      .contentType(LiftRideEventCodec.JSON_CONTENT_TYPE).build();
 
   @PostConstruct
   public void init() throws IOException, TimeoutException {
@@ -54,18 +88,87 @@ public class MessageProducer {
 
 
     channel.queueDeclare(queueName, true, false, false, null);
-    logger.info("RabbitMQ connection established successfully");
+    if (publisherConfirms) {
+      PublishConfirms tracker = new PublishConfirms();
+      channel.addConfirmListener(tracker::confirmed, tracker::nacked);
+      channel.addShutdownListener(tracker::failAll);
+      channel.confirmSelect();
+      this.confirms = tracker;
+    }
+    this.batcher = new MessageBatcher(batchEvents, lingerMillis, this::publishBatch);
+    logger.info("RabbitMQ connection established successfully, batching up to {} events for {} ms{}",
+        batchEvents, lingerMillis, publisherConfirms ? " with publisher confirms" : "");
+  }
+
+  /**
+   * Events the binary format can carry are batched with others; anything else is published on
+   * its own as JSON. Nothing here waits for the broker.
+   *
+   * @return completes once the broker has confirmed the event (or, with confirms off, once it
+   *     has been published)
+   * @throws IOException if a JSON event could not be published at all
+   */
+  public CompletableFuture<Void> sendLiftRideEvent(LiftRideEvent event) throws IOException {
+    byte[] message = encodeBinary(event);
+    if (message == null) {
+      logger.debug("Sending message to queue: {}", event);
+      return publish(JSON_PROPERTIES, gson.toJson(event).getBytes(StandardCharsets.UTF_8));
+    }
+    logger.debug("Batching message for queue: {}", event);
+    return batcher.add(message);
+  }
+
+  private CompletableFuture<Void> publishBatch(byte[][] messages, int count) throws IOException {
+    if (count == 1) {
+      return publish(BINARY_PROPERTIES, messages[0]);
+    }
+    return publish(BATCH_PROPERTIES, LiftRideEventCodec.encodeBatch(messages, count));
+  }
+
+  /**
+   * Publishes from the batcher and from JSON requests share the channel, so taking a sequence
+   * number and publishing with it happen under one lock
+   */
+  private CompletableFuture<Void> publish(AMQP.BasicProperties properties, byte[] body) throws IOException {
+    if (confirms == null) {
+      channel.basicPublish("", queueName, properties, body);
+      return CompletableFuture.completedFuture(null);
+    }
+    publishLock.lock();
+    try {
+      long sequenceNumber = channel.getNextPublishSeqNo();
+      CompletableFuture<Void> confirmed = confirms.track(sequenceNumber);
+      try {
+        channel.basicPublish("", queueName, properties, body);
+      } catch (IOException | RuntimeException e) {
+        confirms.forget(sequenceNumber);
+        throw e;
+      }
+      return confirmed;
+    } finally {
+      publishLock.unlock();
+    }
   }
 
-  public void sendLiftRideEvent(LiftRideEvent event) throws IOException {
-    String jsonMessage = gson.toJson(event);
-    channel.basicPublish("", queueName, null, jsonMessage.getBytes());
-    logger.debug("Message sent to queue: {}", jsonMessage);
+  /**
+   * @return the binary message, or null if it is disabled or cannot represent the event
+   */
+  private byte[] encodeBinary(LiftRideEvent event) {
+    LiftRide liftRide = event.getLiftRide();
+    if ("json".equalsIgnoreCase(wireFormat) || liftRide == null
+        || liftRide.getLiftID() == null || liftRide.getTime() == null) {
+      return null;
+    }
+    return LiftRideEventCodec.encode(event.getEventID(), event.getSkierID(), event.getResortID(),
+        event.getSeasonID(), event.getDayID(), liftRide.getLiftID(), liftRide.getTime());
   }
 
   @PreDestroy
   public void cleanup() {
     logger.info("Closing RabbitMQ connection");
+    if (batcher != null) {
+      batcher.close();
+    }
     try {
       if (channel != null && channel.isOpen()) {
         channel.close();
@@ -1,11 +1,14 @@
 package neu.cs6650.serverspring.service;
 
 import io.swagger.client.model.LiftRide;
+import neu.cs6650.common.EventIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+
 @Service
 public class SkierService {
 
@@ -14,13 +17,18 @@ public class SkierService {
   @Autowired
   private MessageProducer messageProducer;
 
-  public void processLiftRide(LiftRide liftRide, int resortID, String seasonID, String dayID, int skierID) throws Exception {
+  /**
+   * @return completes once the ride is safely with the broker
+   */
+  public CompletableFuture<Void> processLiftRide(LiftRide liftRide, int resortID, String seasonID, String dayID, int skierID) throws Exception {
     logger.info("Processing lift ride: skierID={}, resortID={}, liftID={}",
         skierID, resortID, liftRide.getLiftID());
 
-    LiftRideEvent event = new LiftRideEvent(liftRide, resortID, seasonID, dayID, skierID);
-    messageProducer.sendLiftRideEvent(event);
+    LiftRideEvent event = new LiftRideEvent(
+        EventIds.newEventId().toString(), liftRide, resortID, seasonID, dayID, skierID);
+    CompletableFuture<Void> confirmed = messageProducer.sendLiftRideEvent(event);
 
-    logger.info("Lift ride event sent to queue successfully");
+    logger.info("Lift ride event handed to the producer");
+    return confirmed;
   }
 }
@@ -0,0 +1,50 @@
+package neu.cs6650.common;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Event IDs assigned by the servers when a ride is accepted, in the time-ordered UUID version 7
+ * layout. The consumer derives storage keys from the ID, so a redelivered message maps to the
+ * same item.
+ */
+public final class EventIds {
+
+  private EventIds() {
+  }
+
+  /**
+   * A fresh ID; the consumer also uses one for events from producers that predate event IDs,
+   * which are then not deduplicated
+   */
+  public static UUID newEventId() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long mostSignificant = (System.currentTimeMillis() << 16) | 0x7000L | (random.nextLong() & 0x0FFFL);
+    long leastSignificant = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+    return new UUID(mostSignificant, leastSignificant);
+  }
+
+  /**
+   * @return the parsed ID, or a new one if the event carried none or an unreadable one
+   */
+  public static UUID parseOrNew(String eventID) {
+    if (eventID != null) {
+      try {
+        UUID parsed = UUID.fromString(eventID);
+        if (parsed.version() == 7) {
+          return parsed;
+        }
+      } catch (IllegalArgumentException e) {
+        // fall through
+      }
+    }
+    return newEventId();
+  }
+
+  /**
+   * When the server accepted the ride
+   */
+  public static long timestampMillis(UUID eventID) {
+    return eventID.getMostSignificantBits() >>> 16;
+  }
+}
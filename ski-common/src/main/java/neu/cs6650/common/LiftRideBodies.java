@@ -0,0 +1,62 @@
+package neu.cs6650.common;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.swagger.client.model.LiftRide;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lift ride request bodies as the servers receive them. The usual two-field body goes through
+ * {@link LiftRideJsonDecoder}; whatever it refuses is handed to Gson, so unusual but valid JSON is
+ * still accepted.
+ */
+public final class LiftRideBodies {
+
+  public static final int MIN_LIFT_ID = 1;
+  public static final int MAX_LIFT_ID = 40;
+  public static final int MIN_TIME = 1;
+  public static final int MAX_TIME = 360;
+
+  private static final Gson gson = new Gson();
+
+  private LiftRideBodies() {
+  }
+
+  /**
+   * @return the ride, or null if the body is not JSON
+   */
+  public static LiftRide decode(byte[] body) {
+    return decode(body, body.length);
+  }
+
+  /**
+   * @param length number of bytes of body that hold the request
+   * @return the ride, or null if the body is not JSON
+   */
+  public static LiftRide decode(byte[] body, int length) {
+    // created per call rather than kept per thread: it is a few ints, and on virtual threads a
+    // thread-local would be a fresh one per request plus a map entry
+    LiftRideJsonDecoder decoder = new LiftRideJsonDecoder();
+    if (decoder.decode(body, 0, length)) {
+      LiftRide liftRide = new LiftRide();
+      liftRide.setLiftID(decoder.getLiftID());
+      liftRide.setTime(decoder.getTime());
+      return liftRide;
+    }
+    try {
+      return gson.fromJson(new String(body, 0, length, StandardCharsets.UTF_8), LiftRide.class);
+    } catch (JsonParseException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return whether the ride is present, has both fields, and both are in range
+   */
+  public static boolean isValid(LiftRide liftRide) {
+    return liftRide != null && liftRide.getLiftID() != null && liftRide.getTime() != null
+        && liftRide.getLiftID() >= MIN_LIFT_ID && liftRide.getLiftID() <= MAX_LIFT_ID
+        && liftRide.getTime() >= MIN_TIME && liftRide.getTime() <= MAX_TIME;
+  }
+}
@@ -0,0 +1,172 @@
+package neu.cs6650.common;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Fixed-layout binary form of a lift ride event, as published to the ski-rides queue. Messages
+ * carry {@link #CONTENT_TYPE} in their AMQP properties; messages without it are JSON, so producers
+ * and consumers of either format can share a queue during a rollout.
+ *
+ * <p>Layout, big-endian, {@value #MESSAGE_SIZE} bytes: version, flags, event ID (two longs),
+ * skierID, resortID, seasonID, dayID, liftID, time (ints). Season and day IDs travel as numbers,
+ * so only canonical decimal IDs (no sign or leading zeros) can be encoded; anything else, and
+ * event IDs that are not UUIDs, must be sent as JSON.
+ *
+ * <p>A batch ({@link #BATCH_CONTENT_TYPE}) is a version byte and an event count (int) followed by
+ * that many single-event messages back to back.
+ */
+public final class LiftRideEventCodec {
+
+  public static final String CONTENT_TYPE = "application/vnd.ski.lift-ride";
+  public static final String BATCH_CONTENT_TYPE = "application/vnd.ski.lift-ride-batch";
+  public static final String JSON_CONTENT_TYPE = "application/json";
+  public static final byte FORMAT_VERSION = 1;
+  public static final int MESSAGE_SIZE = 42;
+
+  private static final int FLAG_EVENT_ID = 1;
+  private static final int BATCH_HEADER_SIZE = 5;
+
+  private LiftRideEventCodec() {
+  }
+
+  /**
+   * Receives the fields of a decoded event
+   */
+  public interface Sink<T> {
+    /**
+     * @param eventID null if the producer did not assign one
+     */
+    T event(String eventID, int skierID, int resortID, String seasonID, String dayID, int liftID,
+        int time);
+  }
+
+  public static boolean isBinary(String contentType) {
+    return CONTENT_TYPE.equals(contentType);
+  }
+
+  public static boolean isBatch(String contentType) {
+    return BATCH_CONTENT_TYPE.equals(contentType);
+  }
+
+  /**
+   * @param messages the first count entries are single-event messages from {@link #encode}
+   */
+  public static byte[] encodeBatch(byte[][] messages, int count) {
+    ByteBuffer batch = ByteBuffer.allocate(BATCH_HEADER_SIZE + count * MESSAGE_SIZE);
+    batch.put(FORMAT_VERSION);
+    batch.putInt(count);
+    for (int i = 0; i < count; i++) {
+      batch.put(messages[i]);
+    }
+    return batch.array();
+  }
+
+  /**
+   * Number of events in a batch, so the receiver can prepare before {@link #decodeBatch}
+   *
+   * @throws IllegalArgumentException if the message is not a batch of a known version
+   */
+  public static int batchSize(byte[] body) {
+    if (body.length < BATCH_HEADER_SIZE || body[0] != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Not a version " + FORMAT_VERSION + " lift ride batch");
+    }
+    int count = ByteBuffer.wrap(body).getInt(1);
+    if (count < 0 || body.length != BATCH_HEADER_SIZE + (long) count * MESSAGE_SIZE) {
+      throw new IllegalArgumentException("Lift ride batch of " + body.length + " bytes cannot hold "
+          + count + " events");
+    }
+    return count;
+  }
+
+  /**
+   * Pass every event in the batch to the sink, in order
+   *
+   * @throws IllegalArgumentException if the message is not a batch of a known version
+   */
+  public static void decodeBatch(byte[] body, Sink<?> sink) {
+    int count = batchSize(body);
+    byte[] message = new byte[MESSAGE_SIZE];
+    for (int i = 0; i < count; i++) {
+      System.arraycopy(body, BATCH_HEADER_SIZE + i * MESSAGE_SIZE, message, 0, MESSAGE_SIZE);
+      decode(message, sink);
+    }
+  }
+
+  /**
+   * @return the message, or null if the event cannot be represented and must be sent as JSON
+   */
+  public static byte[] encode(String eventID, int skierID, int resortID, String seasonID,
+      String dayID, int liftID, int time) {
+    int season = parseCanonical(seasonID);
+    int day = parseCanonical(dayID);
+    if (season < 0 || day < 0) {
+      return null;
+    }
+    UUID event = null;
+    if (eventID != null) {
+      try {
+        event = UUID.fromString(eventID);
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+      if (!event.toString().equals(eventID)) {
+        return null;
+      }
+    }
+
+    ByteBuffer message = ByteBuffer.allocate(MESSAGE_SIZE);
+    message.put(FORMAT_VERSION);
+    message.put((byte) (event != null ? FLAG_EVENT_ID : 0));
+    message.putLong(event != null ? event.getMostSignificantBits() : 0);
+    message.putLong(event != null ? event.getLeastSignificantBits() : 0);
+    message.putInt(skierID);
+    message.putInt(resortID);
+    message.putInt(season);
+    message.putInt(day);
+    message.putInt(liftID);
+    message.putInt(time);
+    return message.array();
+  }
+
+  /**
+   * @throws IllegalArgumentException if the message is not a binary event of a known version
+   */
+  public static <T> T decode(byte[] body, Sink<T> sink) {
+    if (body.length != MESSAGE_SIZE || body[0] != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Not a version " + FORMAT_VERSION + " lift ride message");
+    }
+    ByteBuffer message = ByteBuffer.wrap(body);
+    message.position(1);
+    byte flags = message.get();
+    long mostSignificant = message.getLong();
+    long leastSignificant = message.getLong();
+    String eventID = (flags & FLAG_EVENT_ID) != 0
+        ? new UUID(mostSignificant, leastSignificant).toString() : null;
+    int skierID = message.getInt();
+    int resortID = message.getInt();
+    String seasonID = String.valueOf(message.getInt());
+    String dayID = String.valueOf(message.getInt());
+    int liftID = message.getInt();
+    int time = message.getInt();
+    return sink.event(eventID, skierID, resortID, seasonID, dayID, liftID, time);
+  }
+
+  /**
+   * @return the value of a decimal ID that round-trips through an int, or -1
+   */
+  private static int parseCanonical(String id) {
+    if (id == null || id.isEmpty() || id.length() > 9 || (id.length() > 1 && id.charAt(0) == '0')) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = 0; i < id.length(); i++) {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+}
@@ -0,0 +1,146 @@
+package neu.cs6650.common;
+
+/**
+ * Decoder for the lift ride request body in the form clients send it, {@code {"time":..,"liftID":..}}
+ * with the two keys in either order. It reads the UTF-8 bytes directly into ints in one pass,
+ * without building strings or a parse tree. The decoder is a few ints, cheap to create per request,
+ * and can also be reused.
+ *
+ * <p>Only that exact shape is accepted: each key once and nothing else, integer values of at most
+ * nine digits, JSON whitespace between tokens. Anything else (escapes, other fields, nulls,
+ * fractions, exponents) is refused rather than guessed at; callers fall back to a general JSON
+ * parser for it. Range checks are left to the caller.
+ */
+public final class LiftRideJsonDecoder {
+
+  private static final byte[] TIME = {'t', 'i', 'm', 'e'};
+  private static final byte[] LIFT_ID = {'l', 'i', 'f', 't', 'I', 'D'};
+
+  private int time;
+  private int liftID;
+
+  /** Read position and last number of the decode in progress */
+  private int position;
+  private int number;
+
+  public boolean decode(byte[] body) {
+    return decode(body, 0, body.length);
+  }
+
+  /**
+   * @return whether the bytes are a lift ride body this decoder handles; the fields are only
+   *     meaningful if they are
+   */
+  public boolean decode(byte[] body, int offset, int length) {
+    int end = offset + length;
+    position = offset;
+    boolean seenTime = false;
+    boolean seenLiftID = false;
+
+    if (!expect(body, end, '{')) {
+      return false;
+    }
+    for (int field = 0; field < 2; field++) {
+      if (field > 0 && !expect(body, end, ',')) {
+        return false;
+      }
+      if (!expect(body, end, '"')) {
+        return false;
+      }
+      boolean isTime;
+      if (match(body, end, TIME)) {
+        isTime = true;
+      } else if (match(body, end, LIFT_ID)) {
+        isTime = false;
+      } else {
+        return false;
+      }
+      if (position >= end || body[position++] != '"' || !expect(body, end, ':')) {
+        return false;
+      }
+      skipWhitespace(body, end);
+      if (!readNumber(body, end)) {
+        return false;
+      }
+      if (isTime && !seenTime) {
+        time = number;
+        seenTime = true;
+      } else if (!isTime && !seenLiftID) {
+        liftID = number;
+        seenLiftID = true;
+      } else {
+        return false;
+      }
+    }
+    if (!expect(body, end, '}')) {
+      return false;
+    }
+    skipWhitespace(body, end);
+    return position == end;
+  }
+
+  public int getTime() {
+    return time;
+  }
+
+  public int getLiftID() {
+    return liftID;
+  }
+
+  /**
+   * Skip whitespace, then consume the given character
+   */
+  private boolean expect(byte[] body, int end, char c) {
+    skipWhitespace(body, end);
+    if (position < end && body[position] == c) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  private boolean match(byte[] body, int end, byte[] key) {
+    if (end - position < key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (body[position + i] != key[i]) {
+        return false;
+      }
+    }
+    position += key.length;
+    return true;
+  }
+
+  /**
+   * A JSON integer: optional minus, no leading zeros, at most nine digits so it fits an int
+   */
+  private boolean readNumber(byte[] body, int end) {
+    boolean negative = position < end && body[position] == '-';
+    if (negative) {
+      position++;
+    }
+    int start = position;
+    int value = 0;
+    while (position < end && body[position] >= '0' && body[position] <= '9') {
+      value = value * 10 + (body[position] - '0');
+      position++;
+    }
+    int digits = position - start;
+    if (digits == 0 || digits > 9 || (digits > 1 && body[start] == '0')) {
+      return false;
+    }
+    number = negative ? -value : value;
+    return true;
+  }
+
+  private void skipWhitespace(byte[] body, int end) {
+    while (position < end) {
+      byte b = body[position];
+      if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+        return;
+      }
+      position++;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package neu.cs6650.common;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces single-event messages into batches of up to maxEvents, publishing a batch when it is
+ * full or when its first event has waited lingerMillis, whichever comes first. A full batch is
+ * published by the thread that filled it and an expired one by the batcher's timer thread; either
+ * way outside the lock, so producers keep adding to the next batch meanwhile.
+ *
+ * <p>Each added event gets a future that completes when the publisher reports its batch as
+ * published (with publisher confirms, once the broker has confirmed it), or exceptionally if
+ * publishing failed. A maxEvents of 1 publishes every event on its own.
+ */
+public class MessageBatcher implements AutoCloseable {
+
+  /**
+   * Sends one batch; called by one thread at a time per batch, possibly concurrently for
+   * different batches
+   */
+  public interface Publisher {
+    /**
+     * @return completes once the batch is safely published, e.g. confirmed by the broker
+     */
+    CompletableFuture<Void> publish(byte[][] messages, int count) throws IOException;
+  }
+
+  private final int maxEvents;
+  private final long lingerMillis;
+  private final Publisher publisher;
+  private final ScheduledExecutorService timer;
+
+  private byte[][] messages;
+  private CompletableFuture<Void> published;
+  private int count;
+  private ScheduledFuture<?> lingerTimeout;
+
+  public MessageBatcher(int maxEvents, long lingerMillis, Publisher publisher) {
+    this.maxEvents = Math.max(1, maxEvents);
+    this.lingerMillis = lingerMillis;
+    this.publisher = publisher;
+    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "message-batcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    startBatch();
+  }
+
+  /**
+   * @return completes once the batch holding this message has been published
+   */
+  public CompletableFuture<Void> add(byte[] message) {
+    Batch full = null;
+    CompletableFuture<Void> result;
+    synchronized (this) {
+      messages[count++] = message;
+      result = published;
+      if (count == 1 && maxEvents > 1) {
+        lingerTimeout = timer.schedule(this::publishExpired, lingerMillis, TimeUnit.MILLISECONDS);
+      }
+      if (count == maxEvents) {
+        full = cutBatch();
+      }
+    }
+    if (full != null) {
+      full.publish();
+    }
+    return result;
+  }
+
+  /**
+   * Publish whatever is waiting now
+   */
+  public void flush() {
+    Batch batch;
+    synchronized (this) {
+      batch = count > 0 ? cutBatch() : null;
+    }
+    if (batch != null) {
+      batch.publish();
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+    timer.shutdown();
+  }
+
+  private void publishExpired() {
+    flush();
+  }
+
+  /**
+   * Called with the lock held
+   */
+  private Batch cutBatch() {
+    Batch batch = new Batch(messages, count, published);
+    if (lingerTimeout != null) {
+      lingerTimeout.cancel(false);
+      lingerTimeout = null;
+    }
+    startBatch();
+    return batch;
+  }
+
+  private void startBatch() {
+    messages = new byte[maxEvents][];
+    published = new CompletableFuture<>();
+    count = 0;
+  }
+
+  private final class Batch {
+    private final byte[][] messages;
+    private final int count;
+    private final CompletableFuture<Void> published;
+
+    private Batch(byte[][] messages, int count, CompletableFuture<Void> published) {
+      this.messages = messages;
+      this.count = count;
+      this.published = published;
+    }
+
+    private void publish() {
+      try {
+        publisher.publish(messages, count).whenComplete((ignored, error) -> {
+          if (error == null) {
+            published.complete(null);
+          } else {
+            published.completeExceptionally(error);
+          }
+        });
+      } catch (IOException | RuntimeException e) {
+        published.completeExceptionally(e);
+      }
+    }
+  }
+}
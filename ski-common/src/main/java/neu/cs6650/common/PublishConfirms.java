@@ -0,0 +1,90 @@
+package neu.cs6650.common;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Publishes awaiting a broker confirm on one channel in confirm mode, keyed by the channel's
+ * publish sequence number. Wire {@link #confirmed} and {@link #nacked} to the channel's confirm
+ * listener and {@link #failAll} to its shutdown listener; every tracked publish then completes its
+ * future exactly once, so nothing waits on a confirm that will never come.
+ *
+ * <p>Futures complete on the thread delivering the confirm, normally the connection's; dependents
+ * that do real work should move off it.
+ */
+public class PublishConfirms {
+
+  private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> outstanding =
+      new ConcurrentSkipListMap<>();
+
+  /**
+   * Register a publish before it is sent, so a fast confirm cannot arrive ahead of it. No other
+   * publish may go out on the channel between reading the sequence number and publishing.
+   *
+   * @return completes once the broker confirms the publish, or exceptionally on nack or close
+   */
+  public CompletableFuture<Void> track(long sequenceNumber) {
+    CompletableFuture<Void> confirmed = new CompletableFuture<>();
+    outstanding.put(sequenceNumber, confirmed);
+    return confirmed;
+  }
+
+  /**
+   * Stop tracking a publish that failed to send; it will get no confirm
+   */
+  public void forget(long sequenceNumber) {
+    outstanding.remove(sequenceNumber);
+  }
+
+  public void confirmed(long deliveryTag, boolean multiple) {
+    settle(deliveryTag, multiple, null);
+  }
+
+  public void nacked(long deliveryTag, boolean multiple) {
+    settle(deliveryTag, multiple, new IOException("Broker rejected publish " + deliveryTag));
+  }
+
+  /**
+   * Fail everything still outstanding, when the channel has closed
+   */
+  public void failAll(Throwable cause) {
+    Iterator<Map.Entry<Long, CompletableFuture<Void>>> pending = outstanding.entrySet().iterator();
+    while (pending.hasNext()) {
+      CompletableFuture<Void> future = pending.next().getValue();
+      pending.remove();
+      future.completeExceptionally(new IOException("Channel closed before the broker confirmed", cause));
+    }
+  }
+
+  public int getOutstandingCount() {
+    return outstanding.size();
+  }
+
+  private void settle(long deliveryTag, boolean multiple, Throwable error) {
+    if (!multiple) {
+      CompletableFuture<Void> future = outstanding.remove(deliveryTag);
+      if (future != null) {
+        complete(future, error);
+      }
+      return;
+    }
+    ConcurrentNavigableMap<Long, CompletableFuture<Void>> settled = outstanding.headMap(deliveryTag, true);
+    for (Map.Entry<Long, CompletableFuture<Void>> entry : settled.entrySet()) {
+      if (settled.remove(entry.getKey(), entry.getValue())) {
+        complete(entry.getValue(), error);
+      }
+    }
+  }
+
+  private static void complete(CompletableFuture<Void> future, Throwable error) {
+    if (error == null) {
+      future.complete(null);
+    } else {
+      future.completeExceptionally(error);
+    }
+  }
+}
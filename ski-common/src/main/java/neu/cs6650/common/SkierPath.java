@@ -0,0 +1,142 @@
+package neu.cs6650.common;
+
+/**
+ * Parser and validator for the path of the skier POST route,
+ * {@code /{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}} below {@code /skiers}. One
+ * pass over the characters fills the four IDs as ints without allocating; the parser itself is
+ * only a few ints, so one per request costs next to nothing.
+ *
+ * <p>IDs must be canonical decimals (no sign or leading zeros) within the ranges the API accepts;
+ * trailing slashes are ignored.
+ */
+public final class SkierPath {
+
+  public static final int MIN_RESORT_ID = 1;
+  public static final int MAX_RESORT_ID = 10;
+  public static final int SEASON_ID = 2025;
+  public static final int DAY_ID = 1;
+  public static final int MIN_SKIER_ID = 1;
+  public static final int MAX_SKIER_ID = 100000;
+
+  private static final String SEASONS = "/seasons/";
+  private static final String DAYS = "/days/";
+  private static final String SKIERS = "/skiers/";
+
+  private int resortID;
+  private int seasonID;
+  private int dayID;
+  private int skierID;
+
+  /** Read position of the parse in progress */
+  private int position;
+
+  /**
+   * @return whether the path is a valid skier POST path; the IDs are only meaningful if it is
+   */
+  public boolean parse(CharSequence path) {
+    if (path == null) {
+      return false;
+    }
+    int end = path.length();
+    while (end > 0 && path.charAt(end - 1) == '/') {
+      end--;
+    }
+    position = 0;
+    if (end == 0 || path.charAt(0) != '/') {
+      return false;
+    }
+    position = 1;
+    resortID = readId(path, end);
+    if (resortID < 0 || !skip(path, end, SEASONS)) {
+      return false;
+    }
+    seasonID = readId(path, end);
+    if (seasonID < 0 || !skip(path, end, DAYS)) {
+      return false;
+    }
+    dayID = readId(path, end);
+    if (dayID < 0 || !skip(path, end, SKIERS)) {
+      return false;
+    }
+    skierID = readId(path, end);
+    return skierID >= 0 && position == end && isValid(resortID, seasonID, dayID, skierID);
+  }
+
+  public int getResortID() {
+    return resortID;
+  }
+
+  public int getSeasonID() {
+    return seasonID;
+  }
+
+  public int getDayID() {
+    return dayID;
+  }
+
+  public int getSkierID() {
+    return skierID;
+  }
+
+  public static boolean isValid(int resortID, int seasonID, int dayID, int skierID) {
+    return resortID >= MIN_RESORT_ID && resortID <= MAX_RESORT_ID
+        && seasonID == SEASON_ID
+        && dayID == DAY_ID
+        && skierID >= MIN_SKIER_ID && skierID <= MAX_SKIER_ID;
+  }
+
+  /**
+   * For IDs that arrive already split out, as Spring path variables
+   */
+  public static boolean isValid(int resortID, CharSequence seasonID, CharSequence dayID, int skierID) {
+    return seasonID != null && dayID != null
+        && isValid(resortID, parseId(seasonID, 0, seasonID.length()),
+            parseId(dayID, 0, dayID.length()), skierID);
+  }
+
+  /**
+   * Read an ID ending at the next slash or at end
+   */
+  private int readId(CharSequence path, int end) {
+    int start = position;
+    int stop = start;
+    while (stop < end && path.charAt(stop) != '/') {
+      stop++;
+    }
+    position = stop;
+    return parseId(path, start, stop);
+  }
+
+  private boolean skip(CharSequence path, int end, String literal) {
+    int length = literal.length();
+    if (end - position < length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (path.charAt(position + i) != literal.charAt(i)) {
+        return false;
+      }
+    }
+    position += length;
+    return true;
+  }
+
+  /**
+   * @return the value of a canonical decimal of at most nine digits, or -1
+   */
+  private static int parseId(CharSequence chars, int start, int end) {
+    int length = end - start;
+    if (length == 0 || length > 9 || (length > 1 && chars.charAt(start) == '0')) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      char c = chars.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+}
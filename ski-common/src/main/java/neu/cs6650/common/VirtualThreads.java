@@ -0,0 +1,43 @@
+package neu.cs6650.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual-thread executors for servers that may run on Java 21 or later. The modules are built
+ * for older releases, so the Java 21 API is looked up reflectively; on a runtime without virtual
+ * threads callers get null and keep their platform-thread pools.
+ */
+public final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  public static boolean isSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return an executor starting one virtual thread per task, named namePrefix followed by a
+   *     counter, or null if this runtime has no virtual threads
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+    try {
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+      return (ExecutorService) Executors.class
+          .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+          .invoke(null, factory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package neu.cs6650.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LiftRideEventCodecTest {
+
+  private static final String EVENT_ID = "0190a4c2-7d3e-7abc-8def-0123456789ab";
+
+  @Test
+  public void roundTripsEveryField() {
+    byte[] message = LiftRideEventCodec.encode(EVENT_ID, 12345, 7, "2025", "1", 33, 217);
+
+    assertEquals(LiftRideEventCodec.MESSAGE_SIZE, message.length);
+    assertEquals(Arrays.asList(EVENT_ID, 12345, 7, "2025", "1", 33, 217),
+        LiftRideEventCodec.decode(message, LiftRideEventCodecTest::fields));
+  }
+
+  @Test
+  public void roundTripsMissingEventID() {
+    byte[] message = LiftRideEventCodec.encode(null, 1, 1, "2025", "1", 1, 1);
+
+    assertNull(LiftRideEventCodec.decode(message, LiftRideEventCodecTest::fields).get(0));
+  }
+
+  @Test
+  public void refusesWhatOnlyJsonCanCarry() {
+    assertNull(LiftRideEventCodec.encode(EVENT_ID, 1, 1, "02025", "1", 1, 1));
+    assertNull(LiftRideEventCodec.encode(EVENT_ID, 1, 1, "2025", "-1", 1, 1));
+    assertNull(LiftRideEventCodec.encode(EVENT_ID, 1, 1, "2025", "", 1, 1));
+    assertNull(LiftRideEventCodec.encode(EVENT_ID, 1, 1, "1234567890", "1", 1, 1));
+    assertNull(LiftRideEventCodec.encode("not-a-uuid", 1, 1, "2025", "1", 1, 1));
+    assertNull(LiftRideEventCodec.encode(EVENT_ID.toUpperCase(), 1, 1, "2025", "1", 1, 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMessageOfWrongSize() {
+    LiftRideEventCodec.decode(new byte[LiftRideEventCodec.MESSAGE_SIZE - 1], LiftRideEventCodecTest::fields);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownVersion() {
+    byte[] message = LiftRideEventCodec.encode(EVENT_ID, 1, 1, "2025", "1", 1, 1);
+    message[0] = LiftRideEventCodec.FORMAT_VERSION + 1;
+    LiftRideEventCodec.decode(message, LiftRideEventCodecTest::fields);
+  }
+
+  @Test
+  public void batchDecodesEventsInOrder() {
+    byte[][] messages = new byte[3][];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = LiftRideEventCodec.encode(EVENT_ID, i + 1, 2, "2025", "1", 10 + i, 100 + i);
+    }
+    // only the first count entries belong to the batch
+    byte[] batch = LiftRideEventCodec.encodeBatch(messages, 2);
+
+    assertEquals(2, LiftRideEventCodec.batchSize(batch));
+    List<List<Object>> decoded = new ArrayList<>();
+    LiftRideEventCodec.decodeBatch(batch, (eventID, skierID, resortID, seasonID, dayID, liftID, time) ->
+        decoded.add(fields(eventID, skierID, resortID, seasonID, dayID, liftID, time)));
+    assertEquals(2, decoded.size());
+    assertEquals(Arrays.asList(EVENT_ID, 1, 2, "2025", "1", 10, 100), decoded.get(0));
+    assertEquals(Arrays.asList(EVENT_ID, 2, 2, "2025", "1", 11, 101), decoded.get(1));
+  }
+
+  @Test
+  public void emptyBatch() {
+    byte[] batch = LiftRideEventCodec.encodeBatch(new byte[0][], 0);
+
+    assertEquals(0, LiftRideEventCodec.batchSize(batch));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsBatchWhoseCountDisagreesWithItsLength() {
+    byte[][] messages = {LiftRideEventCodec.encode(EVENT_ID, 1, 1, "2025", "1", 1, 1)};
+    byte[] batch = LiftRideEventCodec.encodeBatch(messages, 1);
+    LiftRideEventCodec.batchSize(Arrays.copyOf(batch, batch.length - 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsSingleMessageAsBatch() {
+    LiftRideEventCodec.batchSize(LiftRideEventCodec.encode(EVENT_ID, 1, 1, "2025", "1", 1, 1));
+  }
+
+  private static List<Object> fields(String eventID, int skierID, int resortID, String seasonID,
+      String dayID, int liftID, int time) {
+    return Arrays.asList(eventID, skierID, resortID, seasonID, dayID, liftID, time);
+  }
+}
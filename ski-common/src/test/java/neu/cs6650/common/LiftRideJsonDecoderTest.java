@@ -0,0 +1,106 @@
+package neu.cs6650.common;
+
+import io.swagger.client.model.LiftRide;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LiftRideJsonDecoderTest {
+
+  private final LiftRideJsonDecoder decoder = new LiftRideJsonDecoder();
+
+  @Test
+  public void decodesEitherKeyOrder() {
+    assertTrue(decode("{\"time\":217,\"liftID\":33}"));
+    assertEquals(217, decoder.getTime());
+    assertEquals(33, decoder.getLiftID());
+
+    assertTrue(decode("{\"liftID\":5,\"time\":9}"));
+    assertEquals(9, decoder.getTime());
+    assertEquals(5, decoder.getLiftID());
+  }
+
+  @Test
+  public void allowsWhitespaceBetweenTokens() {
+    assertTrue(decode(" {\n\t\"time\" : 1 ,\r\n \"liftID\": 40 } \n"));
+    assertEquals(1, decoder.getTime());
+    assertEquals(40, decoder.getLiftID());
+  }
+
+  @Test
+  public void leavesRangeChecksToTheCaller() {
+    assertTrue(decode("{\"time\":-5,\"liftID\":0}"));
+    assertEquals(-5, decoder.getTime());
+    assertEquals(0, decoder.getLiftID());
+  }
+
+  @Test
+  public void decodesWithinOffsetAndLength() {
+    byte[] body = "xx{\"time\":3,\"liftID\":4}yy".getBytes(StandardCharsets.UTF_8);
+    assertTrue(decoder.decode(body, 2, body.length - 4));
+    assertEquals(3, decoder.getTime());
+    assertEquals(4, decoder.getLiftID());
+  }
+
+  @Test
+  public void refusesAnythingButTheExactShape() {
+    assertFalse(decode(""));
+    assertFalse(decode("{}"));
+    assertFalse(decode("{\"time\":1}"));
+    assertFalse(decode("{\"time\":1,\"time\":2}"));
+    assertFalse(decode("{\"time\":1,\"liftID\":2,\"extra\":3}"));
+    assertFalse(decode("{\"time\":1,\"liftID\":2}x"));
+    assertFalse(decode("{\"time\":1,\"liftID\":2"));
+    assertFalse(decode("{\"time\":1 \"liftID\":2}"));
+    assertFalse(decode("{\"Time\":1,\"liftID\":2}"));
+    assertFalse(decode("{\"t\\u0069me\":1,\"liftID\":2}"));
+  }
+
+  @Test
+  public void refusesValuesThatAreNotSmallIntegers() {
+    assertFalse(decode("{\"time\":null,\"liftID\":2}"));
+    assertFalse(decode("{\"time\":\"1\",\"liftID\":2}"));
+    assertFalse(decode("{\"time\":1.5,\"liftID\":2}"));
+    assertFalse(decode("{\"time\":1e2,\"liftID\":2}"));
+    assertFalse(decode("{\"time\":01,\"liftID\":2}"));
+    assertFalse(decode("{\"time\":-,\"liftID\":2}"));
+    assertFalse(decode("{\"time\":1234567890,\"liftID\":2}"));
+  }
+
+  @Test
+  public void bodiesFallBackToGsonForWhatTheDecoderRefuses() {
+    LiftRide liftRide = LiftRideBodies.decode(bytes("{\"time\":1.0,\"liftID\":2,\"extra\":true}"));
+    assertEquals(Integer.valueOf(1), liftRide.getTime());
+    assertEquals(Integer.valueOf(2), liftRide.getLiftID());
+    assertTrue(LiftRideBodies.isValid(liftRide));
+  }
+
+  @Test
+  public void bodiesThatAreNotJsonDecodeToNull() {
+    assertNull(LiftRideBodies.decode(bytes("{\"time\":")));
+    assertNull(LiftRideBodies.decode(bytes("")));
+  }
+
+  @Test
+  public void bodiesOutOfRangeOrIncompleteAreInvalid() {
+    assertFalse(LiftRideBodies.isValid(null));
+    assertFalse(LiftRideBodies.isValid(LiftRideBodies.decode(bytes("{\"time\":1}"))));
+    assertFalse(LiftRideBodies.isValid(LiftRideBodies.decode(bytes("{\"time\":0,\"liftID\":2}"))));
+    assertFalse(LiftRideBodies.isValid(LiftRideBodies.decode(bytes("{\"time\":361,\"liftID\":2}"))));
+    assertFalse(LiftRideBodies.isValid(LiftRideBodies.decode(bytes("{\"time\":1,\"liftID\":41}"))));
+    assertTrue(LiftRideBodies.isValid(LiftRideBodies.decode(bytes("{\"time\":360,\"liftID\":40}"))));
+  }
+
+  private boolean decode(String body) {
+    return decoder.decode(bytes(body));
+  }
+
+  private static byte[] bytes(String body) {
+    return body.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,181 @@
+package neu.cs6650.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageBatcherTest {
+
+  private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+  private final List<CompletableFuture<Void>> confirms = new CopyOnWriteArrayList<>();
+  private MessageBatcher batcher;
+
+  @After
+  public void tearDown() {
+    if (batcher != null) {
+      batcher.close();
+    }
+  }
+
+  @Test
+  public void publishesAFullBatchFromTheAddingThread() {
+    batcher = new MessageBatcher(3, 60_000, this::record);
+
+    CompletableFuture<Void> first = batcher.add(bytes("a"));
+    batcher.add(bytes("b"));
+    assertTrue(batches.isEmpty());
+    CompletableFuture<Void> third = batcher.add(bytes("c"));
+
+    assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), batches);
+    assertSame(first, third);
+    assertFalse(first.isDone());
+    confirms.get(0).complete(null);
+    assertTrue(first.isDone());
+  }
+
+  @Test
+  public void nextBatchGetsItsOwnFuture() {
+    batcher = new MessageBatcher(2, 60_000, this::record);
+
+    CompletableFuture<Void> first = batcher.add(bytes("a"));
+    batcher.add(bytes("b"));
+    CompletableFuture<Void> second = batcher.add(bytes("c"));
+
+    assertNotSame(first, second);
+    confirms.get(0).complete(null);
+    assertTrue(first.isDone());
+    assertFalse(second.isDone());
+  }
+
+  @Test
+  public void publishesAPartialBatchOnceItsFirstEventHasLingered() throws Exception {
+    batcher = new MessageBatcher(10, 20, this::record);
+
+    CompletableFuture<Void> published = batcher.add(bytes("a"));
+    batcher.add(bytes("b"));
+
+    assertTrue(awaitBatches(1));
+    assertEquals(Arrays.asList("a", "b"), batches.get(0));
+    confirms.get(0).complete(null);
+    published.get(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void fullBatchCancelsItsLingerTimeout() throws Exception {
+    batcher = new MessageBatcher(2, 50, this::record);
+
+    batcher.add(bytes("a"));
+    batcher.add(bytes("b"));
+    Thread.sleep(150);
+
+    assertEquals(1, batches.size());
+  }
+
+  @Test
+  public void closePublishesWhatIsWaiting() {
+    batcher = new MessageBatcher(10, 60_000, this::record);
+    batcher.add(bytes("a"));
+
+    batcher.close();
+    batcher = null;
+
+    assertEquals(Collections.singletonList(Collections.singletonList("a")), batches);
+  }
+
+  @Test
+  public void flushWithNothingWaitingPublishesNothing() {
+    batcher = new MessageBatcher(10, 60_000, this::record);
+
+    batcher.flush();
+
+    assertTrue(batches.isEmpty());
+  }
+
+  @Test
+  public void maxEventsOfOnePublishesEachEventAlone() {
+    batcher = new MessageBatcher(1, 60_000, this::record);
+
+    batcher.add(bytes("a"));
+    batcher.add(bytes("b"));
+
+    assertEquals(Arrays.asList(Collections.singletonList("a"), Collections.singletonList("b")), batches);
+  }
+
+  @Test
+  public void publisherThatThrowsFailsEveryFutureInItsBatch() {
+    IOException error = new IOException("channel closed");
+    batcher = new MessageBatcher(2, 60_000, (messages, count) -> {
+      throw error;
+    });
+
+    CompletableFuture<Void> first = batcher.add(bytes("a"));
+    CompletableFuture<Void> second = batcher.add(bytes("b"));
+
+    assertFailedWith(error, first);
+    assertFailedWith(error, second);
+  }
+
+  @Test
+  public void nackedBatchFailsEveryFutureInIt() {
+    batcher = new MessageBatcher(2, 60_000, this::record);
+
+    CompletableFuture<Void> first = batcher.add(bytes("a"));
+    CompletableFuture<Void> second = batcher.add(bytes("b"));
+    IOException nack = new IOException("nacked");
+    confirms.get(0).completeExceptionally(nack);
+
+    assertFailedWith(nack, first);
+    assertFailedWith(nack, second);
+  }
+
+  private CompletableFuture<Void> record(byte[][] messages, int count) {
+    List<String> batch = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      batch.add(new String(messages[i]));
+    }
+    batches.add(batch);
+    CompletableFuture<Void> confirm = new CompletableFuture<>();
+    confirms.add(confirm);
+    return confirm;
+  }
+
+  private boolean awaitBatches(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (batches.size() < count) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(5);
+    }
+    return true;
+  }
+
+  private static void assertFailedWith(Throwable expected, CompletableFuture<Void> future) {
+    try {
+      future.join();
+      fail("expected the batch to fail");
+    } catch (CompletionException e) {
+      assertSame(expected, e.getCause());
+    }
+  }
+
+  private static byte[] bytes(String message) {
+    return message.getBytes();
+  }
+}
@@ -0,0 +1,119 @@
+package neu.cs6650.common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PublishConfirmsTest {
+
+  private final PublishConfirms confirms = new PublishConfirms();
+
+  @Test
+  public void singleConfirmSettlesOnlyItsOwnPublish() {
+    CompletableFuture<Void> first = confirms.track(1);
+    CompletableFuture<Void> second = confirms.track(2);
+
+    confirms.confirmed(2, false);
+
+    assertFalse(first.isDone());
+    assertConfirmed(second);
+    assertEquals(1, confirms.getOutstandingCount());
+  }
+
+  @Test
+  public void multipleConfirmSettlesEverythingUpToItsTag() {
+    CompletableFuture<Void> first = confirms.track(1);
+    CompletableFuture<Void> second = confirms.track(2);
+    CompletableFuture<Void> third = confirms.track(3);
+
+    confirms.confirmed(2, true);
+
+    assertConfirmed(first);
+    assertConfirmed(second);
+    assertFalse(third.isDone());
+    assertEquals(1, confirms.getOutstandingCount());
+  }
+
+  @Test
+  public void nacksFailTheirPublishes() {
+    CompletableFuture<Void> first = confirms.track(1);
+    CompletableFuture<Void> second = confirms.track(2);
+    CompletableFuture<Void> third = confirms.track(3);
+
+    confirms.nacked(3, false);
+    confirms.nacked(2, true);
+
+    assertTrue(failure(first) instanceof IOException);
+    assertTrue(failure(second) instanceof IOException);
+    assertTrue(failure(third) instanceof IOException);
+    assertEquals(0, confirms.getOutstandingCount());
+  }
+
+  @Test
+  public void confirmsForUnknownOrSettledTagsAreIgnored() {
+    CompletableFuture<Void> first = confirms.track(1);
+    confirms.confirmed(1, false);
+
+    confirms.nacked(1, false);
+    confirms.confirmed(7, false);
+    confirms.confirmed(7, true);
+
+    assertConfirmed(first);
+    assertEquals(0, confirms.getOutstandingCount());
+  }
+
+  @Test
+  public void forgottenPublishIsLeftOutOfLaterConfirms() {
+    CompletableFuture<Void> forgotten = confirms.track(1);
+    CompletableFuture<Void> sent = confirms.track(2);
+
+    confirms.forget(1);
+    confirms.confirmed(2, true);
+
+    assertFalse(forgotten.isDone());
+    assertConfirmed(sent);
+    assertEquals(0, confirms.getOutstandingCount());
+  }
+
+  @Test
+  public void closeFailsEveryOutstandingPublish() {
+    CompletableFuture<Void> confirmed = confirms.track(1);
+    CompletableFuture<Void> first = confirms.track(2);
+    CompletableFuture<Void> second = confirms.track(3);
+    confirms.confirmed(1, false);
+    IOException cause = new IOException("connection reset");
+
+    confirms.failAll(cause);
+
+    assertConfirmed(confirmed);
+    assertSame(cause, failure(first).getCause());
+    assertSame(cause, failure(second).getCause());
+    assertEquals(0, confirms.getOutstandingCount());
+    // a confirm racing the close finds nothing left to settle
+    confirms.confirmed(3, true);
+    assertSame(cause, failure(second).getCause());
+  }
+
+  private static void assertConfirmed(CompletableFuture<Void> future) {
+    assertTrue(future.isDone());
+    future.join();
+  }
+
+  private static Throwable failure(CompletableFuture<Void> future) {
+    try {
+      future.join();
+    } catch (CompletionException e) {
+      return e.getCause();
+    }
+    fail("expected the publish to fail");
+    return null;
+  }
+}
@@ -0,0 +1,77 @@
+package neu.cs6650.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SkierPathTest {
+
+  private final SkierPath path = new SkierPath();
+
+  @Test
+  public void parsesValidPath() {
+    assertTrue(path.parse("/3/seasons/2025/days/1/skiers/4567"));
+    assertEquals(3, path.getResortID());
+    assertEquals(2025, path.getSeasonID());
+    assertEquals(1, path.getDayID());
+    assertEquals(4567, path.getSkierID());
+  }
+
+  @Test
+  public void ignoresTrailingSlashes() {
+    assertTrue(path.parse("/10/seasons/2025/days/1/skiers/100000//"));
+    assertEquals(10, path.getResortID());
+    assertEquals(100000, path.getSkierID());
+  }
+
+  @Test
+  public void parserCanBeReused() {
+    assertTrue(path.parse("/1/seasons/2025/days/1/skiers/1"));
+    assertFalse(path.parse("/1/seasons/2025/days/1/skiers/x"));
+    assertTrue(path.parse("/2/seasons/2025/days/1/skiers/2"));
+    assertEquals(2, path.getResortID());
+    assertEquals(2, path.getSkierID());
+  }
+
+  @Test
+  public void rejectsMalformedPaths() {
+    assertFalse(path.parse(null));
+    assertFalse(path.parse(""));
+    assertFalse(path.parse("/"));
+    assertFalse(path.parse("1/seasons/2025/days/1/skiers/1"));
+    assertFalse(path.parse("/1/season/2025/days/1/skiers/1"));
+    assertFalse(path.parse("/1/seasons/2025/days/1/skiers"));
+    assertFalse(path.parse("/1/seasons/2025/days/1/skiers/"));
+    assertFalse(path.parse("/1/seasons/2025/days/1/skiers/1/vertical"));
+    assertFalse(path.parse("/1//seasons/2025/days/1/skiers/1"));
+  }
+
+  @Test
+  public void rejectsNonCanonicalIds() {
+    assertFalse(path.parse("/01/seasons/2025/days/1/skiers/1"));
+    assertFalse(path.parse("/1/seasons/+2025/days/1/skiers/1"));
+    assertFalse(path.parse("/1/seasons/2025/days/-1/skiers/1"));
+    assertFalse(path.parse("/1/seasons/2025/days/1/skiers/1a"));
+    assertFalse(path.parse("/1/seasons/2025/days/1/skiers/1234567890"));
+  }
+
+  @Test
+  public void rejectsIdsOutOfRange() {
+    assertFalse(path.parse("/0/seasons/2025/days/1/skiers/1"));
+    assertFalse(path.parse("/11/seasons/2025/days/1/skiers/1"));
+    assertFalse(path.parse("/1/seasons/2024/days/1/skiers/1"));
+    assertFalse(path.parse("/1/seasons/2025/days/2/skiers/1"));
+    assertFalse(path.parse("/1/seasons/2025/days/1/skiers/0"));
+    assertFalse(path.parse("/1/seasons/2025/days/1/skiers/100001"));
+  }
+
+  @Test
+  public void validatesSplitIds() {
+    assertTrue(SkierPath.isValid(1, "2025", "1", 1));
+    assertFalse(SkierPath.isValid(1, "02025", "1", 1));
+    assertFalse(SkierPath.isValid(1, "2025", null, 1));
+    assertFalse(SkierPath.isValid(11, "2025", "1", 1));
+  }
+}